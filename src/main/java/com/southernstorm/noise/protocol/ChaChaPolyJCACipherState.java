@@ -0,0 +1,211 @@
+package com.southernstorm.noise.protocol;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Implements the ChaChaPoly cipher for Noise on top of the "ChaCha20-Poly1305" cipher of the JCA. The 96-bit nonce is
+ * 32 zero bits followed by the 64-bit little-endian message counter, same as {@link ChaChaPolyCipherState}.
+ * <p>
+ * The per-packet Cipher.init() makes the JCA cipher slower than {@link ChaChaPolyCipherState} for small packets, so
+ * packets shorter than {@link #JCA_MIN_LENGTH} are handled by a {@link ChaChaPolyCipherState} with the same key and
+ * nonce. See ChaChaPolyCipherStateBenchmark for the measurements.
+ */
+class ChaChaPolyJCACipherState implements CipherState {
+
+    private static final String TRANSFORMATION = "ChaCha20-Poly1305";
+
+    /**
+     * Shortest plaintext that is encrypted or decrypted with the JCA cipher.
+     */
+    static final int JCA_MIN_LENGTH = 256;
+
+    private final Cipher cipher;
+    private final int jcaMinLength;
+    private final ChaChaPolyCipherState smallPackets = new ChaChaPolyCipherState();
+    private final byte[] nonce = new byte[12];
+    private SecretKeySpec keySpec;
+    private long n;
+
+    /**
+     * Constructs a new cipher state for the "ChaChaPoly" algorithm.
+     *
+     * @throws NoSuchAlgorithmException The JCA does not provide ChaCha20-Poly1305.
+     */
+    public ChaChaPolyJCACipherState() throws NoSuchAlgorithmException {
+        this(JCA_MIN_LENGTH);
+    }
+
+    /**
+     * @param jcaMinLength Shortest plaintext that is encrypted or decrypted with the JCA cipher, 0 to use it for all
+     *            packets.
+     */
+    ChaChaPolyJCACipherState(int jcaMinLength) throws NoSuchAlgorithmException {
+        this.jcaMinLength = jcaMinLength;
+        try {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (NoSuchPaddingException e) {
+            throw new NoSuchAlgorithmException("ChaCha20-Poly1305 not available", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // SecretKeySpec copies the key and cannot be wiped, drop the reference instead
+        keySpec = null;
+        Noise.destroy(nonce);
+        smallPackets.destroy();
+    }
+
+    @Override
+    public String getCipherName() {
+        return "ChaChaPoly";
+    }
+
+    @Override
+    public int getKeyLength() {
+        return 32;
+    }
+
+    @Override
+    public int getMACLength() {
+        return keySpec != null ? 16 : 0;
+    }
+
+    @Override
+    public void initializeKey(byte[] key, int offset) {
+        keySpec = new SecretKeySpec(key, offset, 32, "ChaCha20");
+        smallPackets.initializeKey(key, offset);
+        n = 0;
+    }
+
+    @Override
+    public boolean hasKey() {
+        return keySpec != null;
+    }
+
+    /**
+     * Set up the cipher to encrypt or decrypt the next packet.
+     *
+     * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE.
+     * @param ad The associated data for the packet.
+     */
+    private void setup(int mode, byte[] ad) {
+        long value = nextNonce();
+        for (int index = 4; index < 12; ++index) {
+            nonce[index] = (byte) value;
+            value >>= 8;
+        }
+        try {
+            cipher.init(mode, keySpec, new IvParameterSpec(nonce));
+        } catch (GeneralSecurityException e) {
+            // Only happens if the JCA rejects the key or nonce, ie when a nonce is reused after setNonce()
+            throw new IllegalStateException(e);
+        }
+        if (ad != null)
+            cipher.updateAAD(ad);
+    }
+
+    private long nextNonce() {
+        if (n == -1L)
+            throw new IllegalStateException("Nonce has wrapped around");
+        return n++;
+    }
+
+    @Override
+    public int encryptWithAd(byte[] ad, byte[] plaintext, int plaintextOffset, byte[] ciphertext, int ciphertextOffset,
+            int length) throws ShortBufferException {
+        int space;
+        if (ciphertextOffset < 0 || ciphertextOffset > ciphertext.length)
+            throw new IllegalArgumentException();
+        if (length < 0 || plaintextOffset < 0 || plaintextOffset > plaintext.length || length > plaintext.length
+                || (plaintext.length - plaintextOffset) < length)
+            throw new IllegalArgumentException();
+        space = ciphertext.length - ciphertextOffset;
+        if (keySpec == null) {
+            // The key is not set yet - return the plaintext as-is.
+            if (length > space)
+                throw new ShortBufferException();
+            if (plaintext != ciphertext || plaintextOffset != ciphertextOffset)
+                System.arraycopy(plaintext, plaintextOffset, ciphertext, ciphertextOffset, length);
+            return length;
+        }
+        if (space < 16 || length > (space - 16))
+            throw new ShortBufferException();
+        if (length < jcaMinLength) {
+            smallPackets.setNonce(nextNonce());
+            return smallPackets.encryptWithAd(ad, plaintext, plaintextOffset, ciphertext, ciphertextOffset, length);
+        }
+        setup(Cipher.ENCRYPT_MODE, ad);
+        try {
+            return cipher.doFinal(plaintext, plaintextOffset, length, ciphertext, ciphertextOffset);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int decryptWithAd(byte[] ad, byte[] ciphertext, int ciphertextOffset, byte[] plaintext, int plaintextOffset,
+            int length) throws ShortBufferException, BadPaddingException {
+        int space;
+        if (ciphertextOffset < 0 || ciphertextOffset > ciphertext.length)
+            throw new IllegalArgumentException();
+        else
+            space = ciphertext.length - ciphertextOffset;
+        if (length > space)
+            throw new ShortBufferException();
+        if (length < 0 || plaintextOffset < 0 || plaintextOffset > plaintext.length || length > ciphertext.length
+                || (ciphertext.length - ciphertextOffset) < length)
+            throw new IllegalArgumentException();
+        space = plaintext.length - plaintextOffset;
+        if (keySpec == null) {
+            // The key is not set yet - return the ciphertext as-is.
+            if (length > space)
+                throw new ShortBufferException();
+            if (plaintext != ciphertext || plaintextOffset != ciphertextOffset)
+                System.arraycopy(ciphertext, ciphertextOffset, plaintext, plaintextOffset, length);
+            return length;
+        }
+        if (length < 16)
+            Noise.throwBadTagException();
+        int dataLen = length - 16;
+        if (dataLen > space)
+            throw new ShortBufferException();
+        if (dataLen < jcaMinLength) {
+            smallPackets.setNonce(nextNonce());
+            return smallPackets.decryptWithAd(ad, ciphertext, ciphertextOffset, plaintext, plaintextOffset, length);
+        }
+        setup(Cipher.DECRYPT_MODE, ad);
+        try {
+            return cipher.doFinal(ciphertext, ciphertextOffset, length, plaintext, plaintextOffset);
+        } catch (BadPaddingException | ShortBufferException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public CipherState fork(byte[] key, int offset) {
+        CipherState cipher;
+        try {
+            cipher = new ChaChaPolyJCACipherState(jcaMinLength);
+        } catch (NoSuchAlgorithmException e) {
+            cipher = new ChaChaPolyCipherState();
+        }
+        cipher.initializeKey(key, offset);
+        return cipher;
+    }
+
+    @Override
+    public void setNonce(long nonce) {
+        n = nonce;
+    }
+}
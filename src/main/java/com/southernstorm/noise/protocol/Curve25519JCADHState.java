@@ -0,0 +1,207 @@
+package com.southernstorm.noise.protocol;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+
+import com.southernstorm.noise.crypto.Curve25519;
+
+/**
+ * Implementation of the Curve25519 algorithm for the Noise protocol on top of the "X25519" key pair generator and
+ * "XDH" key agreement of the JCA. Keys are kept as raw little-endian bytes, same as {@link Curve25519DHState}.
+ */
+class Curve25519JCADHState implements DHState {
+
+    private static final byte[] BASE_POINT = new byte[32];
+    static {
+        BASE_POINT[0] = 9;
+    }
+
+    private final KeyPairGenerator keyPairGenerator;
+    private final KeyFactory keyFactory;
+    private final KeyAgreement keyAgreement;
+    private byte[] publicKey;
+    private byte[] privateKey;
+    private int mode;
+
+    /**
+     * Constructs a new Diffie-Hellman object for Curve25519.
+     *
+     * @throws NoSuchAlgorithmException The JCA does not provide X25519.
+     */
+    public Curve25519JCADHState() throws NoSuchAlgorithmException {
+        keyPairGenerator = KeyPairGenerator.getInstance("X25519");
+        keyFactory = KeyFactory.getInstance("X25519");
+        keyAgreement = KeyAgreement.getInstance("X25519");
+        publicKey = new byte[32];
+        privateKey = new byte[32];
+        mode = 0;
+    }
+
+    @Override
+    public void destroy() {
+        clearKey();
+    }
+
+    @Override
+    public String getDHName() {
+        return "25519";
+    }
+
+    @Override
+    public int getPublicKeyLength() {
+        return 32;
+    }
+
+    @Override
+    public int getPrivateKeyLength() {
+        return 32;
+    }
+
+    @Override
+    public int getSharedKeyLength() {
+        return 32;
+    }
+
+    @Override
+    public void generateKeyPair() {
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        byte[] scalar = ((XECPrivateKey) keyPair.getPrivate()).getScalar().orElse(null);
+        if (scalar == null || scalar.length != 32) {
+            // Key is not extractable, generate it the same way as the fallback implementation
+            Noise.random(privateKey);
+            Curve25519.eval(publicKey, 0, privateKey, null);
+        } else {
+            System.arraycopy(scalar, 0, privateKey, 0, 32);
+            Noise.destroy(scalar);
+            encodeU(((XECPublicKey) keyPair.getPublic()).getU(), publicKey);
+        }
+        mode = 0x03;
+    }
+
+    @Override
+    public void getPublicKey(byte[] key, int offset) {
+        System.arraycopy(publicKey, 0, key, offset, 32);
+    }
+
+    @Override
+    public void setPublicKey(byte[] key, int offset) {
+        System.arraycopy(key, offset, publicKey, 0, 32);
+        Arrays.fill(privateKey, (byte) 0);
+        mode = 0x01;
+    }
+
+    @Override
+    public void getPrivateKey(byte[] key, int offset) {
+        System.arraycopy(privateKey, 0, key, offset, 32);
+    }
+
+    @Override
+    public void setPrivateKey(byte[] key, int offset) {
+        System.arraycopy(key, offset, privateKey, 0, 32);
+        // The public key is the shared secret with the base point
+        x25519(publicKey, 0, privateKey, BASE_POINT);
+        mode = 0x03;
+    }
+
+    @Override
+    public void setToNullPublicKey() {
+        Arrays.fill(publicKey, (byte) 0);
+        Arrays.fill(privateKey, (byte) 0);
+        mode = 0x01;
+    }
+
+    @Override
+    public void clearKey() {
+        Noise.destroy(publicKey);
+        Noise.destroy(privateKey);
+        mode = 0;
+    }
+
+    @Override
+    public boolean hasPublicKey() {
+        return (mode & 0x01) != 0;
+    }
+
+    @Override
+    public boolean hasPrivateKey() {
+        return (mode & 0x02) != 0;
+    }
+
+    @Override
+    public boolean isNullPublicKey() {
+        if ((mode & 0x01) == 0)
+            return false;
+        int temp = 0;
+        for (int index = 0; index < 32; ++index)
+            temp |= publicKey[index];
+        return temp == 0;
+    }
+
+    @Override
+    public void calculate(byte[] sharedKey, int offset, DHState publicDH) {
+        if (!(publicDH instanceof Curve25519JCADHState))
+            throw new IllegalArgumentException("Incompatible DH algorithms");
+        x25519(sharedKey, offset, privateKey, ((Curve25519JCADHState) publicDH).publicKey);
+    }
+
+    @Override
+    public void copyFrom(DHState other) {
+        if (!(other instanceof Curve25519JCADHState))
+            throw new IllegalStateException("Mismatched DH key objects");
+        if (other == this)
+            return;
+        Curve25519JCADHState dh = (Curve25519JCADHState) other;
+        System.arraycopy(dh.privateKey, 0, privateKey, 0, 32);
+        System.arraycopy(dh.publicKey, 0, publicKey, 0, 32);
+        mode = dh.mode;
+    }
+
+    /**
+     * Evaluates the X25519 function.
+     *
+     * @param result Buffer to place the 32 byte result into.
+     * @param offset Offset into the result buffer.
+     * @param scalar The 32 byte private scalar.
+     * @param point The 32 byte little-endian u-coordinate of the public point.
+     */
+    private void x25519(byte[] result, int offset, byte[] scalar, byte[] point) {
+        try {
+            keyAgreement.init(keyFactory.generatePrivate(new XECPrivateKeySpec(NamedParameterSpec.X25519, scalar)));
+            keyAgreement.doPhase(
+                    keyFactory.generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, decodeU(point))), true);
+            keyAgreement.generateSecret(result, offset);
+        } catch (GeneralSecurityException e) {
+            // The JCA rejects points of small order where the result is all zeroes,
+            // return the same result as the fallback implementation instead.
+            Curve25519.eval(result, offset, scalar, point);
+        }
+    }
+
+    private static BigInteger decodeU(byte[] point) {
+        byte[] bigEndian = new byte[32];
+        for (int index = 0; index < 32; ++index)
+            bigEndian[index] = point[31 - index];
+        // Mask the most significant bit as required by RFC 7748
+        bigEndian[0] &= 0x7F;
+        return new BigInteger(1, bigEndian);
+    }
+
+    private static void encodeU(BigInteger u, byte[] output) {
+        byte[] bigEndian = u.toByteArray();
+        Arrays.fill(output, (byte) 0);
+        for (int index = 0; index < 32 && index < bigEndian.length; ++index)
+            output[index] = bigEndian[bigEndian.length - 1 - index];
+    }
+}
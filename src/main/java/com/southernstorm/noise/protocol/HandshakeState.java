@@ -222,6 +222,48 @@ public class HandshakeState implements Destroyable {
             throw new NoSuchAlgorithmException("Cannot use '" + remoteEphemeral.getDHName() + "' for ephemeral keys");
     }
 
+    /**
+     * Creates a new handshake that continues from a started template handshake that has not processed any messages
+     * yet, see {@link HandshakeTemplate}. The chaining key and handshake hash are copied, and new DH objects are
+     * created so that the new handshake generates its own ephemeral keys.
+     *
+     * @param template The started template handshake.
+     *
+     * @throws NoSuchAlgorithmException One of the algorithms is not supported.
+     */
+    HandshakeState(HandshakeState template) throws NoSuchAlgorithmException {
+        if (template.patternIndex != 1 || (template.action != WRITE_MESSAGE && template.action != READ_MESSAGE))
+            throw new IllegalStateException("Template handshake must be started and not have processed any messages");
+        symmetric = new SymmetricState(template.symmetric);
+        isInitiator = template.isInitiator;
+        action = template.action;
+        requirements = template.requirements;
+        pattern = template.pattern;
+        patternIndex = template.patternIndex;
+        isNoisePsk = template.isNoisePsk;
+        if (template.preSharedKeyForNoisePSK != null)
+            preSharedKeyForNoisePSK = template.preSharedKeyForNoisePSK.clone();
+        if (template.prologue != null)
+            prologue = template.prologue.clone();
+        localKeyPair = copyDH(template.localKeyPair);
+        remotePublicKey = copyDH(template.remotePublicKey);
+        localEphemeral = newDH(template.localEphemeral);
+        localHybrid = newDH(template.localHybrid);
+        remoteEphemeral = newDH(template.remoteEphemeral);
+        remoteHybrid = newDH(template.remoteHybrid);
+    }
+
+    private static DHState newDH(DHState dh) throws NoSuchAlgorithmException {
+        return dh != null ? Noise.createDH(dh.getDHName()) : null;
+    }
+
+    private static DHState copyDH(DHState dh) throws NoSuchAlgorithmException {
+        DHState copy = newDH(dh);
+        if (copy != null)
+            copy.copyFrom(dh);
+        return copy;
+    }
+
     /**
      * Gets the name of the Noise protocol.
      *
@@ -0,0 +1,55 @@
+package com.southernstorm.noise.protocol;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Immutable starting point for handshakes that share protocol, role, pre-shared key and prologue.
+ *
+ * The protocol name is parsed, the pattern looked up and the prologue hashed into the handshake hash once, when the
+ * template is created. Each call to {@link #newHandshake()} then returns a started handshake with a copy of the
+ * precomputed symmetric state and fresh ephemeral keys.
+ *
+ * Only patterns that do not need local or remote static keys before the start of the handshake are supported, such
+ * as NN and NNpsk0.
+ */
+public final class HandshakeTemplate {
+
+    private final HandshakeState template;
+
+    /**
+     * Creates a new handshake template.
+     *
+     * @param protocolName The name of the Noise protocol.
+     * @param role The role, HandshakeState.INITIATOR or HandshakeState.RESPONDER.
+     * @param preSharedKey The 32 byte pre-shared key, or null if the pattern does not use one.
+     * @param prologue The prologue, or null for an empty prologue.
+     *
+     * @throws NoSuchAlgorithmException One of the algorithms in the protocol name is not supported.
+     * @throws IllegalArgumentException The protocol name or the pre-shared key is invalid.
+     * @throws IllegalStateException The pattern requires static keys or a missing pre-shared key.
+     */
+    public HandshakeTemplate(String protocolName, int role, byte[] preSharedKey, byte[] prologue)
+            throws NoSuchAlgorithmException {
+        template = new HandshakeState(protocolName, role);
+        if (preSharedKey != null)
+            template.setPreSharedKey(preSharedKey, 0, preSharedKey.length);
+        if (prologue != null)
+            template.setPrologue(prologue, 0, prologue.length);
+        template.start();
+    }
+
+    /**
+     * Creates a new handshake from this template. The returned handshake is already started.
+     *
+     * @return The new handshake, which must be destroyed by the caller.
+     *
+     * @throws NoSuchAlgorithmException One of the algorithms is not supported.
+     */
+    public HandshakeState newHandshake() throws NoSuchAlgorithmException {
+        return new HandshakeState(template);
+    }
+
+    public String getProtocolName() {
+        return template.getProtocolName();
+    }
+}
@@ -57,6 +57,13 @@ public final class Noise {
 
     private static boolean forceFallbacks = false;
 
+    /**
+     * First JDK feature release with ChaCha20 and Poly1305 intrinsics. Before
+     * that the JCA "ChaCha20-Poly1305" cipher is not faster than the pure Java
+     * implementation for any packet size, see ChaChaPolyCipherStateBenchmark.
+     */
+    static final int JCA_CHACHAPOLY_MIN_JDK = 20;
+
     /**
      * Force the use of plain Java fallback crypto implementations.
      * 
@@ -83,8 +90,16 @@ public final class Noise {
      *             in the system that implements the algorithm.
      */
     public static DHState createDH(String name) throws NoSuchAlgorithmException {
-        if (name.equals("25519"))
-            return new Curve25519DHState();
+        if (name.equals("25519")) {
+            if (forceFallbacks)
+                return new Curve25519DHState();
+            // "X25519" is available in JDK 11 and later.
+            try {
+                return new Curve25519JCADHState();
+            } catch (NoSuchAlgorithmException e) {
+                return new Curve25519DHState();
+            }
+        }
         if (name.equals("448"))
             return new Curve448DHState();
         if (name.equals("NewHope"))
@@ -118,7 +133,16 @@ public final class Noise {
                 return new AESGCMFallbackCipherState();
             }
         } else if (name.equals("ChaChaPoly")) {
-            return new ChaChaPolyCipherState();
+            // "ChaCha20-Poly1305" is available in JDK 11 and later, but is
+            // only faster than the pure Java implementation for large
+            // packets, and only once the JDK has intrinsics for it.
+            if (forceFallbacks || Runtime.version().feature() < JCA_CHACHAPOLY_MIN_JDK)
+                return new ChaChaPolyCipherState();
+            try {
+                return new ChaChaPolyJCACipherState();
+            } catch (NoSuchAlgorithmException e) {
+                return new ChaChaPolyCipherState();
+            }
         }
         throw new NoSuchAlgorithmException("Unknown Noise cipher algorithm name: " + name);
     }
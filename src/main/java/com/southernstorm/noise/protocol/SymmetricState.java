@@ -37,6 +37,7 @@ import javax.crypto.ShortBufferException;
 class SymmetricState implements Destroyable {
 
     private String name;
+    private String hashName;
     private CipherState cipher;
     private MessageDigest hash;
     private byte[] ck;
@@ -55,6 +56,7 @@ class SymmetricState implements Destroyable {
      */
     public SymmetricState(String protocolName, String cipherName, String hashName) throws NoSuchAlgorithmException {
         name = protocolName;
+        this.hashName = hashName;
         cipher = Noise.createCipher(cipherName);
         hash = Noise.createHash(hashName);
         int hashLength = hash.getDigestLength();
@@ -75,6 +77,26 @@ class SymmetricState implements Destroyable {
         System.arraycopy(h, 0, ck, 0, hashLength);
     }
 
+    /**
+     * Creates a copy of a symmetric state that has not keyed its cipher yet.
+     *
+     * @param other The symmetric state to copy the chaining key and handshake hash from.
+     *
+     * @throws NoSuchAlgorithmException The cipher or hash algorithm is not supported.
+     * @throws IllegalStateException The cipher of the other state has a key.
+     */
+    SymmetricState(SymmetricState other) throws NoSuchAlgorithmException {
+        if (other.cipher.hasKey())
+            throw new IllegalStateException("Cannot copy a symmetric state with a keyed cipher");
+        name = other.name;
+        hashName = other.hashName;
+        cipher = Noise.createCipher(other.cipher.getCipherName());
+        hash = Noise.createHash(hashName);
+        ck = other.ck.clone();
+        h = other.h.clone();
+        prev_h = new byte[h.length];
+    }
+
     /**
      * Gets the name of the Noise protocol.
      *
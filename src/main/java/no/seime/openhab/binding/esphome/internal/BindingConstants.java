@@ -36,4 +36,8 @@ public class BindingConstants {
 
     public static final String CHANNEL_LATEST_FIRMWARE_VERSION = "latestFirmwareVersion";
     public static final String CHANNEL_FIRMWARE_UPDATE_AVAILABLE = "firmwareUpdateAvailable";
+
+    public static final String CHANNEL_PING_RTT_MEDIAN = "pingRttMedian";
+    public static final String CHANNEL_PING_RTT_P99 = "pingRttP99";
+    public static final String CHANNEL_PING_TIMEOUT = "pingTimeout";
 }
@@ -34,10 +34,16 @@ public class ESPHomeConfiguration {
 
     public int maxPingTimeouts = 4;
 
+    public int minPingTimeout = 2;
+
+    public int maxPingTimeout = 20;
+
     public int connectTimeout = 60;
 
     public String encryptionKey;
 
+    public boolean plaintext = false;
+
     public String deviceId;
 
     public boolean allowActions = false;
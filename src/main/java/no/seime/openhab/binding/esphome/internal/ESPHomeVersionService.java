@@ -22,6 +22,8 @@ import org.openhab.core.thing.type.ChannelTypeUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+
 /**
  * Service that fetches the latest ESPHome version from the official release page on GitHub.
  *
@@ -48,7 +50,7 @@ public class ESPHomeVersionService {
 
     public void start() {
         scheduledFuture = scheduler.scheduleWithFixedDelay(this::fetchVersion, 0, 24, TimeUnit.HOURS,
-                "New ESPHome version fetcher", 10000);
+                "New ESPHome version fetcher", TaskCategory.VERSION_FETCH, 10000);
     }
 
     public void stop() {
@@ -12,11 +12,16 @@ package no.seime.openhab.binding.esphome.internal;
  * SPDX-License-Identifier: EPL-2.0
  */
 
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
@@ -26,12 +31,25 @@ import org.slf4j.LoggerFactory;
 /**
  * Based on work done by @Nadahar
  * https://github.com/openhab/openhab-core/compare/main...Nadahar:openhab-core:composite-executor
+ * <p>
+ * The caller stack logged when a task runs or waits too long is captured according to the {@link StackCapturePolicy}.
+ * Capturing a stack on every submission is expensive since the packet processor submits a task per received frame,
+ * so by default stacks are only captured for tasks that have recently been reported as slow. Tasks are told apart by
+ * type and description, and are no longer captured after a number of runs within the expected execution time.
+ * <p>
+ * Queue wait and run time are recorded per {@link TaskCategory}, together with the number of rejected tasks, see
+ * {@link #getTaskMetrics()}.
  */
 public class MonitoredCompositeExecutorService implements ScheduledExecutorService {
 
     @NonNull
     private final static Logger logger = LoggerFactory.getLogger(MonitoredCompositeExecutorService.class);
     private static final int MAX_WAIT_TIME_MS = 2000;
+    private static final int MAX_STACK_FRAMES = 16;
+    private static final int MAX_SUSPECT_TASKS = 256;
+    // Runs within the expected execution time before the stack of a suspect task is no longer captured
+    private static final int SUSPECT_FAST_RUNS = 32;
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
 
     @NonNull
     private final ThreadPoolExecutor executor;
@@ -41,11 +59,24 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
 
     private final long defaultMaxExecutionTimeMs;
 
+    private volatile StackCapturePolicy stackCapturePolicy = StackCapturePolicy.ON_DEMAND;
+    private volatile int stackCaptureSampleRate = 100;
+    private final AtomicLong submissionCounter = new AtomicLong();
+    // Tasks that have been reported as slow, with the number of fast runs left before they are no longer suspect, see
+    // StackCapturePolicy.ON_DEMAND
+    private final Map<SuspectTask, AtomicInteger> suspectTasks = new ConcurrentHashMap<>();
+    private final Map<TaskCategory, TaskMetrics> taskMetrics;
+
     public MonitoredCompositeExecutorService(@NonNull ScheduledExecutorService scheduler,
             @NonNull ThreadPoolExecutor executor, long defaultMaxExecutionTimeMs) {
         this.scheduler = scheduler;
         this.executor = executor;
         this.defaultMaxExecutionTimeMs = defaultMaxExecutionTimeMs;
+        Map<TaskCategory, TaskMetrics> metrics = new EnumMap<>(TaskCategory.class);
+        for (TaskCategory category : TaskCategory.values()) {
+            metrics.put(category, new TaskMetrics());
+        }
+        taskMetrics = Collections.unmodifiableMap(metrics);
 
         scheduler.scheduleAtFixedRate(() -> {
             logger.debug("Executor stats poolSize={}, activeCount={}, queueSize={}", executor.getPoolSize(),
@@ -53,6 +84,57 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
         }, 2, 5, TimeUnit.SECONDS);
     }
 
+    /**
+     * @param policy when to capture the caller stack of submitted tasks
+     * @param sampleRate capture the stack of every n-th submission when using {@link StackCapturePolicy#SAMPLED}
+     */
+    public void setStackCapturePolicy(StackCapturePolicy policy, int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive");
+        }
+        this.stackCapturePolicy = policy;
+        this.stackCaptureSampleRate = sampleRate;
+        suspectTasks.clear();
+    }
+
+    public StackCapturePolicy getStackCapturePolicy() {
+        return stackCapturePolicy;
+    }
+
+    /**
+     * @return queue wait and run time histograms and rejection counts per task category
+     */
+    public Map<TaskCategory, TaskMetrics> getTaskMetrics() {
+        return taskMetrics;
+    }
+
+    public void resetTaskMetrics() {
+        taskMetrics.values().forEach(TaskMetrics::clear);
+    }
+
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public int getMaximumPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return an executor running tasks in the given category on this executor service
+     */
+    public Executor executor(TaskCategory category) {
+        return command -> execute(command, category);
+    }
+
     @Override
     public void shutdown() {
         scheduler.shutdown();
@@ -103,14 +185,13 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
 
     @Override
     public <T> Future<T> submit(Runnable task, T result) {
-        return executor.submit(new TimedRunnable(task, getStackTraceElements(), defaultMaxExecutionTimeMs, null, false),
+        return submitOrLog(newTimedRunnable(task, defaultMaxExecutionTimeMs, null, TaskCategory.OTHER, false),
                 result);
     }
 
     @Override
     public Future<?> submit(Runnable task) {
-        return executor
-                .submit(new TimedRunnable(task, getStackTraceElements(), defaultMaxExecutionTimeMs, null, false));
+        return submitOrLog(newTimedRunnable(task, defaultMaxExecutionTimeMs, null, TaskCategory.OTHER, false), null);
     }
 
     @Override
@@ -137,18 +218,27 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
 
     @Override
     public void execute(@NonNull Runnable command) {
-        executor.execute(new TimedRunnable(command, getStackTraceElements(), defaultMaxExecutionTimeMs, null, false));
+        execute(command, TaskCategory.OTHER);
+    }
+
+    public void execute(Runnable command, TaskCategory category) {
+        try {
+            executor.execute(newTimedRunnable(command, defaultMaxExecutionTimeMs, null, category, false));
+        } catch (RejectedExecutionException e) {
+            taskMetrics.get(category).rejected.increment();
+            throw e;
+        }
     }
 
     @Override
     public @NonNull ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        TimedRunnable timedRunnable = newTimedRunnable(command, defaultMaxExecutionTimeMs, null, TaskCategory.OTHER,
+                true);
         if (delay <= 0L) {
-            return new FakeScheduledFuture<>(executor.submit(
-                    new TimedRunnable(command, getStackTraceElements(), defaultMaxExecutionTimeMs, null, true)));
+            return new FakeScheduledFuture<>(submitOrLog(timedRunnable, null));
         }
-        return new CompondScheduledFuture<>(scheduler.schedule(() -> submitOrLog(
-                new TimedRunnable(command, getStackTraceElements(), defaultMaxExecutionTimeMs, null, true), null),
-                delay, unit));
+        return new CompondScheduledFuture<>(
+                scheduler.schedule(() -> submitOrLog(timedRunnable.resetSubmitTime(), null), delay, unit));
     }
 
     @Override
@@ -169,12 +259,13 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
         }
     }
 
-    private Future<?> submitOrLog(Runnable task, @Nullable String callerSignature) {
+    private <T> Future<T> submitOrLog(TimedRunnable task, @Nullable T result) {
         try {
-            return executor.submit(task);
+            return executor.submit(task, result);
         } catch (RejectedExecutionException e) {
-            logger.warn("Task '{}' rejected by executor: {}", callerSignature != null ? callerSignature : "<unnamed>",
-                    e.getMessage());
+            taskMetrics.get(task.category).rejected.increment();
+            logger.warn("Task '{}' rejected by executor: {}",
+                    task.taskDescription != null ? task.taskDescription : "<unnamed>", e.getMessage());
             throw e;
         }
     }
@@ -184,58 +275,63 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
         Objects.requireNonNull(command);
         Objects.requireNonNull(unit);
         TaskLauncher launcher = new TaskLauncher(
-                new TimedRunnable(command, getStackTraceElements(), defaultMaxExecutionTimeMs, null, true), executor);
+                newTimedRunnable(command, defaultMaxExecutionTimeMs, null, TaskCategory.OTHER, true));
         return new TaskLauncherScheduledFuture(scheduler.scheduleAtFixedRate(launcher, initialDelay, period, unit),
                 launcher);
     }
 
     public @Nullable ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, long initialDelay, long period,
-            TimeUnit timeUnit, String callerSignature) {
+            TimeUnit timeUnit, String callerSignature, TaskCategory category) {
         Objects.requireNonNull(runnable);
         Objects.requireNonNull(timeUnit);
         Objects.requireNonNull(callerSignature);
         TaskLauncher launcher = new TaskLauncher(
-                new TimedRunnable(runnable, getStackTraceElements(), defaultMaxExecutionTimeMs, callerSignature, true),
-                executor);
+                newTimedRunnable(runnable, defaultMaxExecutionTimeMs, callerSignature, category, true));
         return new TaskLauncherScheduledFuture(scheduler.scheduleAtFixedRate(launcher, initialDelay, period, timeUnit),
                 launcher);
     }
 
     @Override
     public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
-        return scheduleWithFixedDelay(command, initialDelay, delay, unit, null, defaultMaxExecutionTimeMs);
+        return scheduleWithFixedDelay(command, initialDelay, delay, unit, null, TaskCategory.OTHER,
+                defaultMaxExecutionTimeMs);
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit,
+            String callerSignature, TaskCategory category) {
+        return scheduleWithFixedDelay(command, initialDelay, delay, unit, callerSignature, category,
+                defaultMaxExecutionTimeMs);
     }
 
     public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit,
-            String callerSignature, long maxExecutionTimeMs) {
+            @Nullable String callerSignature, TaskCategory category, long maxExecutionTimeMs) {
 
         Objects.requireNonNull(command);
         Objects.requireNonNull(unit);
         TaskLauncher launcher = new TaskLauncher(
-                new TimedRunnable(command, getStackTraceElements(), maxExecutionTimeMs, callerSignature, true),
-                executor);
+                newTimedRunnable(command, maxExecutionTimeMs, callerSignature, category, true));
         return new TaskLauncherScheduledFuture(scheduler.scheduleWithFixedDelay(launcher, initialDelay, delay, unit),
                 launcher);
     }
 
     public @Nullable ScheduledFuture<?> schedule(Runnable command, int delay, TimeUnit timeUnit,
             String callerSignature) {
-        return schedule(command, delay, timeUnit, callerSignature, defaultMaxExecutionTimeMs);
+        return schedule(command, delay, timeUnit, callerSignature, TaskCategory.OTHER);
     }
 
     public @Nullable ScheduledFuture<?> schedule(Runnable command, int delay, TimeUnit timeUnit, String callerSignature,
-            long maxExecutionTimeMs) {
+            TaskCategory category) {
+        return schedule(command, delay, timeUnit, callerSignature, category, defaultMaxExecutionTimeMs);
+    }
+
+    public @Nullable ScheduledFuture<?> schedule(Runnable command, int delay, TimeUnit timeUnit, String callerSignature,
+            TaskCategory category, long maxExecutionTimeMs) {
+        TimedRunnable timedRunnable = newTimedRunnable(command, maxExecutionTimeMs, callerSignature, category, false);
         if (delay <= 0L) {
-            return new FakeScheduledFuture<>(submitOrLog(
-                    new TimedRunnable(command, getStackTraceElements(), maxExecutionTimeMs, callerSignature, false),
-                    callerSignature));
+            return new FakeScheduledFuture<>(submitOrLog(timedRunnable, null));
         }
         return new CompondScheduledFuture<>(
-                scheduler
-                        .schedule(
-                                () -> submitOrLog(new TimedRunnable(command, getStackTraceElements(),
-                                        maxExecutionTimeMs, callerSignature, false), callerSignature),
-                                delay, timeUnit));
+                scheduler.schedule(() -> submitOrLog(timedRunnable.resetSubmitTime(), null), delay, timeUnit));
     }
 
     private class FakeScheduledFuture<V> implements ScheduledFuture<V> {
@@ -460,23 +556,24 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
         }
     }
 
-    private static class TaskLauncher implements Runnable {
+    private class TaskLauncher implements Runnable {
 
         @NonNull
-        private final Runnable task;
-        @NonNull
-        private final ExecutorService executor;
+        private final TimedRunnable task;
 
         private volatile Future<?> taskFuture;
 
-        public TaskLauncher(@NonNull Runnable task, @NonNull ExecutorService executor) {
+        public TaskLauncher(@NonNull TimedRunnable task) {
             this.task = task;
-            this.executor = executor;
         }
 
         @Override
         public void run() {
-            taskFuture = executor.submit(task);
+            try {
+                taskFuture = submitOrLog(task.resetSubmitTime(), null);
+            } catch (RejectedExecutionException e) {
+                // Logged and counted, try again next period rather than cancelling the periodic task
+            }
         }
 
         public Future<?> getTaskFuture() {
@@ -484,48 +581,118 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
         }
     }
 
-    private static class TimedRunnable implements Runnable {
+    private TimedRunnable newTimedRunnable(Runnable delegate, long maxExecutionTime, @Nullable String taskDescription,
+            TaskCategory category, boolean isScheduled) {
+        return new TimedRunnable(delegate, captureCallerStack(delegate, taskDescription), maxExecutionTime,
+                taskDescription, category, isScheduled);
+    }
+
+    private StackTraceElement[] captureCallerStack(Runnable task, @Nullable String taskDescription) {
+        boolean capture = switch (stackCapturePolicy) {
+            case OFF -> false;
+            case SAMPLED -> submissionCounter.incrementAndGet() % stackCaptureSampleRate == 0;
+            case ON_DEMAND -> !suspectTasks.isEmpty() && isSuspectTask(task.getClass(), taskDescription);
+            case ALWAYS -> true;
+        };
+        return capture ? getStackTraceElements() : null;
+    }
+
+    boolean isSuspectTask(Class<?> taskType, @Nullable String taskDescription) {
+        return suspectTasks.containsKey(new SuspectTask(taskType, taskDescription));
+    }
+
+    private void reportSlowTask(Runnable task, @Nullable String taskDescription) {
+        if (stackCapturePolicy != StackCapturePolicy.ON_DEMAND) {
+            return;
+        }
+        SuspectTask suspect = new SuspectTask(task.getClass(), taskDescription);
+        AtomicInteger fastRunsLeft = suspectTasks.get(suspect);
+        if (fastRunsLeft != null) {
+            fastRunsLeft.set(SUSPECT_FAST_RUNS);
+        } else if (suspectTasks.size() < MAX_SUSPECT_TASKS
+                && suspectTasks.putIfAbsent(suspect, new AtomicInteger(SUSPECT_FAST_RUNS)) == null) {
+            logger.debug("Capturing caller stack for future submissions of task '{}' of type {}",
+                    taskDescription != null ? taskDescription : "<unnamed>", task.getClass().getName());
+        }
+    }
+
+    private void reportFastTask(Runnable task, @Nullable String taskDescription) {
+        if (suspectTasks.isEmpty()) {
+            return;
+        }
+        SuspectTask suspect = new SuspectTask(task.getClass(), taskDescription);
+        AtomicInteger fastRunsLeft = suspectTasks.get(suspect);
+        if (fastRunsLeft != null && fastRunsLeft.decrementAndGet() <= 0) {
+            suspectTasks.remove(suspect, fastRunsLeft);
+        }
+    }
+
+    private record SuspectTask(Class<?> taskType, @Nullable String taskDescription) {
+    }
+
+    private class TimedRunnable implements Runnable {
         private final Runnable delegate;
         private final StackTraceElement[] stackTrace;
-        private long startTime;
-        private final long submitTime;
+        private volatile long submitNanos;
         private final long maxExecutionTime;
-        private final String taskDescription;
+        private final @Nullable String taskDescription;
+        private final TaskCategory category;
         private final boolean isScheduled;
 
         public TimedRunnable(Runnable delegate, StackTraceElement[] stackTrace, long maxExecutionTime,
-                String taskDescription, boolean isScheduled) {
+                @Nullable String taskDescription, TaskCategory category, boolean isScheduled) {
             this.delegate = delegate;
             this.stackTrace = stackTrace;
             this.maxExecutionTime = maxExecutionTime;
             this.taskDescription = taskDescription;
+            this.category = category;
             this.isScheduled = isScheduled;
-            submitTime = System.currentTimeMillis();
+            submitNanos = System.nanoTime();
+        }
+
+        /**
+         * Delayed tasks are created when scheduled, but are only queued on the executor when the delay expires.
+         */
+        TimedRunnable resetSubmitTime() {
+            submitNanos = System.nanoTime();
+            return this;
         }
 
         @Override
         public void run() {
-            startTime = System.currentTimeMillis();
-            delegate.run();
-            long waitTime = System.currentTimeMillis() - submitTime;
-            long duration = System.currentTimeMillis() - startTime;
+            long startNanos = System.nanoTime();
+            TaskMetrics metrics = taskMetrics.get(category);
+            metrics.queueWait.record(startNanos - submitNanos);
+            try {
+                delegate.run();
+            } finally {
+                metrics.runTime.record(System.nanoTime() - startNanos);
+            }
+            long waitTime = TimeUnit.NANOSECONDS.toMillis(startNanos - submitNanos);
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
             if (duration > maxExecutionTime) {
                 logger.warn(
                         "Task '{}' took longer than expected to execute: {}ms, expected < {}ms. Task was submitted here: {}",
                         taskDescription != null ? taskDescription : "<unnamed>", duration, maxExecutionTime,
-                        formatStacktrace(stackTrace));
+                        formatStacktrace(stackTrace, delegate));
+                reportSlowTask(delegate, taskDescription);
+            } else {
+                reportFastTask(delegate, taskDescription);
             }
 
             if (!isScheduled && waitTime > MAX_WAIT_TIME_MS) {
                 logger.warn(
                         "Task '{}' stayed longer than {}ms in queue before being processed: {}ms. This may indicate a too small threadpool or inadequate hardware for openHAB to run on. Task was submitted here: {}",
                         taskDescription != null ? taskDescription : "<unnamed>", MAX_WAIT_TIME_MS, waitTime,
-                        formatStacktrace(stackTrace));
+                        formatStacktrace(stackTrace, delegate));
             }
         }
     }
 
-    private static String formatStacktrace(StackTraceElement[] stackTrace) {
+    private static String formatStacktrace(StackTraceElement[] stackTrace, Runnable task) {
+        if (stackTrace == null) {
+            return "<not captured> (task type " + task.getClass().getName() + ")";
+        }
         StringBuilder sb = new StringBuilder("\n");
         for (StackTraceElement element : stackTrace) {
             sb.append("\t");
@@ -536,9 +703,66 @@ public class MonitoredCompositeExecutorService implements ScheduledExecutorServi
     }
 
     private static StackTraceElement[] getStackTraceElements() {
-        StackTraceElement[] callerStacktrace = Thread.currentThread().getStackTrace();
-        // Trim 3 first entries
-        callerStacktrace = Arrays.copyOfRange(callerStacktrace, 3, callerStacktrace.length);
-        return callerStacktrace;
+        // Skip frames of this class, and only walk as many frames as are needed
+        return STACK_WALKER.walk(frames -> frames
+                .dropWhile(frame -> MonitoredCompositeExecutorService.class.getName().equals(frame.getClassName()))
+                .limit(MAX_STACK_FRAMES).map(StackWalker.StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+    }
+
+    /**
+     * Kind of task, used to group the task metrics.
+     */
+    public enum TaskCategory {
+        PACKET_PROCESSING,
+        CONNECT,
+        PING,
+        BLE_REFRESH,
+        BLE_GATT,
+        BLE_NOTIFY,
+        VERSION_FETCH,
+        OTHER
+    }
+
+    /**
+     * Time spent waiting in the queue and running, and the number of rejected submissions, for a task category.
+     */
+    public static class TaskMetrics {
+        private final LatencyHistogram queueWait = new LatencyHistogram();
+        private final LatencyHistogram runTime = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+
+        public LatencyHistogram getQueueWait() {
+            return queueWait;
+        }
+
+        public LatencyHistogram getRunTime() {
+            return runTime;
+        }
+
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+
+        void clear() {
+            queueWait.clear();
+            runTime.clear();
+            rejected.reset();
+        }
+    }
+
+    /**
+     * When to capture the stack of the caller submitting a task. The stack is included in the warnings logged for tasks
+     * that take too long to execute or wait too long in the queue.
+     */
+    public enum StackCapturePolicy {
+        /** Never capture */
+        OFF,
+        /** Capture for 1 in N submissions */
+        SAMPLED,
+        /** Capture only for tasks that have recently been reported as slow */
+        ON_DEMAND,
+        /** Capture for every submission */
+        ALWAYS
     }
 }
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Access to virtual threads without requiring a JDK that has them. The binding is compiled for Java 17, so the
+ * {@code Thread.ofVirtual()} API is looked up reflectively and is only available when openHAB runs on Java 21 or
+ * later.
+ *
+ * @author Arne Seime - Initial contribution
+ */
+@NonNullByDefault
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return whether the running JDK supports virtual threads
+     */
+    public static boolean isSupported() {
+        return newThreadFactory("probe") != null;
+    }
+
+    /**
+     * Create a factory for virtual threads named with the prefix and an increasing number.
+     *
+     * @return the thread factory, or null if the running JDK does not support virtual threads
+     */
+    public static @Nullable ThreadFactory newThreadFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Remembers the last advertisement processed per BLE address, so that the same advertisement heard again, by the same
+ * or by another proxy, is only processed once within the expiry time.
+ * <p>
+ * Only the hash and length of the payload are kept, not the payload itself, and an advertisement with the same hash
+ * and length as the last one processed for the address counts as a duplicate. A collision merely delays a changed
+ * advertisement until the entry expires.
+ * <p>
+ * The cache is shared by all proxies, so it is split by address into stripes with their own lock. Each stripe is an
+ * open addressing table with linear probing over primitive arrays, keyed by the 48 bit address, so a lookup does not
+ * allocate. Expired entries are reused in place, and purged when a stripe fills up. A stripe grows up to a maximum
+ * size, after which it starts over rather than tracking usage.
+ */
+@NonNullByDefault
+public class AdvertisementDedupCache {
+
+    static final long DEFAULT_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // The stripe is picked by the high bits of the spread address, the slot within the stripe by the low bits
+    private static final int STRIPE_BITS = 4;
+    private static final int INITIAL_CAPACITY = 1024 >> STRIPE_BITS;
+    private static final int MAX_CAPACITY = (1 << 16) >> STRIPE_BITS;
+    // 48 bit addresses never have all bits set
+    private static final long EMPTY = -1L;
+
+    private final long expiryNanos;
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    public AdvertisementDedupCache() {
+        this(DEFAULT_EXPIRY_NANOS);
+    }
+
+    AdvertisementDedupCache(long expiryNanos) {
+        this.expiryNanos = expiryNanos;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Check whether the advertisement has been processed within the expiry time, and remember it if not.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return true if a payload with the same hash and length was processed for the address within the expiry time
+     */
+    public boolean isDuplicate(long address, int payloadHash, int payloadLength, long nowNanos) {
+        int hash = spread(address);
+        Stripe stripe = stripes[hash >>> (Integer.SIZE - STRIPE_BITS)];
+        synchronized (stripe) {
+            return stripe.isDuplicate(address, hash, payloadHash, payloadLength, nowNanos);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.allocate(stripe.addresses.length);
+            }
+        }
+    }
+
+    private static int spread(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private class Stripe {
+        private long[] addresses;
+        private int[] hashes;
+        private int[] lengths;
+        private long[] processedNanos;
+        private int size;
+
+        private Stripe() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private boolean isDuplicate(long address, int hash, int payloadHash, int payloadLength, long nowNanos) {
+            int index = indexOf(address, hash);
+            if (addresses[index] == address) {
+                if (nowNanos - processedNanos[index] < expiryNanos && hashes[index] == payloadHash
+                        && lengths[index] == payloadLength) {
+                    return true;
+                }
+            } else {
+                if (size >= addresses.length * 3 / 4) {
+                    makeRoom(nowNanos);
+                    index = indexOf(address, hash);
+                }
+                addresses[index] = address;
+                size++;
+            }
+            hashes[index] = payloadHash;
+            lengths[index] = payloadLength;
+            processedNanos[index] = nowNanos;
+            return false;
+        }
+
+        /**
+         * @return slot holding the address, or the empty slot where it should be inserted
+         */
+        private int indexOf(long address, int hash) {
+            int mask = addresses.length - 1;
+            int index = hash & mask;
+            while (addresses[index] != EMPTY && addresses[index] != address) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void makeRoom(long nowNanos) {
+            long[] oldAddresses = addresses;
+            int[] oldHashes = hashes;
+            int[] oldLengths = lengths;
+            long[] oldProcessedNanos = processedNanos;
+
+            int live = 0;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != EMPTY && nowNanos - oldProcessedNanos[i] < expiryNanos) {
+                    live++;
+                }
+            }
+            int capacity = oldAddresses.length;
+            if (live >= capacity / 2) {
+                if (capacity == MAX_CAPACITY) {
+                    // Start over, the only cost is that a few duplicates are processed again
+                    allocate(capacity);
+                    return;
+                }
+                capacity *= 2;
+            }
+            allocate(capacity);
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != EMPTY && nowNanos - oldProcessedNanos[i] < expiryNanos) {
+                    int index = indexOf(oldAddresses[i], spread(oldAddresses[i]));
+                    addresses[index] = oldAddresses[i];
+                    hashes[index] = oldHashes[i];
+                    lengths[index] = oldLengths[i];
+                    processedNanos[index] = oldProcessedNanos[i];
+                    size++;
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            addresses = new long[capacity];
+            Arrays.fill(addresses, EMPTY);
+            hashes = new int[capacity];
+            lengths = new int[capacity];
+            processedNanos = new long[capacity];
+            size = 0;
+        }
+    }
+}
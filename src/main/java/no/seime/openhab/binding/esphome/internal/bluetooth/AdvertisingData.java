@@ -0,0 +1,104 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Read only view of the AD structures in a raw BLE advertisement. Nothing is parsed up front, every accessor walks the
+ * length-type-value structures in place, and returns slices of the payload rather than copies. An advertisement is at
+ * most 31 bytes, so walking it again is cheaper than keeping parsed structures around.
+ */
+@NonNullByDefault
+public class AdvertisingData {
+
+    static final int TYPE_SHORTENED_LOCAL_NAME = 0x08;
+    static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+    static final int TYPE_SERVICE_DATA_16_BIT_UUID = 0x16;
+    static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private final ByteString payload;
+
+    public AdvertisingData(ByteString payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * @return the complete local name, else the shortened local name, null if there is none
+     */
+    public @Nullable String getLocalName() {
+        @Nullable
+        ByteString name = getData(TYPE_COMPLETE_LOCAL_NAME);
+        if (name == null) {
+            name = getData(TYPE_SHORTENED_LOCAL_NAME);
+        }
+        return name == null ? null : name.toStringUtf8();
+    }
+
+    /**
+     * @return manufacturer specific data, starting with the little endian company id, null if there is none
+     */
+    public @Nullable ByteString getManufacturerData() {
+        @Nullable
+        ByteString data = getData(TYPE_MANUFACTURER_SPECIFIC_DATA);
+        return data == null || data.size() < 2 ? null : data;
+    }
+
+    /**
+     * @return the company id of the manufacturer specific data, -1 if there is none
+     */
+    public int getManufacturerId() {
+        @Nullable
+        ByteString data = getManufacturerData();
+        return data == null ? -1 : (data.byteAt(0) & 0xFF) | (data.byteAt(1) & 0xFF) << 8;
+    }
+
+    /**
+     * @return service data by 128 bit service UUID, without the UUID itself
+     */
+    public Map<String, ByteString> getServiceData() {
+        Map<String, ByteString> serviceData = new LinkedHashMap<>();
+        int offset = 0;
+        while ((offset = structureAt(offset)) >= 0) {
+            int length = payload.byteAt(offset) & 0xFF;
+            if ((payload.byteAt(offset + 1) & 0xFF) == TYPE_SERVICE_DATA_16_BIT_UUID && length >= 3) {
+                int shortUuid = (payload.byteAt(offset + 2) & 0xFF) | (payload.byteAt(offset + 3) & 0xFF) << 8;
+                serviceData.put(BluetoothUuidCache.toUuidString(shortUuid),
+                        payload.substring(offset + 4, offset + 1 + length));
+            }
+            offset += length + 1;
+        }
+        return serviceData;
+    }
+
+    private @Nullable ByteString getData(int type) {
+        int offset = 0;
+        while ((offset = structureAt(offset)) >= 0) {
+            int length = payload.byteAt(offset) & 0xFF;
+            if ((payload.byteAt(offset + 1) & 0xFF) == type) {
+                return payload.substring(offset + 2, offset + 1 + length);
+            }
+            offset += length + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @return the offset if a complete structure starts there, -1 if there are no more structures
+     */
+    private int structureAt(int offset) {
+        if (offset >= payload.size()) {
+            return -1;
+        }
+        int length = payload.byteAt(offset) & 0xFF;
+        // A zero length ends the significant part, and a structure must not run past the payload
+        if (length == 0 || offset + 1 + length > payload.size()) {
+            return -1;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,41 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandler;
+
+/**
+ * Connects ESPHome devices with the BLE proxy bridges. Devices report when their connection comes up or goes down, and
+ * every registered bridge adds or removes the device as a proxy right away, instead of finding out by polling the
+ * thing registry.
+ */
+@NonNullByDefault
+public class BluetoothProxyRegistry {
+
+    private final Set<ESPHomeBluetoothProxyHandler> proxyHandlers = ConcurrentHashMap.newKeySet();
+
+    public void addProxyHandler(ESPHomeBluetoothProxyHandler proxyHandler) {
+        proxyHandlers.add(proxyHandler);
+    }
+
+    public void removeProxyHandler(ESPHomeBluetoothProxyHandler proxyHandler) {
+        proxyHandlers.remove(proxyHandler);
+    }
+
+    /**
+     * Called by a device with Bluetooth proxy support enabled when it is connected and online.
+     */
+    public void handlerOnline(ESPHomeHandler handler) {
+        proxyHandlers.forEach(proxyHandler -> proxyHandler.addESPHomeHandler(handler));
+    }
+
+    /**
+     * Called by a device when its connection is lost or the handler is disposed.
+     */
+    public void handlerOffline(ESPHomeHandler handler) {
+        proxyHandlers.forEach(proxyHandler -> proxyHandler.removeESPHomeHandler(handler));
+    }
+}
@@ -0,0 +1,65 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Expands 16 and 32 bit short UUIDs into 128 bit UUIDs on the Bluetooth base UUID, and keeps the expansions in a small
+ * direct mapped table. The same handful of short UUIDs appear in every advertisement and every service discovery, so
+ * they are expanded and formatted once instead of for each packet.
+ * <p>
+ * A slot holds one immutable entry, and a colliding UUID simply replaces it, so no locking is needed.
+ */
+@NonNullByDefault
+final class BluetoothUuidCache {
+
+    private static final long BLUETOOTH_BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BLUETOOTH_BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final int SIZE = 256;
+
+    private static final @Nullable Entry[] ENTRIES = new Entry[SIZE];
+
+    private BluetoothUuidCache() {
+    }
+
+    static UUID toUuid(long shortUuid) {
+        return entry(shortUuid).uuid;
+    }
+
+    static String toUuidString(long shortUuid) {
+        return entry(shortUuid).string;
+    }
+
+    /**
+     * @param uuid a short UUID in hex with a 0x prefix, or a 128 bit UUID, as sent in legacy advertisements
+     * @return the 128 bit UUID in lower case
+     */
+    static String toUuidString(String uuid) {
+        if (uuid.startsWith("0x")) {
+            try {
+                return toUuidString(Long.parseLong(uuid, 2, uuid.length(), 16));
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+        }
+        return uuid.toLowerCase(Locale.ROOT);
+    }
+
+    private static Entry entry(long shortUuid) {
+        int slot = (int) (shortUuid ^ (shortUuid >>> 16)) & (SIZE - 1);
+        @Nullable
+        Entry entry = ENTRIES[slot];
+        if (entry == null || entry.shortUuid != shortUuid) {
+            UUID uuid = new UUID(((shortUuid & 0xFFFFFFFFL) << 32) | BLUETOOTH_BASE_UUID_MSB, BLUETOOTH_BASE_UUID_LSB);
+            entry = new Entry(shortUuid, uuid, uuid.toString());
+            ENTRIES[slot] = entry;
+        }
+        return entry;
+    }
+
+    private record Entry(long shortUuid, UUID uuid, String string) {
+    }
+}
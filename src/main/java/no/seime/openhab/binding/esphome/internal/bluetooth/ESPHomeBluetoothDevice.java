@@ -1,27 +1,42 @@
 package no.seime.openhab.binding.esphome.internal.bluetooth;
 
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.bluetooth.*;
 import org.openhab.binding.bluetooth.notification.BluetoothConnectionStatusNotification;
 import org.openhab.binding.bluetooth.notification.BluetoothScanNotification;
+import org.openhab.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.neovisionaries.bluetooth.ble.advertising.ADManufacturerSpecific;
-import com.neovisionaries.bluetooth.ble.advertising.ADStructure;
-import com.neovisionaries.bluetooth.ble.advertising.ServiceData;
+import com.google.protobuf.ByteString;
 
 import io.esphome.api.*;
+import no.seime.openhab.binding.esphome.internal.bluetooth.GattRequestCorrelator.Operation;
+import no.seime.openhab.binding.esphome.internal.comm.ConnectionMailbox;
+import no.seime.openhab.binding.esphome.internal.comm.PacketLane;
 import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandler;
 
 @NonNullByDefault
 public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
-    private static final long BLUETOOTH_BASE_UUID_MSB = 0x0000000000001000L;
-    private static final long BLUETOOTH_BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final int GATT_TIMEOUT_SECONDS = 10;
+    private static final byte[] NO_DATA = new byte[0];
+    private static final long DISCOVERY_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long UNNAMED_DISCOVERY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Discovered services are discovered again after this time, in case the firmware of the device changed
+    private static final long SERVICES_CACHE_TTL_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(ESPHomeBluetoothDevice.class);
 
     /**
      * Construct a Bluetooth device taking the Bluetooth address
@@ -41,9 +56,50 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
 
     private int addressType;
 
+    private final long rawAddress;
+
+    // Runs GATT callbacks and notifications in order, off the packet processing thread
+    private final Executor callbackExecutor;
+
+    private final GattRequestCorrelator gattRequests;
+
+    private final Map<Integer, BluetoothCharacteristic> characteristicsByHandle = new ConcurrentHashMap<>();
+
+    private final Set<Integer> notifyingHandles = ConcurrentHashMap.newKeySet();
+
+    // Whether the services have been discovered. They are kept across reconnects through the same proxy, as the handles
+    // only change with the firmware of the device, and the proxy is then asked to use its own cache as well.
+    private volatile boolean servicesResolved;
+    // Proxy the services were discovered through, and System.nanoTime() when they were discovered
+    private volatile @Nullable ThingUID servicesResolvedVia;
+    private volatile long servicesResolvedNanos;
+    // Proxy of the current connection, and whether it was made with the cache of the proxy
+    private volatile @Nullable ThingUID connectionProxy;
+    private volatile boolean connectedWithCache;
+
+    // System.nanoTime() when the device was last passed on to discovery, 0 if never
+    private volatile long lastDiscoveredNanos;
+
+    // System.nanoTime() and payload hash of the last advertisement passed on to the listeners, 0 if never
+    private long lastNotifiedNanos;
+    private int lastNotifiedPayloadHash;
+
     public ESPHomeBluetoothDevice(BluetoothAdapter adapter, BluetoothAddress address) {
         super(adapter, address);
         proxyHandler = (ESPHomeBluetoothProxyHandler) adapter;
+        rawAddress = BluetoothAddressUtil.convertAddressToLong(address);
+        ConnectionMailbox callbacks = new ConnectionMailbox(proxyHandler.getGattExecutor(), address.toString());
+        callbackExecutor = task -> {
+            if (!callbacks.execute(PacketLane.STATE, task)) {
+                logger.warn("Dropping GATT callback for {}, too many queued", address);
+            }
+        };
+        gattRequests = new GattRequestCorrelator(callbackExecutor, proxyHandler.getScheduler(), GATT_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    public long getRawAddress() {
+        return rawAddress;
     }
 
     public void handleAdvertisementPacket(BluetoothLEAdvertisementResponse packet) {
@@ -51,7 +107,8 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
         BluetoothScanNotification notification = new BluetoothScanNotification();
         packet.getServiceDataList().stream().forEach(serviceData -> {
 
-            notification.getServiceData().put(to128BitUUID(serviceData.getUuid()), serviceData.getData().toByteArray());
+            notification.getServiceData().put(BluetoothUuidCache.toUuidString(serviceData.getUuid()),
+                    serviceData.getData().toByteArray());
         });
         notification.setBeaconType(BluetoothScanNotification.BluetoothBeaconType.BEACON_ADVERTISEMENT);
         packet.getManufacturerDataList().stream().findFirst().ifPresent(manufacturerData -> {
@@ -64,19 +121,16 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
     }
 
     public void handleAdvertisementPacket(BluetoothLERawAdvertisement advertisement,
-            List<ADStructure> advertisementStructures) {
+            AdvertisingData advertisingData) {
 
         BluetoothScanNotification notification = new BluetoothScanNotification();
-        advertisementStructures.stream().forEach(structure -> {
-            if (structure instanceof ADManufacturerSpecific manufacturerSpecific) {
-                notification.setManufacturerData(manufacturerSpecific.getData());
-            } else if (structure instanceof ServiceData serviceData) {
-                // UUID 2 bytes included in serviceData.getData(), trim away
-                byte[] dataIncludingUUID = serviceData.getData();
-                byte[] dataExcludingUUID = Arrays.copyOfRange(dataIncludingUUID, 2, dataIncludingUUID.length);
-                notification.getServiceData().put(serviceData.getServiceUUID().toString(), dataExcludingUUID);
-            }
-        });
+        @Nullable
+        ByteString manufacturerData = advertisingData.getManufacturerData();
+        if (manufacturerData != null) {
+            notification.setManufacturerData(manufacturerData.toByteArray());
+        }
+        advertisingData.getServiceData()
+                .forEach((uuid, serviceData) -> notification.getServiceData().put(uuid, serviceData.toByteArray()));
 
         notification.setData(advertisement.getData().toByteArray());
         notification.setRssi(advertisement.getRssi());
@@ -84,6 +138,51 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
         notifyListeners(BluetoothEventType.SCAN_RECORD, notification);
     }
 
+    /**
+     * @return whether any openHAB thing listens to this device, if not there is no point in building notifications
+     */
+    public boolean hasListeners() {
+        return getListenerCount() > 0;
+    }
+
+    /**
+     * Whether the device should be passed on to discovery. A device is discovered at once, again every few seconds
+     * until its name is known, and then every minute to keep it fresh in the inbox.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    public boolean isDiscoveryDue(long nowNanos) {
+        if (lastDiscoveredNanos == 0) {
+            return true;
+        }
+        long interval = getName() == null ? UNNAMED_DISCOVERY_INTERVAL_NANOS : DISCOVERY_INTERVAL_NANOS;
+        return nowNanos - lastDiscoveredNanos >= interval;
+    }
+
+    public void setDiscovered(long nowNanos) {
+        lastDiscoveredNanos = nowNanos == 0 ? 1 : nowNanos;
+    }
+
+    /**
+     * Whether an advertisement should be passed on to the listeners, at most once per interval unless the payload has
+     * changed. Records the advertisement as passed on if so.
+     *
+     * @param payloadHash hash of the advertisement payload
+     * @param nowNanos current {@link System#nanoTime()}
+     * @param minIntervalNanos minimum time between advertisements passed on
+     * @param onChange pass on the advertisement before the interval has passed if the payload has changed
+     */
+    public synchronized boolean isNotificationDue(int payloadHash, long nowNanos, long minIntervalNanos,
+            boolean onChange) {
+        if (lastNotifiedNanos != 0 && nowNanos - lastNotifiedNanos < minIntervalNanos
+                && !(onChange && payloadHash != lastNotifiedPayloadHash)) {
+            return false;
+        }
+        lastNotifiedNanos = nowNanos == 0 ? 1 : nowNanos;
+        lastNotifiedPayloadHash = payloadHash;
+        return true;
+    }
+
     public void handleConnectionsMessage(BluetoothDeviceConnectionResponse rsp) {
         notifyListeners(BluetoothEventType.CONNECTION_STATE, new BluetoothConnectionStatusNotification(
                 rsp.getConnected() ? ConnectionState.CONNECTED : ConnectionState.DISCONNECTED));
@@ -91,73 +190,134 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
         if (!rsp.getConnected()) {
             proxyHandler.unlinkDevice(this);
             lockToHandler = null;
+            notifyingHandles.clear();
+            gattRequests.failAll(new IOException("Device disconnected"));
         }
     }
 
     public void handleGattServicesMessage(BluetoothGATTGetServicesResponse rsp) {
-
         for (BluetoothGATTService service : rsp.getServicesList()) {
             int handle = service.getHandle();
-            UUID uuid;
-            if (service.getShortUuid() != 0) {
-                uuid = to128BitUUID(service.getShortUuid());
-            } else {
-                uuid = new UUID(service.getUuid(0), service.getUuid(1));
-            }
-            for (int i = 0; i < service.getCharacteristicsCount(); i++) {
-                BluetoothGATTCharacteristic characteristics = service.getCharacteristics(i);
-
-                BluetoothService ohService = new BluetoothService(uuid, false, handle, handle); // TODO?
-                UUID charUuid;
-                if (characteristics.getShortUuid() != 0) {
-                    charUuid = to128BitUUID(characteristics.getShortUuid());
-                } else {
-                    charUuid = new UUID(characteristics.getUuid(0), characteristics.getUuid(1));
+            int endHandle = handle;
+            for (BluetoothGATTCharacteristic characteristic : service.getCharacteristicsList()) {
+                endHandle = Math.max(endHandle, characteristic.getHandle());
+                for (BluetoothGATTDescriptor descriptor : characteristic.getDescriptorsList()) {
+                    endHandle = Math.max(endHandle, descriptor.getHandle());
                 }
+            }
 
-                BluetoothCharacteristic ohCharacteristic = new BluetoothCharacteristic(charUuid, handle); // TODO?
+            UUID uuid = toUuid(service.getShortUuid(), service.getUuidList());
+            BluetoothService ohService = new BluetoothService(uuid, false, handle, endHandle);
+            for (BluetoothGATTCharacteristic characteristic : service.getCharacteristicsList()) {
+                UUID charUuid = toUuid(characteristic.getShortUuid(), characteristic.getUuidList());
+                BluetoothCharacteristic ohCharacteristic = new BluetoothCharacteristic(charUuid,
+                        characteristic.getHandle());
                 ohService.addCharacteristic(ohCharacteristic);
-
-                notifyListeners(BluetoothEventType.SERVICES_DISCOVERED, ohService);
+                characteristicsByHandle.put(characteristic.getHandle(), ohCharacteristic);
             }
+            addService(ohService);
         }
     }
 
+    private static UUID toUuid(long shortUuid, List<Long> uuid) {
+        return shortUuid != 0 ? to128BitUUID(shortUuid) : new UUID(uuid.get(0), uuid.get(1));
+    }
+
     public void handleGattServicesDoneMessage(BluetoothGATTGetServicesDoneResponse rsp) {
+        servicesResolvedVia = connectionProxy;
+        servicesResolvedNanos = System.nanoTime();
+        servicesResolved = true;
+        notifyListeners(BluetoothEventType.SERVICES_DISCOVERED);
         notifyListeners(BluetoothEventType.CONNECTION_STATE,
                 new BluetoothConnectionStatusNotification(ConnectionState.DISCOVERED));
     }
 
-    private String to128BitUUID(String UUID16bit) {
-        String uuid = "0000" + UUID16bit.substring(2) + "-0000-1000-8000-00805F9B34FB"; // Trim 0x
-        return uuid.toLowerCase();
+    public void handleGattReadResponse(BluetoothGATTReadResponse rsp) {
+        completeGattRequest(rsp.getHandle(), Operation.READ, rsp.getData().toByteArray());
+    }
+
+    public void handleGattWriteResponse(BluetoothGATTWriteResponse rsp) {
+        completeGattRequest(rsp.getHandle(), Operation.WRITE, NO_DATA);
+    }
+
+    public void handleGattNotifyResponse(BluetoothGATTNotifyResponse rsp) {
+        completeGattRequest(rsp.getHandle(), Operation.NOTIFY, NO_DATA);
+    }
+
+    public void handleGattNotifyData(BluetoothGATTNotifyDataResponse rsp) {
+        @Nullable
+        BluetoothCharacteristic characteristic = characteristicsByHandle.get(rsp.getHandle());
+        if (characteristic == null) {
+            logger.debug("Received GATT notification for {} unknown handle {}", address, rsp.getHandle());
+            return;
+        }
+        byte[] data = rsp.getData().toByteArray();
+        callbackExecutor
+                .execute(() -> notifyListeners(BluetoothEventType.CHARACTERISTIC_UPDATED, characteristic, data));
+    }
+
+    public void handleGattErrorResponse(BluetoothGATTErrorResponse rsp) {
+        // The handle may be stale if the firmware of the device changed, so discover the services again next time
+        servicesResolved = false;
+        if (!gattRequests.fail(rsp.getHandle(),
+                new IOException(String.format("GATT error %d for handle %d", rsp.getError(), rsp.getHandle())))) {
+            logger.debug("Received GATT error {} for {} handle {} without pending request", rsp.getError(), address,
+                    rsp.getHandle());
+        }
+    }
+
+    private void completeGattRequest(int handle, Operation operation, byte[] data) {
+        if (!gattRequests.complete(handle, operation, data)) {
+            logger.debug("Received GATT {} response for {} handle {} without pending request, timed out?", operation,
+                    address, handle);
+        }
     }
 
     static UUID to128BitUUID(long shortUuid) {
-        long mostSigBits = ((shortUuid & 0xFFFFFFFFL) << 32) | BLUETOOTH_BASE_UUID_MSB;
-        return new UUID(mostSigBits, BLUETOOTH_BASE_UUID_LSB);
+        return BluetoothUuidCache.toUuid(shortUuid);
     }
 
     @Override
     public boolean connect() {
-        ESPHomeHandler nearestESPHomeDevice = proxyHandler
-                .getNearestESPHomeDevice(BluetoothAddressUtil.convertAddressToLong(address));
-        if (nearestESPHomeDevice != null) {
-            lockToHandler = nearestESPHomeDevice;
-            proxyHandler.linkDevice(this, nearestESPHomeDevice);
+        proxyHandler.connect(this);
+        return true;
+    }
 
-            // Connect to the device
-            // notifyListeners(BluetoothEventType.CONNECTION_STATE,
-            // new BluetoothConnectionStatusNotification(ConnectionState.CONNECTING));
-            lockToHandler.sendBluetoothCommand(BluetoothDeviceRequest.newBuilder()
-                    .setAddress(BluetoothAddressUtil.convertAddressToLong(address)).setAddressType(addressType)
-                    .setRequestType(BluetoothDeviceRequestType.BLUETOOTH_DEVICE_REQUEST_TYPE_CONNECT_V3_WITHOUT_CACHE)
-                    .build());
+    /**
+     * Called when the connection via the current proxy failed and is retried on another.
+     */
+    void connectionFailed() {
+        lockToHandler = null;
+    }
 
-            return true;
-        }
+    void connectVia(ESPHomeHandler handler) {
+        lockToHandler = handler;
+        BluetoothDeviceRequestType requestType = prepareConnection(handler.getThing().getUID(), System.nanoTime())
+                ? BluetoothDeviceRequestType.BLUETOOTH_DEVICE_REQUEST_TYPE_CONNECT_V3_WITH_CACHE
+                : BluetoothDeviceRequestType.BLUETOOTH_DEVICE_REQUEST_TYPE_CONNECT_V3_WITHOUT_CACHE;
+        handler.sendBluetoothCommand(BluetoothDeviceRequest.newBuilder().setAddress(rawAddress)
+                .setAddressType(addressType).setRequestType(requestType).build());
+    }
 
-        return true;
+    /**
+     * Decide whether the discovered services can be used for a connection through the proxy. They are only used when
+     * they were discovered through the same proxy within {@link #SERVICES_CACHE_TTL_NANOS}, otherwise they are cleared
+     * and discovered again.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return true if the connection should be made with the cache of the proxy
+     */
+    boolean prepareConnection(ThingUID proxy, long nowNanos) {
+        connectionProxy = proxy;
+        boolean withCache = servicesResolved && proxy.equals(servicesResolvedVia)
+                && nowNanos - servicesResolvedNanos < SERVICES_CACHE_TTL_NANOS;
+        if (!withCache) {
+            servicesResolved = false;
+            supportedServices.clear();
+            characteristicsByHandle.clear();
+        }
+        connectedWithCache = withCache;
+        return withCache;
     }
 
     @Override
@@ -167,53 +327,102 @@ public class ESPHomeBluetoothDevice extends BaseBluetoothDevice {
 
             // notifyListeners(BluetoothEventType.CONNECTION_STATE,
             // new BluetoothConnectionStatusNotification(ConnectionState.DISCONNECTING));
-            lockToHandler.sendBluetoothCommand(BluetoothDeviceRequest.newBuilder()
-                    .setAddress(BluetoothAddressUtil.convertAddressToLong(address))
+            lockToHandler.sendBluetoothCommand(BluetoothDeviceRequest.newBuilder().setAddress(rawAddress)
                     .setRequestType(BluetoothDeviceRequestType.BLUETOOTH_DEVICE_REQUEST_TYPE_DISCONNECT).build());
 
             return true;
 
         }
+        // Still waiting for a free connection slot
+        proxyHandler.cancelConnection(this);
         return false;
     }
 
     @Override
     public boolean discoverServices() {
+        // The proxy only knows the services without asking the device if the connection was made with its cache
+        if (servicesResolved && connectedWithCache) {
+            logger.debug("Using cached services of {}", address);
+            callbackExecutor.execute(() -> {
+                notifyListeners(BluetoothEventType.SERVICES_DISCOVERED);
+                notifyListeners(BluetoothEventType.CONNECTION_STATE,
+                        new BluetoothConnectionStatusNotification(ConnectionState.DISCOVERED));
+            });
+            return true;
+        }
+        @Nullable
+        ESPHomeHandler handler = lockToHandler;
+        if (handler == null) {
+            return false;
+        }
         notifyListeners(BluetoothEventType.CONNECTION_STATE,
                 new BluetoothConnectionStatusNotification(ConnectionState.DISCOVERING));
-        lockToHandler.sendBluetoothCommand(BluetoothGATTGetServicesRequest.newBuilder()
-                .setAddress(BluetoothAddressUtil.convertAddressToLong(address)).build());
+        supportedServices.clear();
+        characteristicsByHandle.clear();
+        handler.sendBluetoothCommand(BluetoothGATTGetServicesRequest.newBuilder().setAddress(rawAddress).build());
         return true;
     }
 
     @Override
     public CompletableFuture<byte[]> readCharacteristic(BluetoothCharacteristic characteristic) {
-
-        lockToHandler.sendBluetoothCommand(
-                BluetoothGATTReadRequest.newBuilder().setAddress(BluetoothAddressUtil.convertAddressToLong(address))
-                        .setHandle(characteristic.getHandle()).build());
-
-        return CompletableFuture.failedFuture(new RuntimeException("Not implemented"));
+        @Nullable
+        ESPHomeHandler handler = lockToHandler;
+        if (handler == null) {
+            return CompletableFuture.failedFuture(new IOException("Device not connected"));
+        }
+        CompletableFuture<byte[]> future = gattRequests.register(characteristic.getHandle(), Operation.READ);
+        handler.sendBluetoothCommand(BluetoothGATTReadRequest.newBuilder().setAddress(rawAddress)
+                .setHandle(characteristic.getHandle()).build());
+        return future;
     }
 
     @Override
     public CompletableFuture<Void> writeCharacteristic(BluetoothCharacteristic characteristic, byte[] value) {
-        return CompletableFuture.failedFuture(new RuntimeException("Not implemented"));
+        @Nullable
+        ESPHomeHandler handler = lockToHandler;
+        if (handler == null) {
+            return CompletableFuture.failedFuture(new IOException("Device not connected"));
+        }
+        CompletableFuture<byte[]> future = gattRequests.register(characteristic.getHandle(), Operation.WRITE);
+        handler.sendBluetoothCommand(BluetoothGATTWriteRequest.newBuilder().setAddress(rawAddress)
+                .setHandle(characteristic.getHandle()).setResponse(true).setData(ByteString.copyFrom(value)).build());
+        return future.thenApply(data -> null);
     }
 
     @Override
     public boolean isNotifying(BluetoothCharacteristic characteristic) {
-        return false;
+        return notifyingHandles.contains(characteristic.getHandle());
     }
 
     @Override
     public CompletableFuture<Void> enableNotifications(BluetoothCharacteristic characteristic) {
-        return CompletableFuture.failedFuture(new RuntimeException("Not implemented"));
+        return setNotifications(characteristic, true);
     }
 
     @Override
     public CompletableFuture<Void> disableNotifications(BluetoothCharacteristic characteristic) {
-        return CompletableFuture.failedFuture(new RuntimeException("Not implemented"));
+        return setNotifications(characteristic, false);
+    }
+
+    private CompletableFuture<Void> setNotifications(BluetoothCharacteristic characteristic, boolean enable) {
+        @Nullable
+        ESPHomeHandler handler = lockToHandler;
+        if (handler == null) {
+            return CompletableFuture.failedFuture(new IOException("Device not connected"));
+        }
+        int handle = characteristic.getHandle();
+        characteristicsByHandle.put(handle, characteristic);
+        CompletableFuture<byte[]> future = gattRequests.register(handle, Operation.NOTIFY);
+        handler.sendBluetoothCommand(BluetoothGATTNotifyRequest.newBuilder().setAddress(rawAddress).setHandle(handle)
+                .setEnable(enable).build());
+        return future.thenApply(data -> {
+            if (enable) {
+                notifyingHandles.add(handle);
+            } else {
+                notifyingHandles.remove(handle);
+            }
+            return null;
+        });
     }
 
     @Override
@@ -0,0 +1,18 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+/**
+ * Configuration of the ESPHome Bluetooth proxy bridge.
+ */
+public class ESPHomeBluetoothProxyConfiguration {
+
+    /**
+     * Minimum time between advertisements passed on to the listeners of a device, in milliseconds. 0 passes on every
+     * advertisement.
+     */
+    public int advertisementInterval = 1000;
+
+    /**
+     * Pass on an advertisement before the interval has passed if its payload has changed.
+     */
+    public boolean advertisementOnChange = true;
+}
@@ -1,8 +1,9 @@
 package no.seime.openhab.binding.esphome.internal.bluetooth;
 
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -14,18 +15,14 @@ import org.openhab.core.types.Command;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.protobuf.GeneratedMessage;
-import com.neovisionaries.bluetooth.ble.advertising.ADManufacturerSpecific;
-import com.neovisionaries.bluetooth.ble.advertising.ADPayloadParser;
-import com.neovisionaries.bluetooth.ble.advertising.ADStructure;
-import com.neovisionaries.bluetooth.ble.advertising.LocalName;
 
 import io.esphome.api.*;
 import no.seime.openhab.binding.esphome.internal.BindingConstants;
 import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.comm.ConnectionMailbox;
+import no.seime.openhab.binding.esphome.internal.comm.PacketLane;
 import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandler;
 
 @NonNullByDefault
@@ -38,130 +35,189 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
 
     private final Logger logger = LoggerFactory.getLogger(ESPHomeBluetoothProxyHandler.class);
 
-    private final List<ESPHomeHandler> espHomeHandlers = new ArrayList<>();
+    // Membership is driven by the devices through the registry, the thing registry scan only reconciles
+    private static final int RECONCILE_INTERVAL_SECONDS = 60;
 
-    // Deprecated, used by older firmware
-    private final LoadingCache<Long, Optional<BluetoothLEAdvertisementResponse>> singleAdvertisementPerPacketCache;
+    private final BluetoothProxyRegistry proxyRegistry;
+
+    private final Set<ESPHomeHandler> espHomeHandlers = ConcurrentHashMap.newKeySet();
 
     // Deprecated, used by older firmware
-    private final LoadingCache<Long, Optional<BluetoothLERawAdvertisement>> multipleAdvertisementPerPacketCache;
+    private final AdvertisementDedupCache singleAdvertisementPerPacketCache = new AdvertisementDedupCache();
+
+    // Shared by all proxies, so the same advertisement heard by several proxies is only processed once
+    private final AdvertisementDedupCache multipleAdvertisementPerPacketCache = new AdvertisementDedupCache();
+
+    private final ProxySignalTable knownDevices = new ProxySignalTable();
 
-    private final Map<Long, SortedSet<DeviceAndRSSI>> knownDevices = new ConcurrentHashMap<>();
+    private final ProxyConnectionScheduler connectionScheduler = new ProxyConnectionScheduler(knownDevices);
 
-    private final Map<ESPHomeBluetoothDevice, ESPHomeHandler> connectionMap = new ConcurrentHashMap<>();
+    // Devices with an active or pending connection by raw 48 bit address, for routing connection and GATT responses
+    private final Map<Long, ESPHomeBluetoothDevice> connectedDevices = new ConcurrentHashMap<>();
 
     private final MonitoredCompositeExecutorService executor;
 
+    // Passes advertisements on to the listeners in batches, off the packet processing thread
+    private final ConnectionMailbox scanNotifications;
+
+    private long advertisementIntervalNanos;
+    private boolean advertisementOnChange;
+
+    // Proxies scan actively only while an inbox scan runs or a listened to device has not been named yet, as only
+    // active scanning requests the scan responses. Passive scanning cuts the number of advertisements to process.
+    private final AtomicReference<BluetoothScannerMode> scannerMode = new AtomicReference<>(
+            BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE);
+    private volatile boolean discoveryScanRunning;
+
     /**
      * Creates a new instance of this class for the {@link Thing}.
      *
      * @param bridge the thing that should be handled, not null
      * @param thingRegistry
      * @param executor
+     * @param proxyRegistry
      */
     public ESPHomeBluetoothProxyHandler(Bridge bridge, ThingRegistry thingRegistry,
-            MonitoredCompositeExecutorService executor) {
+            MonitoredCompositeExecutorService executor, BluetoothProxyRegistry proxyRegistry) {
         super(bridge);
         this.thingRegistry = thingRegistry;
         this.executor = executor;
-
-        // Deprecated
-        CacheLoader<Long, Optional<BluetoothLEAdvertisementResponse>> deprecatedLoader = new CacheLoader<>() {
-            @Override
-            public Optional<BluetoothLEAdvertisementResponse> load(Long key) {
-                return Optional.empty();
-            }
-        };
-
-        // Deprecated
-        singleAdvertisementPerPacketCache = CacheBuilder.newBuilder().expireAfterAccess(5, TimeUnit.SECONDS)
-                .maximumSize(1000).build(deprecatedLoader);
-
-        CacheLoader<Long, Optional<BluetoothLERawAdvertisement>> loader = new CacheLoader<>() {
-            @Override
-            public Optional<BluetoothLERawAdvertisement> load(Long key) {
-                return Optional.empty();
-            }
-        };
-
-        // Deprecated
-        multipleAdvertisementPerPacketCache = CacheBuilder.newBuilder().expireAfterAccess(5, TimeUnit.SECONDS)
-                .maximumSize(1000).build(loader);
+        this.proxyRegistry = proxyRegistry;
+        scanNotifications = new ConnectionMailbox(executor.executor(TaskCategory.BLE_NOTIFY), "BLE proxy");
     }
 
     @Override
     public void initialize() {
         super.initialize();
+        ESPHomeBluetoothProxyConfiguration config = getConfigAs(ESPHomeBluetoothProxyConfiguration.class);
+        advertisementIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.advertisementInterval));
+        advertisementOnChange = config.advertisementOnChange;
         updateStatus(ThingStatus.UNKNOWN, ThingStatusDetail.NONE, "Looking for BLE enabled ESPHome devices");
 
-        registrationFuture = executor.scheduleWithFixedDelay(this::updateESPHomeDeviceList, 0, 5, TimeUnit.SECONDS);
+        proxyRegistry.addProxyHandler(this);
+        registrationFuture = executor.scheduleWithFixedDelay(this::updateESPHomeDeviceList, 0,
+                RECONCILE_INTERVAL_SECONDS, TimeUnit.SECONDS, "BLE proxy device list refresh",
+                TaskCategory.BLE_REFRESH);
     }
 
     @Override
     public void dispose() {
+        proxyRegistry.removeProxyHandler(this);
         registrationFuture.cancel(true);
         espHomeHandlers.forEach(ESPHomeHandler::stopListeningForBLEAdvertisements);
         espHomeHandlers.clear();
+        knownDevices.clear();
         super.dispose();
     }
 
-    private synchronized void updateESPHomeDeviceList() {
+    /**
+     * Reconcile with the thing registry, in case a transition reported through the {@link BluetoothProxyRegistry}
+     * was missed. Also picks up the devices that were already online when this bridge was initialized.
+     */
+    private void updateESPHomeDeviceList() {
+        espHomeHandlers.stream()
+                .filter(handler -> handler.isDisposed() || !handler.getThing().getStatus().equals(ThingStatus.ONLINE))
+                .toList().forEach(this::removeESPHomeHandler);
+
+        thingRegistry.stream().filter(thing -> thing.getThingTypeUID().equals(BindingConstants.THING_TYPE_DEVICE))
+                .filter(thing -> thing.isEnabled() && thing.getStatus().equals(ThingStatus.ONLINE))
+                .filter(thing -> thing.getConfiguration().get("enableBluetoothProxy") == Boolean.TRUE)
+                .forEach(thing -> {
+                    if (thing.getHandler() instanceof ESPHomeHandler handler && !handler.isDisposed()) {
+                        addESPHomeHandler(handler);
+                    }
+                });
 
-        // Get all ESPHome devices
-        // For each device, check if it has BLE enabled, is enabled and ONLINE
-        // If so, enable registration of BLE advertisements
-        // If not, remove from list of devices
+        updateProxyStatus();
+        updateScannerMode();
+        logger.debug("List of {} ESPHome devices: {}", espHomeHandlers.size(),
+                espHomeHandlers.stream().map(e -> e.getThing().getUID()).toList());
+    }
 
-        // First clean up any disposed handlers or non-ONLINE handlers
-        List<ESPHomeHandler> inactiveHandlers = espHomeHandlers.stream()
-                .filter(handler -> handler.isDisposed() || !handler.getThing().getStatus().equals(ThingStatus.ONLINE))
-                .toList();
-        logger.debug("Found {} inactive handlers to remove", inactiveHandlers.size());
-        espHomeHandlers.removeAll(inactiveHandlers);
-        inactiveHandlers.stream().forEach(handler -> {
+    /**
+     * Start receiving advertisements from the device and use it as a proxy.
+     */
+    public void addESPHomeHandler(ESPHomeHandler handler) {
+        if (espHomeHandlers.add(handler)) {
+            logger.debug("Adding Bluetooth proxy {}", handler.getThing().getUID());
+            handler.listenForBLEAdvertisements(this);
+            handler.setBluetoothScannerMode(scannerMode.get());
+            updateProxyStatus();
+            placeWaitingConnections();
+        }
+    }
+
+    /**
+     * Stop using the device as a proxy, and forget what it has heard.
+     */
+    public void removeESPHomeHandler(ESPHomeHandler handler) {
+        if (espHomeHandlers.remove(handler)) {
+            logger.debug("Removing Bluetooth proxy {}", handler.getThing().getUID());
+            knownDevices.removeProxy(handler.getThing().getUID());
+            connectionScheduler.removeProxy(handler.getThing().getUID());
             try {
                 handler.stopListeningForBLEAdvertisements();
             } catch (Exception e) {
                 // Swallow
             }
-        });
-
-        List<Thing> esphomeThings = thingRegistry.stream()
-                .filter(thing -> thing.getThingTypeUID().equals(BindingConstants.THING_TYPE_DEVICE)).toList();
-        for (Thing esphomeThing : esphomeThings) {
-            if (esphomeThing.isEnabled() && esphomeThing.getStatus().equals(ThingStatus.ONLINE)) {
-                if (esphomeThing.getConfiguration().get("enableBluetoothProxy") == Boolean.TRUE) {
-                    // Enable registration of BLE advertisements
-
-                    ESPHomeHandler handler = (ESPHomeHandler) esphomeThing.getHandler();
-                    if (handler != null) {
-                        if (!espHomeHandlers.contains(handler)) {
-                            handler.listenForBLEAdvertisements(this);
-                            espHomeHandlers.add(handler);
-                        }
-
-                    }
-
-                }
-            }
+            updateProxyStatus();
         }
+    }
 
-        if (espHomeHandlers.isEmpty()) {
+    private void updateProxyStatus() {
+        int proxies = espHomeHandlers.size();
+        if (proxies == 0) {
             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.NONE,
                     "Found no ESPHome devices configured for Bluetooth proxy support. Make sure your ESPHome things are online and have the 'enableBluetoothProxy' option set to 'true'");
 
         } else {
-            updateStatus(ThingStatus.ONLINE, ThingStatusDetail.NONE, String
-                    .format("Found %d ESPHome devices configured for Bluetooth proxy support", espHomeHandlers.size()));
+            updateStatus(ThingStatus.ONLINE, ThingStatusDetail.NONE,
+                    String.format("Found %d ESPHome devices configured for Bluetooth proxy support", proxies));
         }
-        logger.debug("List of {} ESPHome devices: {}", espHomeHandlers.size(),
-                espHomeHandlers.stream().map(e -> e.getThing().getUID()).toList());
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
     }
 
+    @Override
+    public void scanStart() {
+        super.scanStart();
+        discoveryScanRunning = true;
+        updateScannerMode();
+    }
+
+    @Override
+    public void scanStop() {
+        super.scanStop();
+        discoveryScanRunning = false;
+        updateScannerMode();
+    }
+
+    /**
+     * Switch all proxies to active scanning if scan responses are needed, else to passive scanning.
+     */
+    private void updateScannerMode() {
+        BluetoothScannerMode mode = discoveryScanRunning || devices.values().stream().anyMatch(this::needsScanResponse)
+                ? BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE
+                : BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE;
+        if (scannerMode.getAndSet(mode) != mode) {
+            logger.debug("Switching Bluetooth proxies to {}", mode);
+            espHomeHandlers.forEach(handler -> handler.setBluetoothScannerMode(mode));
+        }
+    }
+
+    private boolean needsScanResponse(ESPHomeBluetoothDevice device) {
+        // The name is usually only in the scan response
+        return device.getName() == null && device.hasListeners();
+    }
+
+    private void requestScanResponsesIfNeeded(ESPHomeBluetoothDevice device) {
+        if (scannerMode.get() == BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE && needsScanResponse(device)) {
+            updateScannerMode();
+        }
+    }
+
     @Override
     protected ESPHomeBluetoothDevice createDevice(BluetoothAddress address) {
         return new ESPHomeBluetoothDevice(this, address);
@@ -180,49 +236,71 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
             });
             handleRawAdvertisement(rawAdvertisementsResponse, handler);
         } else if (message instanceof BluetoothDeviceConnectionResponse rsp) {
-            Optional<Map.Entry<ESPHomeBluetoothDevice, ESPHomeHandler>> deviceEntry = connectionMap.entrySet().stream()
-                    .filter(device -> device.getKey().getAddress()
-                            .equals(BluetoothAddressUtil.createAddress(rsp.getAddress())))
-                    .findFirst();
-
-            deviceEntry.ifPresent(device -> device.getKey().handleConnectionsMessage(rsp));
+            if (rsp.getConnected()) {
+                connectionScheduler.connected(rsp.getAddress());
+            } else if (rsp.getError() != 0) {
+                logger.debug("Connection to device {} via {} failed with error {}", rsp.getAddress(),
+                        handler.getThing().getUID(), rsp.getError());
+                connectionScheduler.recordConnectionError(handler.getThing().getUID(), System.nanoTime());
+                if (retryConnection(rsp.getAddress())) {
+                    return;
+                }
+            }
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleConnectionsMessage, handler);
+        } else if (message instanceof BluetoothConnectionsFreeResponse rsp) {
+            logger.debug("Bluetooth proxy {} has {} of {} connection slots free", handler.getThing().getUID(),
+                    rsp.getFree(), rsp.getLimit());
+            connectionScheduler.updateSlots(handler.getThing().getUID(), rsp.getFree());
+            placeWaitingConnections();
         } else if (message instanceof BluetoothGATTGetServicesResponse rsp) {
-            Optional<Map.Entry<ESPHomeBluetoothDevice, ESPHomeHandler>> deviceEntry = connectionMap.entrySet().stream()
-                    .filter(device -> device.getKey().getAddress()
-                            .equals(BluetoothAddressUtil.createAddress(rsp.getAddress())))
-                    .findFirst();
-
-            deviceEntry.ifPresent(device -> device.getKey().handleGattServicesMessage(rsp));
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattServicesMessage, handler);
         } else if (message instanceof BluetoothGATTGetServicesDoneResponse rsp) {
-            Optional<Map.Entry<ESPHomeBluetoothDevice, ESPHomeHandler>> deviceEntry = connectionMap.entrySet().stream()
-                    .filter(device -> device.getKey().getAddress()
-                            .equals(BluetoothAddressUtil.createAddress(rsp.getAddress())))
-                    .findFirst();
-
-            deviceEntry.ifPresent(device -> device.getKey().handleGattServicesDoneMessage(rsp));
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattServicesDoneMessage,
+                    handler);
+        } else if (message instanceof BluetoothGATTReadResponse rsp) {
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattReadResponse, handler);
+        } else if (message instanceof BluetoothGATTWriteResponse rsp) {
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattWriteResponse, handler);
+        } else if (message instanceof BluetoothGATTNotifyResponse rsp) {
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattNotifyResponse, handler);
+        } else if (message instanceof BluetoothGATTNotifyDataResponse rsp) {
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattNotifyData, handler);
+        } else if (message instanceof BluetoothGATTErrorResponse rsp) {
+            routeToConnectedDevice(rsp.getAddress(), rsp, ESPHomeBluetoothDevice::handleGattErrorResponse, handler);
         } else if (message instanceof BluetoothScannerStateResponse rsp) {
-            logger.debug("Received BluetoothScannerStateResponse from {} with status {}, currently ignored",
-                    handler.getThing().getUID(), rsp.getState());
+            logger.debug("Bluetooth proxy {} scanner is {} in {}, configured {}", handler.getThing().getUID(),
+                    rsp.getState(), rsp.getMode(), rsp.getConfiguredMode());
+            handler.updateBluetoothScannerState(rsp);
         } else {
             logger.warn("Received unhandled Bluetooth packet type: {} from {}", message.getClass().getSimpleName(),
                     handler.getThing().getUID());
         }
     }
 
+    private <T> void routeToConnectedDevice(long address, T message, BiConsumer<ESPHomeBluetoothDevice, T> consumer,
+            ESPHomeHandler handler) {
+        @Nullable
+        ESPHomeBluetoothDevice device = connectedDevices.get(address);
+        if (device != null) {
+            consumer.accept(device, message);
+        } else {
+            logger.debug("Received {} for device {} via {} which is not connected", message.getClass().getSimpleName(),
+                    address, handler.getThing().getUID());
+        }
+    }
+
     // Now legacy after ESPHome 2025.9 (approx)
     private void handleAdvertisement(BluetoothLEAdvertisementResponse rsp, ESPHomeHandler handler) {
-        try {
-            Optional<BluetoothLEAdvertisementResponse> cachedAdvertisement = singleAdvertisementPerPacketCache
-                    .get(rsp.getAddress());
-            if (cachedAdvertisement.isPresent() && equalsExceptRssi(rsp, cachedAdvertisement.get())) {
-                logger.debug("Received duplicate BLE advertisement from device {} via {}", rsp.getAddress(),
-                        handler.getThing().getUID());
-                return;
-            } else {
-                singleAdvertisementPerPacketCache.put(rsp.getAddress(), Optional.of(rsp));
-            }
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+        int payloadHash = Objects.hash(rsp.getName(), rsp.getManufacturerDataList(), rsp.getServiceDataList(),
+                rsp.getServiceUuidsList(), rsp.getAddressType());
+        // No single payload to take the length of, so the name and number of entries stand in for it
+        int payloadLength = rsp.getName().size() + rsp.getManufacturerDataCount() + rsp.getServiceDataCount()
+                + rsp.getServiceUuidsCount();
+        if (singleAdvertisementPerPacketCache.isDuplicate(rsp.getAddress(), payloadHash, payloadLength,
+                System.nanoTime())) {
+            logger.debug("Received duplicate BLE advertisement from device {} via {}", rsp.getAddress(),
+                    handler.getThing().getUID());
+            return;
         }
 
         try {
@@ -240,9 +318,17 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
                 device.setManufacturerId(manufacturerId);
             });
 
-            deviceDiscovered(device);
+            long now = System.nanoTime();
+            if (device.isDiscoveryDue(now)) {
+                device.setDiscovered(now);
+                deviceDiscovered(device);
+            }
 
-            device.handleAdvertisementPacket(rsp);
+            if (device.hasListeners()
+                    && device.isNotificationDue(payloadHash, now, advertisementIntervalNanos, advertisementOnChange)) {
+                notifyListeners(device, () -> device.handleAdvertisementPacket(rsp));
+            }
+            requestScanResponsesIfNeeded(device);
 
         } catch (Exception e) {
             logger.warn("Error handling BLE advertisement", e);
@@ -251,18 +337,13 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
 
     private void handleRawAdvertisement(BluetoothLERawAdvertisementsResponse rsp, ESPHomeHandler handler) {
         rsp.getAdvertisementsList().forEach(advertisement -> {
-            try {
-                Optional<BluetoothLERawAdvertisement> cachedAdvertisement = multipleAdvertisementPerPacketCache
-                        .get(advertisement.getAddress());
-                if (cachedAdvertisement.isPresent() && equalsExceptRssi(advertisement, cachedAdvertisement.get())) {
-                    logger.trace("Received duplicate BLE advertisement from device {} via {}",
-                            advertisement.getAddress(), handler.getThing().getUID());
-                    return;
-                } else {
-                    multipleAdvertisementPerPacketCache.put(advertisement.getAddress(), Optional.of(advertisement));
-                }
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
+            // ByteString caches its hash code, and the address type is folded in so it does not need comparing
+            int payloadHash = 31 * advertisement.getData().hashCode() + advertisement.getAddressType();
+            if (multipleAdvertisementPerPacketCache.isDuplicate(advertisement.getAddress(), payloadHash,
+                    advertisement.getData().size(), System.nanoTime())) {
+                logger.trace("Received duplicate BLE advertisement from device {} via {}", advertisement.getAddress(),
+                        handler.getThing().getUID());
+                return;
             }
 
             try {
@@ -274,20 +355,34 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
                 device.setAddressType(advertisement.getAddressType());
                 device.setRssi(advertisement.getRssi());
 
-                List<ADStructure> advertisementStructures = ADPayloadParser.getInstance()
-                        .parse(advertisement.getData().toByteArray());
+                // Only look into the payload if a thing listens to the device, or discovery needs it
+                long now = System.nanoTime();
+                boolean discover = device.isDiscoveryDue(now);
+                if (!discover && !device.hasListeners()) {
+                    return;
+                }
 
-                for (ADStructure structure : advertisementStructures) {
-                    if (structure instanceof LocalName part) {
-                        device.setName(part.getLocalName());
-                    } else if (structure instanceof ADManufacturerSpecific part) {
-                        device.setManufacturerId(part.getCompanyId());
-                    }
+                AdvertisingData advertisingData = new AdvertisingData(advertisement.getData());
+                @Nullable
+                String name = advertisingData.getLocalName();
+                if (name != null) {
+                    device.setName(name);
+                }
+                int manufacturerId = advertisingData.getManufacturerId();
+                if (manufacturerId >= 0) {
+                    device.setManufacturerId(manufacturerId);
                 }
 
-                deviceDiscovered(device);
+                if (discover) {
+                    device.setDiscovered(now);
+                    deviceDiscovered(device);
+                }
 
-                device.handleAdvertisementPacket(advertisement, advertisementStructures);
+                if (device.hasListeners() && device.isNotificationDue(payloadHash, now, advertisementIntervalNanos,
+                        advertisementOnChange)) {
+                    notifyListeners(device, () -> device.handleAdvertisementPacket(advertisement, advertisingData));
+                }
+                requestScanResponsesIfNeeded(device);
 
             } catch (Exception e) {
                 logger.warn("Error handling BLE advertisement", e);
@@ -296,14 +391,24 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
         });
     }
 
+    private void notifyListeners(ESPHomeBluetoothDevice device, Runnable notification) {
+        try {
+            if (!scanNotifications.execute(PacketLane.BULK, notification)) {
+                logger.debug("Dropping BLE advertisement from device {}, too many queued", device.getAddress());
+            }
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping BLE advertisement from device {}: {}", device.getAddress(), e.getMessage());
+        }
+    }
+
     @Nullable
     public ESPHomeHandler getNearestESPHomeDevice(long address) {
-        SortedSet<DeviceAndRSSI> deviceAndRSSIS = knownDevices.get(address);
-        if (deviceAndRSSIS == null || deviceAndRSSIS.isEmpty()) {
+        @Nullable
+        ThingUID device = knownDevices.getNearestProxy(address, System.nanoTime());
+        if (device == null) {
             return null;
         }
 
-        ThingUID device = deviceAndRSSIS.first().device;
         @Nullable
         Thing esphomeThing = thingRegistry.get(device);
         if (esphomeThing != null) {
@@ -314,24 +419,13 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
     }
 
     private void updateDeviceLocation(long address, int rssi, ESPHomeHandler handler) {
-        SortedSet<DeviceAndRSSI> deviceAndRSSIS = knownDevices.computeIfAbsent(address,
-                k -> new ConcurrentSkipListSet<>());
-        deviceAndRSSIS.removeIf(e -> e.device.equals(handler.getThing().getUID())); // Remove previous entry for this
-        // esphome device
-        deviceAndRSSIS.add(new DeviceAndRSSI(handler.getThing().getUID(), rssi, Instant.now()));
-    }
-
-    private boolean equalsExceptRssi(BluetoothLEAdvertisementResponse rsp1, BluetoothLEAdvertisementResponse rsp2) {
-        return rsp1.getAddress() == rsp2.getAddress() && rsp1.getName().equals(rsp2.getName())
-                && rsp1.getManufacturerDataList().equals(rsp2.getManufacturerDataList())
-                && rsp1.getServiceDataList().equals(rsp2.getServiceDataList())
-                && rsp1.getServiceUuidsList().equals(rsp2.getServiceUuidsList())
-                && rsp1.getAddressType() == rsp2.getAddressType();
-    }
-
-    private boolean equalsExceptRssi(BluetoothLERawAdvertisement rsp1, BluetoothLERawAdvertisement rsp2) {
-        return rsp1.getAddress() == rsp2.getAddress() && rsp1.getData().equals(rsp2.getData())
-                && rsp1.getAddressType() == rsp2.getAddressType();
+        if (!knownDevices.update(address, handler.getThing().getUID(), rssi, System.nanoTime())) {
+            logger.trace("Ignoring RSSI of device {} via {}, too many Bluetooth proxies", address,
+                    handler.getThing().getUID());
+        } else if (connectedDevices.containsKey(address) && connectionScheduler.isWaiting(address)) {
+            // A waiting connection may now be placed on the proxy that just heard the device
+            placeWaitingConnections();
+        }
     }
 
     private int parseManufacturerIdToInt(String uuid) {
@@ -346,19 +440,79 @@ public class ESPHomeBluetoothProxyHandler extends AbstractBluetoothBridgeHandler
         return null;
     }
 
-    public void linkDevice(ESPHomeBluetoothDevice espHomeBluetoothDevice, ESPHomeHandler lockToHandler) {
-        connectionMap.put(espHomeBluetoothDevice, lockToHandler);
+    /**
+     * @return executor for GATT callbacks and notifications, so they do not run on the packet processing thread
+     */
+    public Executor getGattExecutor() {
+        return executor.executor(TaskCategory.BLE_GATT);
     }
 
-    public void unlinkDevice(ESPHomeBluetoothDevice espHomeBluetoothDevice) {
-        connectionMap.remove(espHomeBluetoothDevice);
+    /**
+     * @return scheduler for GATT request timeouts
+     */
+    public ScheduledExecutorService getScheduler() {
+        return executor;
     }
 
-    private record DeviceAndRSSI(ThingUID device, int rssi, Instant lastSeen) implements Comparable<DeviceAndRSSI> {
+    /**
+     * Connect the device through the best proxy with a free connection slot, or as soon as one is available.
+     */
+    public void connect(ESPHomeBluetoothDevice device) {
+        linkDevice(device);
+        connectionScheduler.request(device.getRawAddress());
+        placeWaitingConnections();
+        if (connectionScheduler.isWaiting(device.getRawAddress())) {
+            logger.debug("No Bluetooth proxy with a free connection slot has heard device {}, waiting",
+                    device.getAddress());
+        }
+    }
 
-        @Override
-        public int compareTo(DeviceAndRSSI o) {
-            return Integer.compare(o.rssi, rssi);
+    /**
+     * Cancel a connection that is waiting for a free connection slot.
+     */
+    public void cancelConnection(ESPHomeBluetoothDevice device) {
+        connectionScheduler.cancel(device.getRawAddress());
+        unlinkDevice(device);
+    }
+
+    /**
+     * Queue a failed connection again, so that it is placed on the best proxy taking the error into account.
+     *
+     * @return true if the connection is retried, false if it has failed too many times
+     */
+    private boolean retryConnection(long address) {
+        @Nullable
+        ESPHomeBluetoothDevice device = connectedDevices.get(address);
+        if (device == null || !connectionScheduler.retry(address)) {
+            return false;
         }
+        logger.debug("Retrying connection to device {}", device.getAddress());
+        device.connectionFailed();
+        placeWaitingConnections();
+        return true;
+    }
+
+    private void placeWaitingConnections() {
+        Map<ThingUID, ESPHomeHandler> proxies = new HashMap<>();
+        espHomeHandlers.forEach(handler -> proxies.put(handler.getThing().getUID(), handler));
+        for (ProxyConnectionScheduler.Placement placement : connectionScheduler.placeWaiting(proxies.keySet(),
+                System.nanoTime())) {
+            @Nullable
+            ESPHomeBluetoothDevice device = connectedDevices.get(placement.address());
+            @Nullable
+            ESPHomeHandler handler = proxies.get(placement.proxy());
+            if (device != null && handler != null) {
+                logger.debug("Connecting to device {} via {}", device.getAddress(), placement.proxy());
+                device.connectVia(handler);
+            }
+        }
+    }
+
+    void linkDevice(ESPHomeBluetoothDevice espHomeBluetoothDevice) {
+        connectedDevices.put(espHomeBluetoothDevice.getRawAddress(), espHomeBluetoothDevice);
+    }
+
+    public void unlinkDevice(ESPHomeBluetoothDevice espHomeBluetoothDevice) {
+        connectedDevices.remove(espHomeBluetoothDevice.getRawAddress(), espHomeBluetoothDevice);
     }
 }
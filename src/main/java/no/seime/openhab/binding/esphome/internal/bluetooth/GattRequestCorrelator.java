@@ -0,0 +1,180 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Matches GATT responses from a proxy to the requests of a single device. Requests are keyed by characteristic handle
+ * and operation, and several requests may be in flight at the same time, also for the same handle, as the proxy
+ * answers requests for a handle in the order they were sent.
+ * <p>
+ * Every request fails after the timeout if no response arrives. Futures are completed on the callback executor, also
+ * when they time out, so that callbacks attached by the caller run neither on the packet processing thread nor on the
+ * scheduler thread.
+ */
+@NonNullByDefault
+public class GattRequestCorrelator {
+
+    public enum Operation {
+        READ,
+        WRITE,
+        NOTIFY
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Map<Long, Queue<PendingRequest>> pendingRequests = new HashMap<>();
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final long timeoutMillis;
+    private long sequence;
+
+    /**
+     * @param scheduler only used to trigger timeouts, the futures are still completed on the callback executor
+     */
+    public GattRequestCorrelator(Executor callbackExecutor, ScheduledExecutorService scheduler, long timeout,
+            TimeUnit unit) {
+        this.callbackExecutor = callbackExecutor;
+        this.scheduler = scheduler;
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Register a request before sending it, so that the response can not arrive first.
+     *
+     * @return future completed with the data of the response, empty for responses without data
+     */
+    public CompletableFuture<byte[]> register(int handle, Operation operation) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> timeOut(handle, operation, future), timeoutMillis,
+                TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            pendingRequests.computeIfAbsent(key(handle, operation), k -> new ArrayDeque<>())
+                    .add(new PendingRequest(handle, operation, sequence++, future, timeout));
+        }
+        return future;
+    }
+
+    /**
+     * Complete the oldest request for the handle and operation.
+     *
+     * @return false if no such request is pending, ie it has timed out
+     */
+    public boolean complete(int handle, Operation operation, byte[] data) {
+        @Nullable
+        PendingRequest request;
+        synchronized (this) {
+            Queue<PendingRequest> requests = pendingRequests.get(key(handle, operation));
+            request = requests == null ? null : requests.poll();
+        }
+        if (request == null) {
+            return false;
+        }
+        request.timeout().cancel(false);
+        CompletableFuture<byte[]> future = request.future();
+        callbackExecutor.execute(() -> future.complete(data));
+        return true;
+    }
+
+    /**
+     * Fail the oldest request for the handle, regardless of operation, as error responses do not tell which operation
+     * failed.
+     *
+     * @return false if no request is pending for the handle
+     */
+    public boolean fail(int handle, Throwable cause) {
+        @Nullable
+        PendingRequest oldest = null;
+        synchronized (this) {
+            @Nullable
+            Queue<PendingRequest> oldestQueue = null;
+            for (Operation operation : OPERATIONS) {
+                Queue<PendingRequest> requests = pendingRequests.get(key(handle, operation));
+                @Nullable
+                PendingRequest request = requests == null ? null : requests.peek();
+                if (request != null && (oldest == null || request.sequence() < oldest.sequence())) {
+                    oldest = request;
+                    oldestQueue = requests;
+                }
+            }
+            if (oldestQueue != null) {
+                oldestQueue.poll();
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        oldest.timeout().cancel(false);
+        CompletableFuture<byte[]> future = oldest.future();
+        callbackExecutor.execute(() -> future.completeExceptionally(cause));
+        return true;
+    }
+
+    /**
+     * Fail all pending requests, ie when the device disconnects.
+     */
+    public void failAll(Throwable cause) {
+        Queue<PendingRequest> failed = new ArrayDeque<>();
+        synchronized (this) {
+            pendingRequests.values().forEach(failed::addAll);
+            pendingRequests.clear();
+        }
+        failed.forEach(request -> request.timeout().cancel(false));
+        if (!failed.isEmpty()) {
+            callbackExecutor.execute(() -> failed.forEach(request -> request.future().completeExceptionally(cause)));
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingRequests.values().stream().mapToInt(Queue::size).sum();
+    }
+
+    private void timeOut(int handle, Operation operation, CompletableFuture<byte[]> future) {
+        if (remove(handle, operation, future)) {
+            callbackExecutor.execute(() -> future.completeExceptionally(
+                    new TimeoutException("No response to GATT " + operation + " of handle " + handle)));
+        }
+    }
+
+    /**
+     * @return false if the request is no longer pending, ie it was completed or failed
+     */
+    private synchronized boolean remove(int handle, Operation operation, CompletableFuture<byte[]> future) {
+        Queue<PendingRequest> requests = pendingRequests.get(key(handle, operation));
+        if (requests == null) {
+            return false;
+        }
+        boolean removed = false;
+        for (Iterator<PendingRequest> iterator = requests.iterator(); iterator.hasNext();) {
+            if (iterator.next().future() == future) {
+                iterator.remove();
+                removed = true;
+                break;
+            }
+        }
+        if (requests.isEmpty()) {
+            pendingRequests.remove(key(handle, operation));
+        }
+        return removed;
+    }
+
+    private static long key(int handle, Operation operation) {
+        return ((long) handle << 2) | operation.ordinal();
+    }
+
+    private record PendingRequest(int handle, Operation operation, long sequence, CompletableFuture<byte[]> future,
+            ScheduledFuture<?> timeout) {
+    }
+}
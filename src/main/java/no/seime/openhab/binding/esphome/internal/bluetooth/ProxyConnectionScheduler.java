@@ -0,0 +1,175 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.thing.ThingUID;
+
+/**
+ * Places BLE connections on the proxies, based on the connection slots each proxy reports as free.
+ * <p>
+ * Among the proxies that have heard the device recently and have a free slot, the one with the best score is picked.
+ * The score is the age adjusted signal strength, with a bonus per free slot and a penalty for recent connection
+ * errors, so a proxy with a slightly weaker signal is preferred over one that is nearly full or keeps failing. A slot
+ * is reserved when a connection is placed, until the proxy reports its free slots again.
+ * <p>
+ * Connections that can not be placed wait in a queue, and are placed in the order they were requested when slots free
+ * up. A connection that can not be placed does not hold back connections behind it that can. A connection that fails is
+ * queued again a limited number of times, and the error penalty makes another proxy preferred for the retry.
+ */
+@NonNullByDefault
+public class ProxyConnectionScheduler {
+
+    // Score bonus per free slot, in milli dB
+    private static final long FREE_SLOT_BONUS = 3000;
+    // Score penalty per recent connection error, in milli dB
+    private static final long ERROR_PENALTY = 10000;
+    // Connection errors count half after this time
+    private static final long ERROR_HALF_LIFE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Assumed free slots until a proxy has reported them
+    private static final int UNKNOWN_FREE_SLOTS = 1;
+    // Connection attempts per request, including the first
+    private static final int MAX_CONNECTION_ATTEMPTS = 3;
+
+    private final ProxySignalTable signals;
+    private final Map<ThingUID, ProxySlots> proxySlots = new HashMap<>();
+    private final LinkedHashSet<Long> waiting = new LinkedHashSet<>();
+    private final Map<Long, Integer> failedAttempts = new HashMap<>();
+
+    public ProxyConnectionScheduler(ProxySignalTable signals) {
+        this.signals = signals;
+    }
+
+    /**
+     * Update the free slots of a proxy, as reported by the proxy.
+     */
+    public synchronized void updateSlots(ThingUID proxy, int free) {
+        proxySlots.computeIfAbsent(proxy, k -> new ProxySlots()).free = free;
+    }
+
+    public synchronized void removeProxy(ThingUID proxy) {
+        proxySlots.remove(proxy);
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    public synchronized void recordConnectionError(ThingUID proxy, long nowNanos) {
+        ProxySlots slots = proxySlots.computeIfAbsent(proxy, k -> new ProxySlots());
+        slots.errors = slots.decayedErrors(nowNanos) + 1;
+        slots.errorsUpdatedNanos = nowNanos;
+    }
+
+    /**
+     * Queue a connection to the address. Call {@link #placeWaiting} to place it.
+     */
+    public synchronized void request(long address) {
+        waiting.add(address);
+    }
+
+    /**
+     * Remove a waiting connection, ie when the device is disconnected before it was placed.
+     */
+    public synchronized void cancel(long address) {
+        waiting.remove(address);
+        failedAttempts.remove(address);
+    }
+
+    /**
+     * Queue a connection again after the placed connection failed. Call {@link #placeWaiting} to place it.
+     *
+     * @return false if the connection has failed too many times and was not queued
+     */
+    public synchronized boolean retry(long address) {
+        int failed = failedAttempts.merge(address, 1, Integer::sum);
+        if (failed >= MAX_CONNECTION_ATTEMPTS) {
+            failedAttempts.remove(address);
+            return false;
+        }
+        waiting.add(address);
+        return true;
+    }
+
+    /**
+     * Forget the failed attempts of a connection once it is established.
+     */
+    public synchronized void connected(long address) {
+        failedAttempts.remove(address);
+    }
+
+    public synchronized boolean isWaiting(long address) {
+        return waiting.contains(address);
+    }
+
+    /**
+     * Place as many waiting connections as possible, in the order they were requested.
+     *
+     * @param proxies the proxies currently available
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return the connections placed, the slot on each proxy is reserved
+     */
+    public synchronized List<Placement> placeWaiting(Collection<ThingUID> proxies, long nowNanos) {
+        List<Placement> placements = new ArrayList<>();
+        for (Iterator<Long> iterator = waiting.iterator(); iterator.hasNext();) {
+            long address = iterator.next();
+            @Nullable
+            ThingUID proxy = selectProxy(address, proxies, nowNanos);
+            if (proxy != null) {
+                iterator.remove();
+                ProxySlots slots = proxySlots.computeIfAbsent(proxy, k -> new ProxySlots());
+                slots.free--;
+                placements.add(new Placement(address, proxy));
+            }
+        }
+        return placements;
+    }
+
+    private @Nullable ThingUID selectProxy(long address, Collection<ThingUID> proxies, long nowNanos) {
+        @Nullable
+        ThingUID best = null;
+        long bestScore = ProxySignalTable.NO_SIGNAL;
+        for (ThingUID proxy : proxies) {
+            long signal = signals.getSignalScore(address, proxy, nowNanos);
+            if (signal == ProxySignalTable.NO_SIGNAL) {
+                continue;
+            }
+            @Nullable
+            ProxySlots slots = proxySlots.get(proxy);
+            int free = slots == null ? UNKNOWN_FREE_SLOTS : slots.free;
+            if (free <= 0) {
+                continue;
+            }
+            double errors = slots == null ? 0 : slots.decayedErrors(nowNanos);
+            long score = signal + free * FREE_SLOT_BONUS - (long) (errors * ERROR_PENALTY);
+            if (best == null || score > bestScore) {
+                best = proxy;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public record Placement(long address, ThingUID proxy) {
+    }
+
+    private static class ProxySlots {
+        private int free = UNKNOWN_FREE_SLOTS;
+        private double errors;
+        private long errorsUpdatedNanos;
+
+        private double decayedErrors(long nowNanos) {
+            if (errors == 0) {
+                return 0;
+            }
+            return errors * Math.pow(0.5, (double) (nowNanos - errorsUpdatedNanos) / ERROR_HALF_LIFE_NANOS);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.thing.ThingUID;
+
+/**
+ * Last RSSI each proxy heard per BLE address, used to pick the nearest proxy when connecting to a device.
+ * <p>
+ * Every proxy gets a slot, and every address a fixed width row with the RSSI and monotonic timestamp per slot. Rows
+ * are kept densely in parallel primitive arrays, found through an open addressing index with linear probing keyed by
+ * the address, so recording a sighting neither boxes nor allocates once the row arrays have grown. Older sightings are
+ * penalized when picking the nearest proxy, and ignored once stale, so a proxy that heard the device strongly a while
+ * ago does not win over one hearing it now. When the table is full, addresses no proxy has heard recently are swept
+ * out, or the least recently seen address if all are recent.
+ */
+@NonNullByDefault
+public class ProxySignalTable {
+
+    static final int MAX_PROXIES = 32;
+    static final int DEFAULT_MAX_ADDRESSES = 2048;
+    static final long STALE_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // Penalty for the age of a sighting, ie a sighting 10 seconds old counts as 20 dB weaker
+    private static final int DECAY_DB_PER_SECOND = 2;
+    private static final long NEVER = Long.MIN_VALUE;
+    public static final long NO_SIGNAL = Long.MIN_VALUE;
+    private static final int INITIAL_ROWS = 64;
+    private static final int EMPTY = -1;
+
+    private final @Nullable ThingUID[] proxies = new ThingUID[MAX_PROXIES];
+    private final int maxAddresses;
+
+    // Index from address to row, EMPTY where unused
+    private final long[] indexAddresses;
+    private final int[] indexRows;
+
+    // Row per address, with the time of the latest sighting and the RSSI and time per proxy slot at row * MAX_PROXIES
+    private long[] rowAddresses;
+    private long[] rowSeenNanos;
+    private int[] rssi;
+    private long[] seenNanos;
+    private int rows;
+
+    public ProxySignalTable() {
+        this(DEFAULT_MAX_ADDRESSES);
+    }
+
+    ProxySignalTable(int maxAddresses) {
+        this.maxAddresses = maxAddresses;
+        int indexCapacity = Integer.highestOneBit(Math.max(maxAddresses, 1) * 2 - 1) << 1;
+        indexAddresses = new long[indexCapacity];
+        indexRows = new int[indexCapacity];
+        Arrays.fill(indexRows, EMPTY);
+        int capacity = Math.min(maxAddresses, INITIAL_ROWS);
+        rowAddresses = new long[capacity];
+        rowSeenNanos = new long[capacity];
+        rssi = new int[capacity * MAX_PROXIES];
+        seenNanos = new long[capacity * MAX_PROXIES];
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return false if all proxy slots are taken and the sighting is ignored
+     */
+    public synchronized boolean update(long address, ThingUID proxy, int rssi, long nowNanos) {
+        int slot = slotOf(proxy);
+        if (slot < 0) {
+            return false;
+        }
+        int row = rowOf(address);
+        if (row < 0) {
+            row = addRow(address, nowNanos);
+        }
+        this.rssi[row * MAX_PROXIES + slot] = rssi;
+        seenNanos[row * MAX_PROXIES + slot] = nowNanos;
+        rowSeenNanos[row] = nowNanos;
+        return true;
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return the proxy with the strongest age adjusted signal, null if no proxy has heard the address recently
+     */
+    public synchronized @Nullable ThingUID getNearestProxy(long address, long nowNanos) {
+        int row = rowOf(address);
+        if (row < 0) {
+            return null;
+        }
+        int nearest = -1;
+        long bestScore = NO_SIGNAL;
+        for (int slot = 0; slot < MAX_PROXIES; slot++) {
+            long score = score(row, slot, nowNanos);
+            if (score > bestScore) {
+                bestScore = score;
+                nearest = slot;
+            }
+        }
+        return nearest < 0 ? null : proxies[nearest];
+    }
+
+    /**
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return age adjusted signal strength in milli dB, or {@link #NO_SIGNAL} if the proxy has not heard the address
+     *         recently
+     */
+    public synchronized long getSignalScore(long address, ThingUID proxy, long nowNanos) {
+        int row = rowOf(address);
+        if (row < 0) {
+            return NO_SIGNAL;
+        }
+        for (int slot = 0; slot < MAX_PROXIES; slot++) {
+            if (proxy.equals(proxies[slot])) {
+                return score(row, slot, nowNanos);
+            }
+        }
+        return NO_SIGNAL;
+    }
+
+    private long score(int row, int slot, long nowNanos) {
+        long seen = seenNanos[row * MAX_PROXIES + slot];
+        long age = nowNanos - seen;
+        if (proxies[slot] == null || seen == NEVER || age >= STALE_NANOS) {
+            return NO_SIGNAL;
+        }
+        return rssi[row * MAX_PROXIES + slot] * 1000L - TimeUnit.NANOSECONDS.toMillis(age) * DECAY_DB_PER_SECOND;
+    }
+
+    /**
+     * Free the slot of a proxy that is no longer in use, forgetting what it has heard.
+     */
+    public synchronized void removeProxy(ThingUID proxy) {
+        for (int slot = 0; slot < MAX_PROXIES; slot++) {
+            if (proxy.equals(proxies[slot])) {
+                proxies[slot] = null;
+                for (int row = 0; row < rows; row++) {
+                    seenNanos[row * MAX_PROXIES + slot] = NEVER;
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return rows;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(proxies, null);
+        Arrays.fill(indexRows, EMPTY);
+        rows = 0;
+    }
+
+    private int slotOf(ThingUID proxy) {
+        int free = -1;
+        for (int slot = 0; slot < MAX_PROXIES; slot++) {
+            ThingUID slotProxy = proxies[slot];
+            if (slotProxy == null) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (slotProxy.equals(proxy)) {
+                return slot;
+            }
+        }
+        if (free >= 0) {
+            proxies[free] = proxy;
+        }
+        return free;
+    }
+
+    /**
+     * @return row of the address, or -1 if the address is not in the table
+     */
+    private int rowOf(long address) {
+        int index = indexOf(address);
+        return indexRows[index];
+    }
+
+    /**
+     * @return index slot holding the address, or the empty slot where it should be inserted
+     */
+    private int indexOf(long address) {
+        int mask = indexAddresses.length - 1;
+        int index = spread(address) & mask;
+        while (indexRows[index] != EMPTY && indexAddresses[index] != address) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int spread(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int addRow(long address, long nowNanos) {
+        if (rows == maxAddresses) {
+            makeRoom(nowNanos);
+        } else if (rows == rowAddresses.length) {
+            int capacity = Math.min(rows * 2, maxAddresses);
+            rowAddresses = Arrays.copyOf(rowAddresses, capacity);
+            rowSeenNanos = Arrays.copyOf(rowSeenNanos, capacity);
+            rssi = Arrays.copyOf(rssi, capacity * MAX_PROXIES);
+            seenNanos = Arrays.copyOf(seenNanos, capacity * MAX_PROXIES);
+        }
+        int row = rows++;
+        rowAddresses[row] = address;
+        Arrays.fill(seenNanos, row * MAX_PROXIES, (row + 1) * MAX_PROXIES, NEVER);
+        int index = indexOf(address);
+        indexAddresses[index] = address;
+        indexRows[index] = row;
+        return row;
+    }
+
+    /**
+     * Sweep out the addresses no proxy has heard recently, or the least recently seen address if there are none.
+     */
+    private void makeRoom(long nowNanos) {
+        int full = rows;
+        // Backwards, as removing a row moves the last row into its place
+        for (int row = rows - 1; row >= 0; row--) {
+            if (nowNanos - rowSeenNanos[row] >= STALE_NANOS) {
+                removeRow(row);
+            }
+        }
+        if (rows < full) {
+            return;
+        }
+        int oldest = 0;
+        for (int row = 1; row < rows; row++) {
+            if (rowSeenNanos[row] - rowSeenNanos[oldest] < 0) {
+                oldest = row;
+            }
+        }
+        removeRow(oldest);
+    }
+
+    private void removeRow(int row) {
+        removeFromIndex(indexOf(rowAddresses[row]));
+        int last = --rows;
+        if (row != last) {
+            rowAddresses[row] = rowAddresses[last];
+            rowSeenNanos[row] = rowSeenNanos[last];
+            System.arraycopy(rssi, last * MAX_PROXIES, rssi, row * MAX_PROXIES, MAX_PROXIES);
+            System.arraycopy(seenNanos, last * MAX_PROXIES, seenNanos, row * MAX_PROXIES, MAX_PROXIES);
+            indexRows[indexOf(rowAddresses[row])] = row;
+        }
+    }
+
+    /**
+     * Empty the index slot, moving back later entries of the probe sequence so that lookups still find them.
+     */
+    private void removeFromIndex(int index) {
+        int mask = indexAddresses.length - 1;
+        int hole = index;
+        for (int next = (hole + 1) & mask; indexRows[next] != EMPTY; next = (next + 1) & mask) {
+            int home = spread(indexAddresses[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                indexAddresses[hole] = indexAddresses[next];
+                indexRows[hole] = indexRows[next];
+                hole = next;
+            }
+        }
+        indexRows[hole] = EMPTY;
+    }
+}
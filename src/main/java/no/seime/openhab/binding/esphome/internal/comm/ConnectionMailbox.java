@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the tasks of a single connection one at a time on a shared executor. Any thread may add tasks, and at most
+ * one worker drains the mailbox at a time. The worker is claimed by flipping the scheduled flag, so there is no
+ * lock shared between connections, and a burst of packets is processed with a single hand-off to the executor.
+ * <p>
+ * A worker runs at most {@code batchSize} tasks before handing the mailbox back to the executor, so that a busy
+ * connection does not hold on to a worker while other connections are waiting.
+ * <p>
+ * Tasks are queued per {@link PacketLane} and run in submission order within a lane, but the next task is always taken
+ * from the highest priority lane. Only sheddable lanes are bounded by their capacity, and they are also shed while a
+ * higher priority lane is more than half full. Other lanes never drop a task.
+ * <p>
+ * Tasks added with {@link #executeFirst(Runnable)} run before any lane task, in submission order. Received frames are
+ * decoded there, in order and off the receiving thread, and the decoded messages are then added to their lanes.
+ */
+public class ConnectionMailbox implements Runnable {
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    private static final PacketLane[] LANES = PacketLane.values();
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectionMailbox.class);
+
+    private final Queue<Runnable>[] lanes;
+    // ConcurrentLinkedQueue.size() is not constant time
+    private final AtomicInteger[] laneSizes;
+    private final Queue<Runnable> firstTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger firstTasksSize = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Executor executor;
+    private final int batchSize;
+    private final String logPrefix;
+
+    public ConnectionMailbox(Executor executor, String logPrefix) {
+        this(executor, DEFAULT_BATCH_SIZE, logPrefix);
+    }
+
+    public ConnectionMailbox(Executor executor, int batchSize, String logPrefix) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.logPrefix = logPrefix;
+        @SuppressWarnings("unchecked")
+        Queue<Runnable>[] queues = new Queue[LANES.length];
+        lanes = queues;
+        laneSizes = new AtomicInteger[LANES.length];
+        for (int i = 0; i < LANES.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+            laneSizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Add a task to a lane, and schedule the mailbox unless a worker is already draining it.
+     *
+     * @return false if the task was shed because the lane is sheddable and full, or a higher priority lane is backed up
+     * @throws RejectedExecutionException if the executor rejects the mailbox. The task stays queued and runs with the
+     *             next accepted one.
+     */
+    public boolean execute(PacketLane lane, Runnable task) {
+        int index = lane.ordinal();
+        if (lane.isSheddable()) {
+            for (int i = 0; i < index; i++) {
+                if (laneSizes[i].get() > LANES[i].getCapacity() / 2) {
+                    return false;
+                }
+            }
+            if (laneSizes[index].incrementAndGet() > lane.getCapacity()) {
+                laneSizes[index].decrementAndGet();
+                return false;
+            }
+        } else {
+            laneSizes[index].incrementAndGet();
+        }
+        lanes[index].offer(task);
+        scheduleIfNeeded();
+        return true;
+    }
+
+    /**
+     * Add a task that runs before any lane task, in submission order. These tasks are never shed.
+     *
+     * @throws RejectedExecutionException if the executor rejects the mailbox. The task stays queued and runs with the
+     *             next accepted one.
+     */
+    public void executeFirst(Runnable task) {
+        firstTasksSize.incrementAndGet();
+        firstTasks.offer(task);
+        scheduleIfNeeded();
+    }
+
+    private void scheduleIfNeeded() {
+        if (size() > 0 && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drain up to one batch of tasks. Only called by the executor.
+     */
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < batchSize; i++) {
+                Runnable task = poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("[{}] Error processing task", logPrefix, e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // Tasks added after the last poll, or left over when the batch is full
+            try {
+                scheduleIfNeeded();
+            } catch (RejectedExecutionException e) {
+                logger.warn("[{}] Executor rejected {} queued tasks: {}", logPrefix, size(), e.getMessage());
+            }
+        }
+    }
+
+    private Runnable poll() {
+        Runnable first = firstTasks.poll();
+        if (first != null) {
+            firstTasksSize.decrementAndGet();
+            return first;
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            Runnable task = lanes[i].poll();
+            if (task != null) {
+                laneSizes[i].decrementAndGet();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of tasks waiting to run
+     */
+    public int size() {
+        int size = firstTasksSize.get();
+        for (AtomicInteger laneSize : laneSizes) {
+            size += laneSize.get();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of tasks waiting to run in the lane
+     */
+    public int size(PacketLane lane) {
+        return laneSizes[lane.ordinal()].get();
+    }
+}
@@ -55,18 +55,17 @@ public class ConnectionSelector {
     }
 
     private void processKey(SelectionKey key) {
-        EncryptedFrameHelper frameHelper = (EncryptedFrameHelper) key.attachment();
+        FrameHelper frameHelper = (FrameHelper) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
         try {
             logger.trace("Processing key readable={}, connectable={}", key.isReadable(), key.isConnectable());
-            SocketChannel channel = (SocketChannel) key.channel();
             if (key.isConnectable() && channel.isConnectionPending()) {
                 boolean connected = channel.finishConnect();
                 if (connected) {
-                    key.interestOps(SelectionKey.OP_READ);
-                    frameHelper.onConnected();
+                    channelConnected(key, frameHelper, channel);
                 }
             } else if (key.isWritable()) {
-                frameHelper.onConnected();
+                channelConnected(key, frameHelper, channel);
             } else if (key.isReadable()) {
                 ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
                 int read = channel.read(buffer);
@@ -86,13 +85,27 @@ public class ConnectionSelector {
             }
         } catch (IOException | CancelledKeyException e) {
             logger.debug("Socket exception", e);
-            frameHelper.endOfStream(e.getMessage());
+            if (frameHelper.getConnection().onChannelFailed(channel, e.getMessage())) {
+                frameHelper.endOfStream(e.getMessage());
+            }
         } catch (Exception e) {
             logger.warn("Error processing key", e);
         }
     }
 
-    private void processReceivedData(EncryptedFrameHelper frameHelper, ByteBuffer buffer, SocketChannel channel)
+    private void channelConnected(SelectionKey key, FrameHelper frameHelper, SocketChannel channel)
+            throws IOException, ProtocolException {
+        if (frameHelper.getConnection().onChannelConnected(channel)) {
+            key.interestOps(SelectionKey.OP_READ);
+            frameHelper.onConnected();
+        } else {
+            // Lost the race against a connection attempt to another address of the same device
+            key.cancel();
+            channel.close();
+        }
+    }
+
+    private void processReceivedData(FrameHelper frameHelper, ByteBuffer buffer, SocketChannel channel)
             throws IOException {
         try {
             logger.trace("Received data");
@@ -116,7 +129,7 @@ public class ConnectionSelector {
         }
     }
 
-    public void register(SocketChannel socketChannel, EncryptedFrameHelper frameHelper) {
+    public void register(SocketChannel socketChannel, FrameHelper frameHelper) {
         try {
             SelectionKey key = socketChannel.register(selector,
                     SelectionKey.OP_CONNECT | SelectionKey.OP_READ | SelectionKey.OP_WRITE);
@@ -16,19 +16,33 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * TCP connection to a single device. A connection may be attempted to several candidate addresses in parallel (ie the
+ * last known address, mDNS and DNS results for both IPv4 and IPv6). The first socket to complete the TCP connect wins,
+ * all other pending sockets are closed.
+ */
 public class ESPHomeConnection {
 
     private final Logger logger = LoggerFactory.getLogger(ESPHomeConnection.class);
-    private final EncryptedFrameHelper frameHelper;
+    private final FrameHelper frameHelper;
     private final ConnectionSelector connectionSelector;
     private final String logPrefix;
     private SocketChannel socketChannel;
+    private InetSocketAddress remoteAddress;
+    private final Map<SocketChannel, InetSocketAddress> pendingChannels = new LinkedHashMap<>();
+    private final Set<InetSocketAddress> attemptedAddresses = new HashSet<>();
+    private boolean candidatesComplete;
+    private boolean closed;
 
-    public ESPHomeConnection(ConnectionSelector connectionSelector, EncryptedFrameHelper frameHelper,
+    public ESPHomeConnection(ConnectionSelector connectionSelector, FrameHelper frameHelper,
             String logPrefix) {
         this.frameHelper = frameHelper;
         this.connectionSelector = connectionSelector;
@@ -52,22 +66,103 @@ public class ESPHomeConnection {
     }
 
     public void connect(String hostname, int port) throws ProtocolAPIError {
+        connect(new InetSocketAddress(hostname, port));
+        candidatesComplete();
+    }
+
+    /**
+     * Start a connection attempt to an additional candidate address. Does nothing if the address has already been
+     * attempted or a connection is already established.
+     */
+    public synchronized void connect(InetSocketAddress address) throws ProtocolAPIError {
+        if (closed || socketChannel != null || !attemptedAddresses.add(address)) {
+            return;
+        }
+        SocketChannel channel = null;
         try {
-            logger.info("[{}] Opening socket to {} at port {}.", logPrefix, hostname, port);
+            logger.info("[{}] Opening socket to {} at port {}.", logPrefix, address.getHostString(),
+                    address.getPort());
 
-            socketChannel = SocketChannel.open();
-            socketChannel.configureBlocking(false);
-            InetSocketAddress espHomeAddress = new InetSocketAddress(hostname, port);
-            socketChannel.connect(espHomeAddress);
-            connectionSelector.register(socketChannel, frameHelper);
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            pendingChannels.put(channel, address);
+            connectionSelector.register(channel, frameHelper);
 
         } catch (Exception e) {
-            throw new ProtocolAPIError("Failed to connect to '" + hostname + "' port " + port, e);
+            if (channel != null) {
+                pendingChannels.remove(channel);
+                closeQuietly(channel);
+            }
+            throw new ProtocolAPIError(
+                    "Failed to connect to '" + address.getHostString() + "' port " + address.getPort(), e);
+        }
+    }
+
+    /**
+     * Signal that no more candidate addresses will be added.
+     *
+     * @throws ProtocolAPIError if all attempts have already failed
+     */
+    public synchronized void candidatesComplete() throws ProtocolAPIError {
+        candidatesComplete = true;
+        if (!closed && socketChannel == null && pendingChannels.isEmpty()) {
+            throw new ProtocolAPIError("Failed to connect to any of " + attemptedAddresses);
+        }
+    }
+
+    /**
+     * Called by the selector when the TCP connect of a channel completed.
+     *
+     * @return true if the channel won the race and should be used, false if it should be closed
+     */
+    synchronized boolean onChannelConnected(SocketChannel channel) {
+        InetSocketAddress address = pendingChannels.remove(channel);
+        if (closed || socketChannel != null || address == null) {
+            return false;
         }
+        socketChannel = channel;
+        remoteAddress = address;
+        for (SocketChannel loser : pendingChannels.keySet()) {
+            logger.debug("[{}] Cancelling connection attempt to {}", logPrefix, pendingChannels.get(loser));
+            connectionSelector.unregister(loser);
+        }
+        pendingChannels.clear();
+        logger.debug("[{}] Connected to {}", logPrefix, address);
+        return true;
+    }
+
+    /**
+     * Called by the selector when a channel failed.
+     *
+     * @return true if the failure ends the connection, false if other attempts are still pending
+     */
+    synchronized boolean onChannelFailed(SocketChannel channel, String message) {
+        InetSocketAddress address = pendingChannels.remove(channel);
+        if (address == null) {
+            return channel == socketChannel;
+        }
+        closeQuietly(channel);
+        logger.debug("[{}] Connection attempt to {} failed: {}", logPrefix, address, message);
+        return !closed && socketChannel == null && pendingChannels.isEmpty() && candidatesComplete;
+    }
+
+    /**
+     * @return IP address of the established connection, or null if not connected
+     */
+    public synchronized String getRemoteIpAddress() {
+        return remoteAddress != null && remoteAddress.getAddress() != null
+                ? remoteAddress.getAddress().getHostAddress()
+                : null;
     }
 
     public synchronized void close() {
         logger.info("[{}] Disconnecting socket.", logPrefix);
+        closed = true;
+        for (SocketChannel channel : pendingChannels.keySet()) {
+            connectionSelector.unregister(channel);
+        }
+        pendingChannels.clear();
         try {
             if (socketChannel != null) {
                 connectionSelector.unregister(socketChannel);
@@ -78,4 +173,12 @@ public class ESPHomeConnection {
             logger.debug("[{}] Error closing connection", logPrefix, e);
         }
     }
+
+    private void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("[{}] Error closing channel", logPrefix, e);
+        }
+    }
 }
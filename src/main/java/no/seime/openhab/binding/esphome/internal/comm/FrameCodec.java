@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.GeneratedMessage;
+
+/**
+ * Wire format of the ESPHome native API. The {@link FrameHelper} does the buffering, frame splitting, dispatching to
+ * the packet processor and sending, the codec knows how frames are delimited, how messages are encoded in them and
+ * whether a handshake is needed before messages can be exchanged.
+ * <p>
+ * Codecs hold per connection state and are not reused across connections.
+ */
+public interface FrameCodec {
+
+    /**
+     * Returned by {@link #readHeader(FrameHelper, ByteBuffer)} when the buffer does not hold a complete header yet.
+     */
+    int INCOMPLETE = -1;
+
+    /**
+     * Returned by {@link #readHeader(FrameHelper, ByteBuffer)} when the header is invalid. The codec has already
+     * reported the error to the frame helper, and no more data is read from the connection.
+     */
+    int INVALID = -2;
+
+    /**
+     * Called on the selector thread when the socket is connected. Codecs that do not need a handshake call
+     * {@link FrameHelper#onReady()} right away.
+     */
+    void onConnected(FrameHelper frameHelper) throws ProtocolException;
+
+    /**
+     * Read a frame header at the position of the buffer, which is in read mode.
+     *
+     * @return length of the frame body following the header, with the buffer positioned after the header.
+     *         {@link #INCOMPLETE} or {@link #INVALID}, in which case the buffer position is unspecified
+     */
+    int readHeader(FrameHelper frameHelper, ByteBuffer buffer) throws ProtocolException;
+
+    /**
+     * @return whether the handshake, if any, is completed and frames carry messages
+     */
+    boolean isReady();
+
+    /**
+     * Handle a handshake frame on the selector thread. Only called while the codec is not ready.
+     */
+    void onHandshakeFrame(FrameHelper frameHelper, byte[] body) throws ProtocolException;
+
+    /**
+     * Decode a message frame on the packet processor thread and pass the message on with
+     * {@link FrameHelper#decodeProtoMessage(int, byte[], int, int)}. Frames of a connection are decoded in the order
+     * they were received. The body is owned by the codec and may be modified.
+     */
+    void decodeMessage(FrameHelper frameHelper, byte[] body) throws Exception;
+
+    /**
+     * @return upper bound of the encoded frame length of a message with the given serialized size
+     */
+    int maxFrameLength(int messageSize);
+
+    /**
+     * Encode a message into a frame at the start of the buffer, which is at least {@link #maxFrameLength(int)} long.
+     * Calls are serialized by the frame helper in the order frames are sent.
+     *
+     * @return length of the frame
+     */
+    int encodeFrame(GeneratedMessage message, int messageType, int messageSize, byte[] buffer) throws ProtocolAPIError;
+}
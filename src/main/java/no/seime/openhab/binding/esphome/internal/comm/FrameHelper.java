@@ -0,0 +1,293 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import static no.seime.openhab.binding.esphome.internal.comm.ConnectionSelector.READ_BUFFER_SIZE;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Parser;
+
+import io.esphome.api.ApiOptions;
+import no.seime.openhab.binding.esphome.internal.CommunicationListener;
+
+/**
+ * Buffers data received from the device, splits it into frames and hands them to the packet processor, and encodes and
+ * sends messages. The wire format, and the handshake if any, is implemented by a {@link FrameCodec}.
+ */
+public class FrameHelper {
+    public static final int PROTOCOL_PLAINTEXT = 0x00;
+    public static final int PROTOCOL_ENCRYPTED = 0x01;
+    private static final int INITIAL_SEND_BUFFER_SIZE = 512;
+    private static final MessageTypeToClassConverter MESSAGE_TYPE_TO_CLASS_CONVERTER =
+            new MessageTypeToClassConverter();
+    protected final Logger logger = LoggerFactory.getLogger(FrameHelper.class);
+    private final FrameCodec codec;
+    private final ConnectionMailbox packetProcessor;
+    protected CommunicationListener listener;
+    protected ByteBuffer internalBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE * 2);
+    protected ESPHomeConnection connection;
+    protected String logPrefix;
+    private volatile long lastFrameReceivedNanos = System.nanoTime();
+    private boolean invalidFrameReceived;
+    // Messages dropped per lane since processing fell behind, only updated by the packet processor
+    private final int[] shedMessages = new int[PacketLane.values().length];
+    // Reused for every outgoing frame, guarded by sendLock
+    private final Object sendLock = new Object();
+    private byte[] sendBuffer = new byte[INITIAL_SEND_BUFFER_SIZE];
+    private ByteBuffer sendByteBuffer = ByteBuffer.wrap(sendBuffer);
+
+    public FrameHelper(ConnectionSelector connectionSelector, CommunicationListener listener, FrameCodec codec,
+            String logPrefix, Executor packetExecutor) {
+        this.logPrefix = logPrefix;
+        this.listener = listener;
+        this.codec = codec;
+        this.packetProcessor = new ConnectionMailbox(packetExecutor, logPrefix);
+
+        connection = new ESPHomeConnection(connectionSelector, this, logPrefix);
+    }
+
+    public void connect(String hostname, int port) throws ProtocolException {
+        connection.connect(hostname, port);
+    }
+
+    /**
+     * Race a connection attempt to an additional address, see {@link ESPHomeConnection}.
+     */
+    public void connect(InetSocketAddress address) throws ProtocolException {
+        connection.connect(address);
+    }
+
+    public void candidatesComplete() throws ProtocolException {
+        connection.candidatesComplete();
+    }
+
+    public @Nullable String getRemoteIpAddress() {
+        return connection.getRemoteIpAddress();
+    }
+
+    ESPHomeConnection getConnection() {
+        return connection;
+    }
+
+    String getLogPrefix() {
+        return logPrefix;
+    }
+
+    public void onConnected() throws ProtocolException {
+        codec.onConnected(this);
+    }
+
+    /**
+     * Called by the codec when messages can be exchanged.
+     */
+    void onReady() {
+        packetProcessor.execute(PacketLane.CONTROL, () -> {
+            try {
+                listener.onConnect();
+            } catch (Exception e) {
+                listener.onParseError(CommunicationError.PACKET_ERROR);
+            }
+        });
+    }
+
+    /**
+     * Send a frame encoded by the codec, ie a handshake frame.
+     */
+    void sendFrame(ByteBuffer frame) throws ProtocolAPIError {
+        synchronized (sendLock) {
+            connection.send(frame);
+        }
+    }
+
+    private void handleReady(final byte[] packetData) {
+        // Decrypted in order by the packet processor, ahead of the lanes, so that the selector thread only reads and
+        // splits frames. The decoded message is then parsed in the lane of its message type.
+        try {
+            packetProcessor.executeFirst(() -> {
+                try {
+                    codec.decodeMessage(this, packetData);
+                } catch (Exception e) {
+                    listener.onParseError(CommunicationError.PACKET_ERROR);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("[{}] Packet processor rejected frame: {}", logPrefix, e.getMessage());
+            listener.onParseError(CommunicationError.PACKET_ERROR);
+        }
+    }
+
+    /**
+     * Encode a message into a new buffer. Used when the frame is not sent by this helper, see
+     * {@link #send(GeneratedMessage)} for the regular send path.
+     */
+    public ByteBuffer encodeFrame(GeneratedMessage message) throws ProtocolAPIError {
+        int messageSize = message.getSerializedSize();
+        synchronized (sendLock) {
+            byte[] buffer = new byte[codec.maxFrameLength(messageSize)];
+            return ByteBuffer.wrap(buffer, 0, codec.encodeFrame(message, messageType(message), messageSize, buffer));
+        }
+    }
+
+    private static int messageType(GeneratedMessage message) {
+        return message.getDescriptorForType().getOptions().getExtension(ApiOptions.id);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last complete frame received from the device. Any inbound frame counts
+     *         as proof that the link is alive. Initialized to the creation time of this helper.
+     */
+    public long getLastFrameReceivedNanos() {
+        return lastFrameReceivedNanos;
+    }
+
+    public void setPacketListener(CommunicationListener listener) {
+        this.listener = listener;
+    }
+
+    public void close() {
+        connection.close();
+    }
+
+    protected void processBuffer() throws ProtocolException {
+        internalBuffer.flip(); // Prepare for reading
+        try {
+            while (internalBuffer.hasRemaining()) {
+                int frameStart = internalBuffer.position();
+                int frameLength = invalidFrameReceived ? FrameCodec.INVALID : codec.readHeader(this, internalBuffer);
+                if (frameLength == FrameCodec.INVALID) {
+                    // Error is reported by the codec, discard anything after it
+                    invalidFrameReceived = true;
+                    internalBuffer.position(internalBuffer.limit());
+                } else if (frameLength == FrameCodec.INCOMPLETE || internalBuffer.remaining() < frameLength) {
+                    // Wait for more data
+                    internalBuffer.position(frameStart);
+                    break;
+                } else {
+                    byte[] packetData = new byte[frameLength];
+                    internalBuffer.get(packetData);
+                    lastFrameReceivedNanos = System.nanoTime();
+                    if (codec.isReady()) {
+                        handleReady(packetData);
+                    } else {
+                        codec.onHandshakeFrame(this, packetData);
+                    }
+                }
+            }
+        } finally {
+            // Keep any partial frame and prepare the buffer for writing
+            internalBuffer.compact();
+        }
+    }
+
+    protected void decodeProtoMessage(int messageType, byte[] bytes, int offset, int length) {
+        if (logger.isTraceEnabled()) {
+            // Same format as before messages were parsed from a slice, recorded logs are replayed by tests
+            logger.trace("[{}] Received packet of type {} with data {}", logPrefix, messageType,
+                    Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+
+        Parser<? extends GeneratedMessage> parser = MESSAGE_TYPE_TO_CLASS_CONVERTER.getParser(messageType);
+        if (parser == null) {
+            return;
+        }
+        PacketLane lane = PacketLane.forMessageType(messageType);
+        boolean accepted = packetProcessor.execute(lane, () -> {
+            try {
+                GeneratedMessage invoke = parser.parseFrom(bytes, offset, length);
+                if (invoke != null) {
+                    listener.onPacket(invoke);
+                } else {
+                    logger.warn("[{}] Received null packet of type {}", logPrefix, messageType);
+                }
+            } catch (Exception e) {
+                logger.warn("[{}] Error parsing packet", logPrefix, e);
+                listener.onParseError(CommunicationError.PACKET_ERROR);
+            }
+        });
+        recordShedding(lane, accepted);
+    }
+
+    private void recordShedding(PacketLane lane, boolean accepted) {
+        int index = lane.ordinal();
+        if (accepted) {
+            if (shedMessages[index] > 0) {
+                logger.info("[{}] Processing caught up, {} {} messages were dropped", logPrefix, shedMessages[index],
+                        lane);
+                shedMessages[index] = 0;
+            }
+        } else if (shedMessages[index]++ == 0) {
+            if (lane == PacketLane.BULK) {
+                // Expected under load, BLE advertisements and logs are dropped before anything else
+                logger.debug("[{}] Processing is falling behind, dropping {} messages", logPrefix, lane);
+            } else {
+                logger.warn("[{}] Processing is falling behind, dropping {} messages", logPrefix, lane);
+            }
+        }
+    }
+
+    public void processReceivedData(ByteBuffer newDataBuffer) throws ProtocolException, IOException {
+        // Copy new data into buffer
+        newDataBuffer.flip();
+        internalBuffer.put(newDataBuffer);
+        processBuffer();
+    }
+
+    public void endOfStream(String message) {
+        listener.onEndOfStream(message);
+    }
+
+    public void onParseError(CommunicationError error) {
+        listener.onParseError(error);
+    }
+
+    public void send(GeneratedMessage message) throws ProtocolAPIError {
+        if (logger.isDebugEnabled()) {
+            // ToString method costs a bit
+            logger.debug("[{}] Sending message type {} with content '{}'", logPrefix,
+                    message.getClass().getSimpleName(), StringUtils.trimToEmpty(message.toString()));
+        }
+        try {
+            if (connection != null) {
+                int messageSize = message.getSerializedSize();
+                int messageType = messageType(message);
+                synchronized (sendLock) {
+                    int frameLength = codec.maxFrameLength(messageSize);
+                    if (sendBuffer.length < frameLength) {
+                        sendBuffer = new byte[Math.max(frameLength, sendBuffer.length * 2)];
+                        sendByteBuffer = ByteBuffer.wrap(sendBuffer);
+                    }
+                    sendByteBuffer.clear();
+                    sendByteBuffer.limit(codec.encodeFrame(message, messageType, messageSize, sendBuffer));
+                    connection.send(sendByteBuffer);
+                }
+            } else {
+                logger.debug("Connection is null, cannot send message");
+            }
+        } catch (ProtocolAPIError e) {
+            logger.warn("Error sending message", e);
+        }
+    }
+
+}
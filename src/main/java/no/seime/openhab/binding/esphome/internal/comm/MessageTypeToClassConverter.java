@@ -5,12 +5,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.google.protobuf.GeneratedMessage;
+import com.google.protobuf.Parser;
 
 import io.esphome.api.Api;
 
 public class MessageTypeToClassConverter {
 
     private final Map<Integer, Method> messageTypeToMessageClass = new HashMap<>();
+    private final Map<Integer, Parser<? extends GeneratedMessage>> messageTypeToParser = new HashMap<>();
 
     public MessageTypeToClassConverter() {
         Api.getDescriptor().getMessageTypes().forEach(messageDescriptor -> {
@@ -20,10 +22,14 @@ public class MessageTypeToClassConverter {
                     Class<? extends GeneratedMessage> subclass = Class.forName(messageDescriptor.getFullName())
                             .asSubclass(GeneratedMessage.class);
                     Method parseMethod = subclass.getDeclaredMethod("parseFrom", byte[].class);
+                    @SuppressWarnings("unchecked")
+                    Parser<? extends GeneratedMessage> parser = (Parser<? extends GeneratedMessage>) subclass
+                            .getDeclaredMethod("parser").invoke(null);
 
                     messageTypeToMessageClass.put(id, parseMethod);
+                    messageTypeToParser.put(id, parser);
                 }
-            } catch (ClassNotFoundException | NoSuchMethodException e) {
+            } catch (ReflectiveOperationException e) {
                 throw new RuntimeException(e);
             }
         });
@@ -32,4 +38,11 @@ public class MessageTypeToClassConverter {
     public Method getMethod(int id) {
         return messageTypeToMessageClass.get(id);
     }
+
+    /**
+     * @return parser for the message type, which unlike {@link #getMethod(int)} can parse a slice of an array
+     */
+    public Parser<? extends GeneratedMessage> getParser(int id) {
+        return messageTypeToParser.get(id);
+    }
 }
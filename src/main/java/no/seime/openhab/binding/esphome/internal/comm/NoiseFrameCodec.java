@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.ShortBufferException;
+
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.GeneratedMessage;
+import com.southernstorm.noise.protocol.CipherStatePair;
+import com.southernstorm.noise.protocol.HandshakeState;
+import com.southernstorm.noise.protocol.HandshakeTemplate;
+
+/**
+ * Encrypted ESPHome API frames. Frames are a 0x01 preamble and a 16 bit big endian length, followed by the encrypted
+ * message type, message length and message. Messages are exchanged after a Noise_NNpsk0_25519_ChaChaPoly_SHA256
+ * handshake.
+ */
+public class NoiseFrameCodec implements FrameCodec {
+
+    private final static String NOISE_PROTOCOL = "Noise_NNpsk0_25519_ChaChaPoly_SHA256";
+    private static final int FRAME_HEADER_LENGTH = 3;
+    private static final int MESSAGE_HEADER_LENGTH = 4;
+    private static final int MAC_LENGTH = 16;
+    private static final byte[] PROLOGUE = "NoiseAPIInit\0\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_HANDSHAKE_TEMPLATES = 64;
+    // Parsed protocol, decoded key and hashed prologue per encryption key, shared by all connection attempts
+    private static final Map<String, HandshakeTemplate> HANDSHAKE_TEMPLATES = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(NoiseFrameCodec.class);
+    private final String encryptionKeyBase64;
+    private final @Nullable String expectedDeviceId;
+    private HandshakeState client;
+    private volatile CipherStatePair cipherStatePair;
+    private volatile NoiseProtocolState state = NoiseProtocolState.HELLO;
+
+    public NoiseFrameCodec(String encryptionKeyBase64, @Nullable String expectedDeviceId) {
+        this.encryptionKeyBase64 = encryptionKeyBase64;
+        this.expectedDeviceId = expectedDeviceId;
+    }
+
+    @Override
+    public void onConnected(FrameHelper frameHelper) throws ProtocolException {
+        try {
+            client = getHandshakeTemplate(encryptionKeyBase64).newHandshake();
+
+            state = NoiseProtocolState.HELLO;
+            frameHelper.sendFrame(createFrame(new byte[0]));
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new ProtocolAPIError("Error initializing encryption", e);
+        }
+    }
+
+    /**
+     * The device id is verified in the hello response and does not affect the handshake itself, so templates are
+     * shared by all devices using the same encryption key.
+     */
+    private static HandshakeTemplate getHandshakeTemplate(String encryptionKeyBase64)
+            throws NoSuchAlgorithmException {
+        HandshakeTemplate template = HANDSHAKE_TEMPLATES.get(encryptionKeyBase64);
+        if (template == null) {
+            byte[] key = Base64.getDecoder().decode(encryptionKeyBase64);
+            try {
+                template = new HandshakeTemplate(NOISE_PROTOCOL, HandshakeState.INITIATOR, key, PROLOGUE);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+            if (HANDSHAKE_TEMPLATES.size() >= MAX_HANDSHAKE_TEMPLATES) {
+                // Only grows when keys are changed, start over rather than tracking usage
+                HANDSHAKE_TEMPLATES.clear();
+            }
+            HANDSHAKE_TEMPLATES.put(encryptionKeyBase64, template);
+        }
+        return template;
+    }
+
+    @Override
+    public int readHeader(FrameHelper frameHelper, ByteBuffer buffer) {
+        if (buffer.remaining() < FRAME_HEADER_LENGTH) {
+            return INCOMPLETE;
+        }
+        byte preamble = buffer.get();
+        if (preamble != FrameHelper.PROTOCOL_ENCRYPTED) {
+            frameHelper.onParseError(preamble == FrameHelper.PROTOCOL_PLAINTEXT
+                    ? CommunicationError.DEVICE_REQUIRES_PLAINTEXT
+                    : CommunicationError.INVALID_PROTOCOL_PREAMBLE);
+            return INVALID;
+        }
+        return ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+    }
+
+    @Override
+    public boolean isReady() {
+        return state == NoiseProtocolState.READY;
+    }
+
+    @Override
+    public void onHandshakeFrame(FrameHelper frameHelper, byte[] packetData) throws ProtocolException {
+        try {
+            switch (state) {
+                case HELLO:
+                    handleHello(frameHelper, packetData);
+                    break;
+                case HANDSHAKE:
+                    handleHandshake(frameHelper, packetData);
+                    break;
+                case READY:
+                    break;
+            }
+        } catch (ShortBufferException e) {
+            throw new ProtocolAPIError(e.getMessage(), e);
+        }
+    }
+
+    private void handleHello(FrameHelper frameHelper, byte[] packetData)
+            throws ProtocolAPIError, ShortBufferException {
+        if (packetData[0] != FrameHelper.PROTOCOL_ENCRYPTED) {
+            frameHelper.onParseError(CommunicationError.DEVICE_REQUIRES_PLAINTEXT);
+        } else {
+            // Verify server name
+
+            int nullByteIndex = 1;
+            while (nullByteIndex < packetData.length && packetData[nullByteIndex] != 0) {
+                nullByteIndex++;
+            }
+
+            byte[] deviceIdBytes = Arrays.copyOfRange(packetData, 1, nullByteIndex);
+            String deviceId = new String(deviceIdBytes, StandardCharsets.US_ASCII);
+
+            if (expectedDeviceId != null && !(expectedDeviceId.equals(deviceId))) {
+                logger.warn("[{}] Expected deviceId '{}' but got '{}'", frameHelper.getLogPrefix(), expectedDeviceId,
+                        deviceId);
+                frameHelper.onParseError(CommunicationError.DEVICE_NAME_MISMATCH);
+                return;
+            }
+
+            final byte[] noiseHandshakeBuffer = new byte[64];
+            final int noiseHandshakeLength;
+
+            // Client handshake written to buffer
+            noiseHandshakeLength = client.writeMessage(noiseHandshakeBuffer, 0, new byte[0], 0, 0);
+
+            // Prepend with empty byte in array
+            byte[] payload = new byte[noiseHandshakeLength + 1];
+            System.arraycopy(noiseHandshakeBuffer, 0, payload, 1, noiseHandshakeLength);
+
+            ByteBuffer frame = createFrame(payload);
+            state = NoiseProtocolState.HANDSHAKE;
+            frameHelper.sendFrame(frame);
+        }
+    }
+
+    private ByteBuffer createFrame(byte[] payload) {
+        int frameLength = payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(frameLength + 3);
+        buffer.put((byte) 1);
+        buffer.putShort((short) frameLength);
+        buffer.put(payload);
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private void handleHandshake(FrameHelper frameHelper, byte[] packetData) throws ProtocolException {
+        if (packetData[0] != 0) {
+            frameHelper.onParseError(CommunicationError.ENCRYPTION_KEY_INVALID);
+        } else {
+            try {
+                byte[] payload = new byte[64];
+                client.readMessage(packetData, 1, packetData.length - 1, payload, 0);
+
+                cipherStatePair = client.split();
+                state = NoiseProtocolState.READY;
+
+                frameHelper.onReady();
+            } catch (ShortBufferException | BadPaddingException e) {
+                throw new ProtocolAPIError(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void decodeMessage(FrameHelper frameHelper, byte[] packetData) throws Exception {
+        // Decrypt in place, the packet data is not used for anything else
+        int length = cipherStatePair.getReceiver().decryptWithAd(null, packetData, 0, packetData, 0,
+                packetData.length);
+        int messageType = ((packetData[0] & 0xFF) << 8) | (packetData[1] & 0xFF);
+        frameHelper.decodeProtoMessage(messageType, packetData, MESSAGE_HEADER_LENGTH, length - MESSAGE_HEADER_LENGTH);
+    }
+
+    @Override
+    public int maxFrameLength(int messageSize) {
+        return FRAME_HEADER_LENGTH + MESSAGE_HEADER_LENGTH + messageSize + MAC_LENGTH;
+    }
+
+    /**
+     * Write the frame header, message header and serialized message into the buffer and encrypt message header and
+     * message in place.
+     */
+    @Override
+    public int encodeFrame(GeneratedMessage message, int messageType, int messageSize, byte[] buffer)
+            throws ProtocolAPIError {
+        try {
+            int offset = FRAME_HEADER_LENGTH;
+            buffer[offset++] = (byte) (messageType >> 8 & 0xFF);
+            buffer[offset++] = (byte) (messageType & 0xFF);
+            buffer[offset++] = (byte) (messageSize >> 8 & 0xFF);
+            buffer[offset++] = (byte) (messageSize & 0xFF);
+            CodedOutputStream output = CodedOutputStream.newInstance(buffer, offset, messageSize);
+            message.writeTo(output);
+            output.checkNoSpaceLeft();
+
+            int encryptedLength = cipherStatePair.getSender().encryptWithAd(null, buffer, FRAME_HEADER_LENGTH,
+                    buffer, FRAME_HEADER_LENGTH, MESSAGE_HEADER_LENGTH + messageSize);
+            buffer[0] = FrameHelper.PROTOCOL_ENCRYPTED;
+            buffer[1] = (byte) (encryptedLength >> 8 & 0xFF);
+            buffer[2] = (byte) (encryptedLength & 0xFF);
+            return FRAME_HEADER_LENGTH + encryptedLength;
+        } catch (Exception e) {
+            throw new ProtocolAPIError(e.getMessage());
+        }
+    }
+
+    private enum NoiseProtocolState {
+        HELLO,
+        HANDSHAKE,
+        READY
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.Descriptors.Descriptor;
+
+import io.esphome.api.ApiOptions;
+import io.esphome.api.AuthenticationResponse;
+import io.esphome.api.BluetoothLEAdvertisementResponse;
+import io.esphome.api.BluetoothLERawAdvertisementsResponse;
+import io.esphome.api.CameraImageResponse;
+import io.esphome.api.GetTimeRequest;
+import io.esphome.api.HelloResponse;
+import io.esphome.api.PingRequest;
+import io.esphome.api.PingResponse;
+import io.esphome.api.SubscribeLogsResponse;
+
+/**
+ * Priority of received messages. Each lane has its own queue in the {@link ConnectionMailbox} of a connection, and
+ * higher priority lanes are always drained first. Only the {@link #BULK} lane is shed when the device sends more than
+ * the binding can process, everything else is kept.
+ */
+public enum PacketLane {
+    /**
+     * Connection setup and liveness. Never delayed by other traffic.
+     */
+    CONTROL(256, false),
+    /**
+     * Entity definitions, state updates, responses to commands and disconnects. Order is preserved within the lane, so
+     * a disconnect is handled after the state updates sent before it.
+     */
+    STATE(4096, false),
+    /**
+     * High volume traffic that may be dropped: BLE advertisements, device logs and camera images.
+     */
+    BULK(512, true);
+
+    private static final Map<Integer, PacketLane> LANE_BY_MESSAGE_TYPE = new HashMap<>();
+
+    static {
+        List.of(HelloResponse.getDescriptor(), AuthenticationResponse.getDescriptor(), PingRequest.getDescriptor(),
+                PingResponse.getDescriptor(), GetTimeRequest.getDescriptor())
+                .forEach(descriptor -> LANE_BY_MESSAGE_TYPE.put(messageType(descriptor), CONTROL));
+        List.of(BluetoothLEAdvertisementResponse.getDescriptor(), BluetoothLERawAdvertisementsResponse.getDescriptor(),
+                SubscribeLogsResponse.getDescriptor(), CameraImageResponse.getDescriptor())
+                .forEach(descriptor -> LANE_BY_MESSAGE_TYPE.put(messageType(descriptor), BULK));
+    }
+
+    private final int capacity;
+    private final boolean sheddable;
+
+    PacketLane(int capacity, boolean sheddable) {
+        this.capacity = capacity;
+        this.sheddable = sheddable;
+    }
+
+    /**
+     * @return number of queued messages per connection above which the lane is considered backed up. A sheddable lane
+     *         never holds more.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if messages in this lane are dropped when it is full, or when a higher priority lane is backed up
+     */
+    public boolean isSheddable() {
+        return sheddable;
+    }
+
+    public static PacketLane forMessageType(int messageType) {
+        return LANE_BY_MESSAGE_TYPE.getOrDefault(messageType, STATE);
+    }
+
+    private static int messageType(Descriptor descriptor) {
+        return descriptor.getOptions().getExtension(ApiOptions.id);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.GeneratedMessage;
+
+/**
+ * Unencrypted ESPHome API frames. Frames are a 0x00 preamble, the message length and the message type as varints,
+ * followed by the message. There is no handshake, messages are exchanged right after the socket is connected.
+ * <p>
+ * Only use on trusted networks, both the messages and the API password of older devices are sent in clear text.
+ */
+public class PlaintextFrameCodec implements FrameCodec {
+
+    // Preamble and two 32 bit varints
+    private static final int MAX_HEADER_LENGTH = 1 + 5 + 5;
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    @Override
+    public void onConnected(FrameHelper frameHelper) {
+        frameHelper.onReady();
+    }
+
+    /**
+     * The message type varint is kept as part of the frame body, and decoded in
+     * {@link #decodeMessage(FrameHelper, byte[])}.
+     */
+    @Override
+    public int readHeader(FrameHelper frameHelper, ByteBuffer buffer) throws ProtocolException {
+        if (!buffer.hasRemaining()) {
+            return INCOMPLETE;
+        }
+        byte preamble = buffer.get();
+        if (preamble != FrameHelper.PROTOCOL_PLAINTEXT) {
+            frameHelper.onParseError(preamble == FrameHelper.PROTOCOL_ENCRYPTED
+                    ? CommunicationError.DEVICE_REQUIRES_ENCRYPTION
+                    : CommunicationError.INVALID_PROTOCOL_PREAMBLE);
+            return INVALID;
+        }
+        long messageSize = readVarint(buffer);
+        if (messageSize < 0) {
+            return INCOMPLETE;
+        }
+        int typeStart = buffer.position();
+        long messageType = readVarint(buffer);
+        if (messageType < 0) {
+            return INCOMPLETE;
+        }
+        int typeLength = buffer.position() - typeStart;
+        buffer.position(typeStart);
+        if (messageSize > Integer.MAX_VALUE - typeLength) {
+            throw new ProtocolAPIError("Invalid message size " + messageSize);
+        }
+        return (int) messageSize + typeLength;
+    }
+
+    /**
+     * @return the unsigned value, or -1 if the buffer ends before the varint
+     */
+    private static long readVarint(ByteBuffer buffer) throws ProtocolAPIError {
+        long result = 0;
+        for (int i = 0; i < MAX_VARINT_LENGTH; i++) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new ProtocolAPIError("Varint longer than " + MAX_VARINT_LENGTH + " bytes");
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void onHandshakeFrame(FrameHelper frameHelper, byte[] body) {
+        // No handshake
+    }
+
+    @Override
+    public void decodeMessage(FrameHelper frameHelper, byte[] body) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        long messageType = readVarint(buffer);
+        if (messageType < 0) {
+            throw new ProtocolAPIError("Truncated message type");
+        }
+        frameHelper.decodeProtoMessage((int) messageType, body, buffer.position(), buffer.remaining());
+    }
+
+    @Override
+    public int maxFrameLength(int messageSize) {
+        return MAX_HEADER_LENGTH + messageSize;
+    }
+
+    @Override
+    public int encodeFrame(GeneratedMessage message, int messageType, int messageSize, byte[] buffer)
+            throws ProtocolAPIError {
+        try {
+            buffer[0] = FrameHelper.PROTOCOL_PLAINTEXT;
+            CodedOutputStream output = CodedOutputStream.newInstance(buffer, 1, buffer.length - 1);
+            output.writeUInt32NoTag(messageSize);
+            output.writeUInt32NoTag(messageType);
+            message.writeTo(output);
+            output.flush();
+            return 1 + output.getTotalBytesWritten();
+        } catch (Exception e) {
+            throw new ProtocolAPIError(e.getMessage());
+        }
+    }
+}
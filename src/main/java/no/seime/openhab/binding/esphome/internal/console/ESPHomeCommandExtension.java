@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.console;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.io.console.Console;
+import org.openhab.core.io.console.extensions.AbstractConsoleCommandExtension;
+import org.openhab.core.io.console.extensions.ConsoleCommandExtension;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import no.seime.openhab.binding.esphome.internal.LatencyHistogram;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskMetrics;
+import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandlerFactory;
+
+/**
+ * Console commands for inspecting the binding, ie {@code openhab:esphome executor} to print the thread pool usage and
+ * queue wait and run time percentiles per task category.
+ *
+ * @author Arne Seime - Initial contribution
+ */
+@Component(service = ConsoleCommandExtension.class)
+@NonNullByDefault
+public class ESPHomeCommandExtension extends AbstractConsoleCommandExtension {
+
+    private static final String SUBCMD_EXECUTOR = "executor";
+    private static final String RESET = "reset";
+
+    private final ESPHomeHandlerFactory handlerFactory;
+
+    @Activate
+    public ESPHomeCommandExtension(@Reference ESPHomeHandlerFactory handlerFactory) {
+        super("esphome", "Inspect the ESPHome binding.");
+        this.handlerFactory = handlerFactory;
+    }
+
+    @Override
+    public void execute(String[] args, Console console) {
+        if (args.length >= 1 && SUBCMD_EXECUTOR.equals(args[0])) {
+            MonitoredCompositeExecutorService executor = handlerFactory.getExecutorService();
+            if (args.length == 2 && RESET.equals(args[1])) {
+                executor.resetTaskMetrics();
+                console.println("Executor metrics reset");
+            } else {
+                printExecutorMetrics(executor, console);
+            }
+        } else {
+            printUsage(console);
+        }
+    }
+
+    private void printExecutorMetrics(MonitoredCompositeExecutorService executor, Console console) {
+        console.println(String.format("Pool size %d of max %d, %d active, %d queued", executor.getPoolSize(),
+                executor.getMaximumPoolSize(), executor.getActiveCount(), executor.getQueueSize()));
+        console.println(String.format("%-18s %9s %9s %9s %9s %9s %9s %9s %9s", "Category", "Count", "Rejected",
+                "Wait p50", "Wait p99", "Wait max", "Run p50", "Run p99", "Run max"));
+        for (Map.Entry<TaskCategory, TaskMetrics> entry : executor.getTaskMetrics().entrySet()) {
+            LatencyHistogram wait = entry.getValue().getQueueWait();
+            LatencyHistogram run = entry.getValue().getRunTime();
+            console.println(String.format("%-18s %9d %9d %9s %9s %9s %9s %9s %9s", entry.getKey(), run.getCount(),
+                    entry.getValue().getRejectedCount(), format(wait.getPercentileMicros(50)),
+                    format(wait.getPercentileMicros(99)), format(wait.getMaxMicros()),
+                    format(run.getPercentileMicros(50)), format(run.getPercentileMicros(99)),
+                    format(run.getMaxMicros())));
+        }
+    }
+
+    private static String format(long micros) {
+        return micros < 1000 ? micros + "us" : String.format("%.1fms", micros / 1000d);
+    }
+
+    @Override
+    public List<String> getUsages() {
+        return List.of(buildCommandUsage(SUBCMD_EXECUTOR, "show thread pool usage, queue wait and run times"),
+                buildCommandUsage(SUBCMD_EXECUTOR + " " + RESET, "reset queue wait and run times"));
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.discovery;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Resolves device hostnames without blocking the caller. Literal IP addresses and hostnames found in the
+ * {@link ESPHomeMDNSHostnameResolver} cache are resolved immediately. Other hostnames are looked up with the OS resolver
+ * on a small dedicated thread pool, so that slow DNS/mDNS lookups neither pin binding executor threads nor are done
+ * while holding handler locks. Results are cached for a short time, failed lookups for an even shorter time, and
+ * concurrent lookups of the same hostname share a single OS lookup.
+ * <p>
+ * OS lookups return all addresses of the host, with IPv6 and IPv4 addresses interleaved so that connection attempts
+ * can be raced across both address families.
+ */
+@NonNullByDefault
+public class AsyncHostnameResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncHostnameResolver.class);
+    private static final long POSITIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int POOL_SIZE = 2;
+
+    private final ESPHomeMDNSHostnameResolver mdnsHostnameResolver;
+    private final HostLookup hostLookup;
+    private final ExecutorService lookupExecutor;
+    private final AtomicLong threadCounter = new AtomicLong(0);
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<ResolvedHostname>> pendingLookups = new ConcurrentHashMap<>();
+
+    public AsyncHostnameResolver(ESPHomeMDNSHostnameResolver mdnsHostnameResolver) {
+        this(mdnsHostnameResolver, InetAddress::getAllByName);
+    }
+
+    AsyncHostnameResolver(ESPHomeMDNSHostnameResolver mdnsHostnameResolver, HostLookup hostLookup) {
+        this.mdnsHostnameResolver = mdnsHostnameResolver;
+        this.hostLookup = hostLookup;
+        this.lookupExecutor = newLookupExecutor();
+    }
+
+    AsyncHostnameResolver(ESPHomeMDNSHostnameResolver mdnsHostnameResolver, HostLookup hostLookup,
+            ExecutorService lookupExecutor) {
+        this.mdnsHostnameResolver = mdnsHostnameResolver;
+        this.hostLookup = hostLookup;
+        this.lookupExecutor = lookupExecutor;
+    }
+
+    private ExecutorService newLookupExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("ESPHome Hostname Resolver " + threadCounter.incrementAndGet());
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Resolve a hostname to an IP address.
+     *
+     * @return future completed with the resolved address, or completed exceptionally with an
+     *         {@link UnknownHostException} if the hostname could not be resolved
+     */
+    public CompletableFuture<ResolvedHostname> resolve(String hostname) {
+        if (InetAddresses.isInetAddress(hostname)) {
+            return CompletableFuture.completedFuture(new ResolvedHostname(
+                    List.of(InetAddresses.forString(hostname).getHostAddress()), ResolutionSource.LITERAL));
+        }
+
+        Optional<String> mdnsIp = mdnsHostnameResolver.resolve(hostname);
+        if (mdnsIp.isPresent()) {
+            return CompletableFuture.completedFuture(new ResolvedHostname(List.of(mdnsIp.get()), ResolutionSource.MDNS));
+        }
+
+        String key = hostname.toLowerCase(Locale.ROOT);
+        CacheEntry entry = cache.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresNanos < 0) {
+            List<String> ipAddresses = entry.ipAddresses;
+            if (ipAddresses != null) {
+                return CompletableFuture.completedFuture(new ResolvedHostname(ipAddresses, ResolutionSource.DNS));
+            }
+            return CompletableFuture
+                    .failedFuture(new UnknownHostException(hostname + " (cached negative lookup result)"));
+        }
+
+        CompletableFuture<ResolvedHostname> lookup = new CompletableFuture<>();
+        CompletableFuture<ResolvedHostname> pendingLookup = pendingLookups.putIfAbsent(key, lookup);
+        if (pendingLookup != null) {
+            return pendingLookup;
+        }
+        // The lookup is only started once it is registered, so that it is removed again even if it completes right away
+        lookup.whenComplete((result, error) -> pendingLookups.remove(key, lookup));
+        try {
+            CompletableFuture.supplyAsync(() -> lookup(key, hostname), lookupExecutor)
+                    .whenComplete((result, error) -> {
+                        if (error != null) {
+                            lookup.completeExceptionally(error);
+                        } else {
+                            lookup.complete(result);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            lookup.completeExceptionally(e);
+        }
+        return lookup;
+    }
+
+    private ResolvedHostname lookup(String key, String hostname) {
+        long start = System.nanoTime();
+        try {
+            List<String> ipAddresses = interleaveAddressFamilies(hostLookup.lookup(hostname));
+            cache.put(key, new CacheEntry(ipAddresses, System.nanoTime() + POSITIVE_TTL_NANOS));
+            logger.debug("Resolved '{}' to {} in {}ms", hostname, ipAddresses,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return new ResolvedHostname(ipAddresses, ResolutionSource.DNS);
+        } catch (UnknownHostException e) {
+            cache.put(key, new CacheEntry(null, System.nanoTime() + NEGATIVE_TTL_NANOS));
+            logger.debug("Failed to resolve '{}' after {}ms", hostname,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            throw new CompletionException(e);
+        }
+    }
+
+    static List<String> interleaveAddressFamilies(InetAddress[] addresses) {
+        List<String> ipv6 = new ArrayList<>();
+        List<String> ipv4 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? ipv6 : ipv4).add(address.getHostAddress());
+        }
+        List<String> result = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(ipv6.size(), ipv4.size()); i++) {
+            if (i < ipv6.size()) {
+                result.add(ipv6.get(i));
+            }
+            if (i < ipv4.size()) {
+                result.add(ipv4.get(i));
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    /**
+     * Forget cached lookup results for a hostname, ie when a connection attempt to the resolved addresses failed.
+     */
+    public void invalidate(String hostname) {
+        cache.remove(hostname.toLowerCase(Locale.ROOT));
+    }
+
+    public void shutdown() {
+        lookupExecutor.shutdownNow();
+        cache.clear();
+    }
+
+    public enum ResolutionSource {
+        LITERAL,
+        MDNS,
+        DNS
+    }
+
+    public record ResolvedHostname(List<String> ipAddresses, ResolutionSource source) {
+
+        /**
+         * @return the preferred address
+         */
+        public String ipAddress() {
+            return ipAddresses.get(0);
+        }
+    }
+
+    /**
+     * Looks up all addresses of a host, {@link InetAddress#getAllByName(String)} outside of tests.
+     */
+    @FunctionalInterface
+    interface HostLookup {
+        InetAddress[] lookup(String hostname) throws UnknownHostException;
+    }
+
+    private record CacheEntry(@Nullable List<String> ipAddresses, long expiresNanos) {
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+
+/**
+ * Binding wide admission control for connection attempts. Avoids that all devices connect and perform their Noise
+ * handshake at the same time, ie at startup or after a network outage, which would starve packet processing.
+ * <p>
+ * Attempts are admitted by a token bucket limiting the rate of new attempts, and by a limit on the number of
+ * handshakes in progress. Waiting attempts of devices that were recently online are admitted first. A handshake slot
+ * is released when the attempt completes, fails or after {@link #SLOT_TIMEOUT_MS} to avoid that unreachable devices
+ * block other attempts.
+ *
+ * @author Arne Seime - Initial contribution
+ */
+@NonNullByDefault
+public class ConnectionAdmissionController {
+
+    static final long SLOT_TIMEOUT_MS = 5000;
+    // A connection attempt sets up the codec and opens sockets, so it is allowed to run longer than other tasks before
+    // the executor warns about it
+    private static final long CONNECT_TASK_MAX_EXECUTION_TIME_MS = 7000;
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectionAdmissionController.class);
+
+    private final MonitoredCompositeExecutorService executor;
+    private final int maxConcurrentHandshakes;
+    private final double attemptsPerSecond;
+    private final LongSupplier nanoClock;
+
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+    private int inFlight;
+    private double availableTokens;
+    private long lastRefillNanos;
+    private long sequence;
+    @Nullable
+    private ScheduledFuture<?> dispatchFuture;
+
+    public ConnectionAdmissionController(MonitoredCompositeExecutorService executor, int maxConcurrentHandshakes,
+            int maxAttemptsPerSecond) {
+        this(executor, maxConcurrentHandshakes, maxAttemptsPerSecond, System::nanoTime);
+    }
+
+    ConnectionAdmissionController(MonitoredCompositeExecutorService executor, int maxConcurrentHandshakes,
+            int maxAttemptsPerSecond, LongSupplier nanoClock) {
+        if (maxConcurrentHandshakes <= 0 || maxAttemptsPerSecond <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.executor = executor;
+        this.maxConcurrentHandshakes = maxConcurrentHandshakes;
+        this.attemptsPerSecond = maxAttemptsPerSecond;
+        this.nanoClock = nanoClock;
+        this.availableTokens = maxAttemptsPerSecond;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Queue a connection attempt. The task is executed on the executor once admitted.
+     *
+     * @param name name used for logging and task monitoring
+     * @param recentlyOnline whether the device was recently online, these are admitted first
+     * @param task the connection attempt
+     * @return ticket that must be released when the handshake completes or fails
+     */
+    public Ticket submit(String name, boolean recentlyOnline, Runnable task) {
+        Ticket ticket;
+        synchronized (this) {
+            ticket = new Ticket(name, recentlyOnline, sequence++, task);
+            queue.add(ticket);
+            logger.debug("[{}] Connection attempt queued, {} waiting, {} in progress", name, queue.size(), inFlight);
+        }
+        dispatch();
+        return ticket;
+    }
+
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized void shutdown() {
+        queue.clear();
+        cancelDispatchFuture();
+    }
+
+    void dispatch() {
+        List<Ticket> admitted = new ArrayList<>();
+        synchronized (this) {
+            refillTokens();
+            while (!queue.isEmpty() && inFlight < maxConcurrentHandshakes && availableTokens >= 1) {
+                Ticket ticket = queue.poll();
+                ticket.state = TicketState.ADMITTED;
+                ticket.slotTimeoutFuture = executor.schedule(() -> {
+                    logger.debug("[{}] Connection attempt did not complete within {}ms, releasing slot",
+                            ticket.name, SLOT_TIMEOUT_MS);
+                    ticket.release();
+                }, SLOT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                inFlight++;
+                availableTokens -= 1;
+                admitted.add(ticket);
+            }
+
+            if (!queue.isEmpty() && inFlight < maxConcurrentHandshakes && dispatchFuture == null) {
+                // Wait for the next token
+                long waitMillis = Math.max(1, (long) Math.ceil((1 - availableTokens) / attemptsPerSecond * 1000));
+                dispatchFuture = executor.schedule(() -> {
+                    synchronized (this) {
+                        dispatchFuture = null;
+                    }
+                    dispatch();
+                }, waitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        for (Ticket ticket : admitted) {
+            logger.debug("[{}] Connection attempt admitted", ticket.name);
+            executor.schedule(ticket.task, 0, TimeUnit.SECONDS, String.format("[%s] Connect", ticket.name),
+                    TaskCategory.CONNECT, CONNECT_TASK_MAX_EXECUTION_TIME_MS);
+        }
+    }
+
+    private void refillTokens() {
+        long now = nanoClock.getAsLong();
+        double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000d;
+        lastRefillNanos = now;
+        availableTokens = Math.min(attemptsPerSecond, availableTokens + elapsedSeconds * attemptsPerSecond);
+    }
+
+    private void release(Ticket ticket) {
+        synchronized (this) {
+            switch (ticket.state) {
+                case QUEUED -> queue.remove(ticket);
+                case ADMITTED -> inFlight--;
+                case RELEASED -> {
+                    return;
+                }
+            }
+            ticket.state = TicketState.RELEASED;
+            if (ticket.slotTimeoutFuture != null) {
+                ticket.slotTimeoutFuture.cancel(false);
+                ticket.slotTimeoutFuture = null;
+            }
+        }
+        dispatch();
+    }
+
+    private void cancelDispatchFuture() {
+        if (dispatchFuture != null) {
+            dispatchFuture.cancel(false);
+            dispatchFuture = null;
+        }
+    }
+
+    private enum TicketState {
+        QUEUED,
+        ADMITTED,
+        RELEASED
+    }
+
+    /**
+     * A single connection attempt. Releasing a ticket that is still queued cancels the attempt.
+     */
+    public class Ticket implements Comparable<Ticket> {
+        private final String name;
+        private final boolean recentlyOnline;
+        private final long sequence;
+        private final Runnable task;
+        private TicketState state = TicketState.QUEUED;
+        @Nullable
+        private ScheduledFuture<?> slotTimeoutFuture;
+
+        private Ticket(String name, boolean recentlyOnline, long sequence, Runnable task) {
+            this.name = name;
+            this.recentlyOnline = recentlyOnline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public void release() {
+            ConnectionAdmissionController.this.release(this);
+        }
+
+        @Override
+        public int compareTo(Ticket o) {
+            int result = Boolean.compare(o.recentlyOnline, recentlyOnline);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -13,11 +13,13 @@
 package no.seime.openhab.binding.esphome.internal.handler;
 
 import java.math.BigDecimal;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.time.Instant;
+import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -27,13 +29,21 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.core.events.AbstractEvent;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.library.CoreItemFactory;
 import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.library.types.QuantityType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.library.unit.MetricPrefix;
+import org.openhab.core.library.unit.Units;
 import org.openhab.core.thing.*;
 import org.openhab.core.thing.binding.BaseThingHandler;
 import org.openhab.core.thing.binding.ThingActions;
 import org.openhab.core.thing.binding.ThingHandlerCallback;
+import org.openhab.core.thing.binding.builder.ChannelBuilder;
+import org.openhab.core.thing.type.AutoUpdatePolicy;
 import org.openhab.core.thing.type.ChannelType;
+import org.openhab.core.thing.type.ChannelTypeBuilder;
+import org.openhab.core.thing.type.ChannelTypeUID;
 import org.openhab.core.types.*;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -42,14 +52,15 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.net.InetAddresses;
 import com.google.protobuf.GeneratedMessage;
-import com.jano7.executor.KeySequentialExecutor;
 
 import io.esphome.api.*;
 import no.seime.openhab.binding.esphome.events.ESPHomeEventFactory;
 import no.seime.openhab.binding.esphome.internal.*;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.bluetooth.BluetoothProxyRegistry;
 import no.seime.openhab.binding.esphome.internal.bluetooth.ESPHomeBluetoothProxyHandler;
 import no.seime.openhab.binding.esphome.internal.comm.*;
-import no.seime.openhab.binding.esphome.internal.discovery.ESPHomeMDNSHostnameResolver;
+import no.seime.openhab.binding.esphome.internal.discovery.AsyncHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.handler.action.AbstractESPHomeThingAction;
 import no.seime.openhab.binding.esphome.internal.handler.action.DynamicThingActionsGenerator;
 import no.seime.openhab.binding.esphome.internal.handler.action.FirmwareUpgradeAction;
@@ -71,6 +82,18 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
     private static final String DEVICE_LOGGER_NAME = "ESPHOMEDEVICE";
     private static final String ACTION_TAG_SCANNED = "esphome.tag_scanned";
     static final String PROPERTY_LAST_KNOWN_IP_ADDRESS = "lastKnownIpAddress";
+    static final String PROPERTY_BLUETOOTH_SCANNER_STATE = "bluetoothScannerState";
+    static final String PROPERTY_BLUETOOTH_SCANNER_MODE = "bluetoothScannerMode";
+    // Number of ping round trips to collect before the ping timeout is derived from measurements
+    private static final int MIN_PING_RTT_SAMPLES = 8;
+    private static final double PING_TIMEOUT_PERCENTILE = 99;
+    private static final int PING_TIMEOUT_RTT_FACTOR = 4;
+    // Ping intervals between pings sent while data is flowing, so that round trip times are also measured under load
+    private static final int BUSY_PING_INTERVALS = 6;
+    // Consecutive pings without any data received before the connection is deemed lost
+    private static final int MAX_MISSED_PINGS = 2;
+    // Devices that lost their connection within this period get priority when reconnecting
+    private static final long RECENTLY_ONLINE_NANOS = TimeUnit.MINUTES.toNanos(10);
 
     private final Logger logger = LoggerFactory.getLogger(ESPHomeHandler.class);
     private final Logger deviceLogger = LoggerFactory.getLogger(DEVICE_LOGGER_NAME);
@@ -83,34 +106,68 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
     private final List<Channel> dynamicChannels = new CopyOnWriteArrayList<>();
     private final ESPHomeEventSubscriber eventSubscriber;
     private final MonitoredCompositeExecutorService executorService;
-    private final KeySequentialExecutor packetProcessor;
+    private final Executor packetExecutor;
     private final EventPublisher eventPublisher;
     @Nullable
     private final String bindingPropertyDefaultEncryptionKey;
     private final BundleContext bundleContext;
     private final ESPHomeVersionService versionService;
     private final FirmwareUpgradeService firmwareUpgradeService;
-    private final ESPHomeMDNSHostnameResolver mdnsHostnameResolver;
+    private final AsyncHostnameResolver hostnameResolver;
+    private final ConnectionAdmissionController admissionController;
+    private final BluetoothProxyRegistry bluetoothProxyRegistry;
     private @Nullable ESPHomeConfiguration config;
-    private @Nullable EncryptedFrameHelper frameHelper;
+    private @Nullable FrameHelper frameHelper;
     @Nullable
     private ScheduledFuture<?> pingWatchdogFuture;
     @Nullable
+    private ScheduledFuture<?> pingTimeoutFuture;
+    // System.nanoTime() when the outstanding ping was sent, 0 if none
+    private long pingSentNanos;
+    // System.nanoTime() when the last ping was sent, 0 if none
+    private long lastPingSentNanos;
+    private int missedPings;
+    private final RttHistogram pingRttHistogram = new RttHistogram();
+    @Nullable
     private ScheduledFuture<?> deepSleepWatchdogFuture;
     @Nullable
     private ScheduledFuture<?> connectionTimeoutFuture;
-    private Instant lastPong = Instant.now();
     @Nullable
     private ScheduledFuture<?> connectFuture;
+    @Nullable
+    private ConnectionAdmissionController.Ticket connectTicket;
+    // Incremented for each connection attempt, used to discard stale hostname resolution results
+    private int connectAttempt;
+    // System.nanoTime() when the last established connection was lost, 0 if never connected
+    private long lastOnlineNanos;
     private final Object connectionStateLock = new Object();
     private ConnectionState connectionState = ConnectionState.UNINITIALIZED;
     private boolean disposed = false;
     private boolean interrogated;
     private boolean bluetoothProxyStarted = false;
+    // Scanner mode reported by the device before the binding first changed it, restored when the device is no longer
+    // used as a proxy, and a mode to set once the device has reported its mode. Guarded by connectionStateLock and
+    // forgotten when the connection is lost
+    @Nullable
+    private BluetoothScannerMode originalBluetoothScannerMode;
+    private boolean bluetoothScannerModeChanged;
+    @Nullable
+    private BluetoothScannerMode pendingBluetoothScannerMode;
+    // Whether the device should serve the BLE proxies. The registry is told outside connectionStateLock, as the proxies
+    // call back into this handler
+    private volatile boolean bluetoothProxyMember;
+    private final Object bluetoothProxyMembershipLock = new Object();
+    // Membership last passed on to the registry, guarded by bluetoothProxyMembershipLock
+    private boolean publishedBluetoothProxyMember;
     // default is not used initialized in initialize()
     private ExponentialBackoff exponentialBackoff = new ExponentialBackoff(10, 500);
     @Nullable
     private String resolvedIpAddressForCurrentConnection;
+    // Last known address raced against hostname resolution in the current attempt, and the addresses the hostname
+    // resolved to. Used to tell a stale last known address from a device failing for other reasons
+    @Nullable
+    private String racedLastKnownIpAddress;
+    private List<String> resolvedIpAddresses = List.of();
 
     private final Set<ServiceRegistration<?>> thingActionServiceRegistrations = new HashSet<>();
 
@@ -124,10 +181,11 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
     public ESPHomeHandler(Thing thing, ConnectionSelector connectionSelector,
             ESPChannelTypeProvider dynamicChannelTypeProvider, ESPStateDescriptionProvider stateDescriptionProvider,
             ESPHomeEventSubscriber eventSubscriber, MonitoredCompositeExecutorService executorService,
-            KeySequentialExecutor packetProcessor, EventPublisher eventPublisher,
+            Executor packetExecutor, EventPublisher eventPublisher,
             @Nullable String bindingPropertyDefaultEncryptionKey, BundleContext bundleContext,
             ESPHomeVersionService versionService, FirmwareUpgradeService firmwareUpgradeService,
-            ESPHomeMDNSHostnameResolver mdnsHostnameResolver) {
+            AsyncHostnameResolver hostnameResolver, ConnectionAdmissionController admissionController,
+            BluetoothProxyRegistry bluetoothProxyRegistry) {
         super(thing);
         this.connectionSelector = connectionSelector;
         this.dynamicChannelTypeProvider = dynamicChannelTypeProvider;
@@ -135,13 +193,15 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         logPrefix = thing.getUID().getId();
         this.eventSubscriber = eventSubscriber;
         this.executorService = executorService;
-        this.packetProcessor = packetProcessor;
+        this.packetExecutor = packetExecutor;
         this.eventPublisher = eventPublisher;
         this.bindingPropertyDefaultEncryptionKey = bindingPropertyDefaultEncryptionKey;
         this.bundleContext = bundleContext;
         this.versionService = versionService;
         this.firmwareUpgradeService = firmwareUpgradeService;
-        this.mdnsHostnameResolver = mdnsHostnameResolver;
+        this.hostnameResolver = hostnameResolver;
+        this.admissionController = admissionController;
+        this.bluetoothProxyRegistry = bluetoothProxyRegistry;
 
         // Register message handlers for each type of message pairs
         registerMessageHandler(EntityTypes.SELECT, new SelectMessageHandler(this), ListEntitiesSelectResponse.class,
@@ -219,8 +279,12 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
 
     @Override
     public void dispose() {
+        // Leave the proxies while still connected, so that they can unsubscribe and restore the scanner mode
+        bluetoothProxyMember = false;
+        publishBluetoothProxyMembership();
         synchronized (connectionStateLock) {
             disposed = true;
+            bluetoothProxyMember = false;
             versionService.removeListener(this);
             eventSubscriber.removeEventSubscriptions(this);
             stateDescriptionProvider.removeDescriptionsForThing(thing.getUID());
@@ -249,6 +313,8 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
 
             thingActionClassLoader = null;
         }
+        // In case the device came online while disposing
+        publishBluetoothProxyMembership();
         super.dispose();
     }
 
@@ -264,28 +330,28 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         super.handleRemoval();
     }
 
+    /**
+     * Starts a connection attempt. Connection attempts to all candidate addresses of the device are raced against each
+     * other, the first TCP connect to complete wins. The last known IP address is attempted right away, while hostname
+     * resolution is done asynchronously without holding the connection state lock. Resolved addresses join the race in
+     * {@link #connect(int, ResolvedConnectionTarget, ProtocolException)}. If the last known address wins but the
+     * connection fails before the device is online, see {@link #forgetStaleLastKnownIpAddress(String)}, the next
+     * attempt is made right away with the resolved addresses only.
+     */
     private void connect() {
+        String hostname;
+        int attempt;
         synchronized (connectionStateLock) {
-            try {
-                if (disposed) {
-                    return;
-                }
-                connectionState = ConnectionState.CONNECTING;
-
-                String hostname = config.hostname;
-                int port = config.port;
-                ResolvedConnectionTarget connectionTarget = resolveConnectionTarget(hostname);
-                resolvedIpAddressForCurrentConnection = connectionTarget.cacheLastKnownIpAddress
-                        ? connectionTarget.ipAddress
-                        : null;
-                applyLastKnownIpAddressPolicy(connectionTarget);
-
-                logger.info("[{}] Trying to connect to {}:{}", logPrefix, connectionTarget.logTarget(), port);
-                if (config.deepSleep && getThing().getStatus() != ThingStatus.ONLINE) {
-                    updateStatus(ThingStatus.UNKNOWN, ThingStatusDetail.NONE,
-                            String.format("Connecting to %s:%d", connectionTarget.statusTarget(), port));
-                }
+            if (disposed) {
+                releaseConnectTicket();
+                return;
+            }
 
+            FrameCodec codec;
+            if (config.plaintext) {
+                logger.debug("[{}] Using plaintext API transport", logPrefix);
+                codec = new PlaintextFrameCodec();
+            } else {
                 // Default to using the default encryption key from the binding if not set in device configuration
                 String encryptionKey = config.encryptionKey;
                 if (encryptionKey == null || encryptionKey.isEmpty()) {
@@ -297,27 +363,107 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                                 logPrefix);
                         updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
                                 "No encryption key configured. Please set 'encryptionKey' in thing configuration or a default one in binding configuration");
+                        releaseConnectTicket();
                         return;
                     }
                 }
+                codec = new NoiseFrameCodec(encryptionKey, config.deviceId);
+            }
+
+            connectionState = ConnectionState.CONNECTING;
+            attempt = ++connectAttempt;
+            hostname = config.hostname;
+
+            cancelConnectionTimeoutWatchdog();
+            connectionTimeoutFuture = executorService.schedule(() -> {
+                logger.warn("[{}] Connection attempt timed out after {} seconds.", logPrefix, config.connectTimeout);
+                handleDisconnection(ThingStatusDetail.COMMUNICATION_ERROR, "Connection attempt timed out");
+            }, config.connectTimeout, TimeUnit.SECONDS, String.format("[%s] Connection watchdog", logPrefix));
+
+            frameHelper = new FrameHelper(connectionSelector, this, codec, logPrefix, packetExecutor);
+
+            racedLastKnownIpAddress = null;
+            resolvedIpAddresses = List.of();
+            String lastKnownIpAddress = getLastKnownIpAddress();
+            if (lastKnownIpAddress != null && !InetAddresses.isInetAddress(hostname)) {
+                try {
+                    logger.debug("[{}] Trying last known address {} while resolving '{}'", logPrefix,
+                            lastKnownIpAddress, hostname);
+                    racedLastKnownIpAddress = lastKnownIpAddress;
+                    frameHelper.connect(createSocketAddress(lastKnownIpAddress));
+                } catch (ProtocolException e) {
+                    logger.debug("[{}] Failed to connect to last known address {}", logPrefix, lastKnownIpAddress, e);
+                }
+            }
+        }
 
-                frameHelper = new EncryptedFrameHelper(connectionSelector, this, encryptionKey, config.deviceId,
-                        logPrefix, packetProcessor);
+        resolveConnectionTarget(hostname).whenCompleteAsync((connectionTarget, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                connect(attempt, null, cause instanceof ProtocolException protocolException ? protocolException
+                        : new ProtocolAPIError("Failed to resolve hostname '" + hostname + "'", cause));
+            } else {
+                connect(attempt, connectionTarget, null);
+            }
+        }, executorService);
+    }
+
+    private void connect(int attempt, @Nullable ResolvedConnectionTarget connectionTarget,
+            @Nullable ProtocolException resolutionError) {
+        synchronized (connectionStateLock) {
+            if (disposed || attempt != connectAttempt || connectionState != ConnectionState.CONNECTING
+                    || frameHelper == null) {
+                logger.debug("[{}] Connection attempt {} superseded while resolving hostname", logPrefix, attempt);
+                return;
+            }
+            try {
+                if (resolutionError != null || connectionTarget == null) {
+                    throw resolutionError != null ? resolutionError
+                            : new ProtocolAPIError("Failed to resolve hostname '" + config.hostname + "'");
+                }
 
-                frameHelper.connect(connectionTarget.connectHost, port);
+                int port = config.port;
+                resolvedIpAddresses = connectionTarget.ipAddresses();
+                applyLastKnownIpAddressPolicy(connectionTarget);
 
-                cancelConnectionTimeoutWatchdog();
-                connectionTimeoutFuture = executorService.schedule(() -> {
-                    logger.warn("[{}] Connection attempt timed out after {} seconds.", logPrefix,
-                            config.connectTimeout);
-                    handleDisconnection(ThingStatusDetail.COMMUNICATION_ERROR, "Connection attempt timed out");
-                }, config.connectTimeout, TimeUnit.SECONDS, String.format("[%s] Connection watchdog", logPrefix));
+                logger.info("[{}] Trying to connect to {}:{}", logPrefix, connectionTarget.logTarget(), port);
+                if (config.deepSleep && getThing().getStatus() != ThingStatus.ONLINE) {
+                    updateStatus(ThingStatus.UNKNOWN, ThingStatusDetail.NONE,
+                            String.format("Connecting to %s:%d", connectionTarget.statusTarget(), port));
+                }
+
+                ProtocolException lastError = null;
+                for (String ipAddress : connectionTarget.ipAddresses()) {
+                    try {
+                        frameHelper.connect(createSocketAddress(ipAddress));
+                    } catch (ProtocolException e) {
+                        logger.debug("[{}] Failed to connect to {}", logPrefix, ipAddress, e);
+                        lastError = e;
+                    }
+                }
+                try {
+                    frameHelper.candidatesComplete();
+                } catch (ProtocolException e) {
+                    throw lastError != null ? lastError : e;
+                }
 
             } catch (ProtocolException e) {
                 logger.warn("[{}] Error initial connection", logPrefix, e);
                 updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, e.getMessage());
+                if (resolutionError == null) {
+                    // The resolved addresses could not be connected to, look the hostname up again next time
+                    hostnameResolver.invalidate(config.hostname);
+                }
+                cancelConnectionTimeoutWatchdog();
                 connectionState = ConnectionState.UNINITIALIZED;
                 resolvedIpAddressForCurrentConnection = null;
+                releaseConnectTicket();
+                if (frameHelper != null) {
+                    frameHelper.close();
+                    frameHelper = null;
+                }
 
                 if (config.deepSleep) {
                     logger.info("[{}] Error connecting to device in deep sleep mode. Will wait for next wakeup",
@@ -329,6 +475,10 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         }
     }
 
+    private InetSocketAddress createSocketAddress(String ipAddress) {
+        return new InetSocketAddress(InetAddresses.forString(ipAddress), config.port);
+    }
+
     public void sendMessage(GeneratedMessage message) throws ProtocolAPIError {
         frameHelper.send(message);
     }
@@ -396,7 +546,11 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
     public void onConnect() throws ProtocolAPIError {
         synchronized (connectionStateLock) {
             cancelConnectionTimeoutWatchdog();
+            releaseConnectTicket();
             exponentialBackoff.reset();
+            // Remember the address that won the connection race, unless the device is configured with a literal IP
+            resolvedIpAddressForCurrentConnection = InetAddresses.isInetAddress(config.hostname) ? null
+                    : frameHelper.getRemoteIpAddress();
             logger.debug("[{}] Encrypted connection established. Starting API handshake.", logPrefix);
             HelloRequest helloRequest = HelloRequest.newBuilder().setClientInfo("openHAB")
                     .setApiVersionMajor(API_VERSION_MAJOR).setApiVersionMinor(API_VERSION_MINOR).build();
@@ -459,20 +613,38 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
 
             eventSubscriber.removeEventSubscriptions(this);
             cancelPingWatchdog();
+            // The next connection may take another route, keep the round trip times measured so far at half weight
+            pingRttHistogram.decay();
             cancelConnectionTimeoutWatchdog();
+            releaseConnectTicket();
+            if (connectionState == ConnectionState.CONNECTED) {
+                lastOnlineNanos = System.nanoTime();
+            } else {
+                // The attempt failed, the device may have changed address since the hostname was looked up
+                hostnameResolver.invalidate(config.hostname);
+            }
 
+            boolean staleLastKnownIpAddress = false;
             if (frameHelper != null) {
+                staleLastKnownIpAddress = connectionState != ConnectionState.CONNECTED
+                        && forgetStaleLastKnownIpAddress(frameHelper.getRemoteIpAddress());
                 frameHelper.close();
                 frameHelper = null;
             }
 
             connectionState = ConnectionState.UNINITIALIZED;
             resolvedIpAddressForCurrentConnection = null;
+            bluetoothProxyMember = false;
+            // The device reports its scanner mode again on the next connection
+            originalBluetoothScannerMode = null;
+            bluetoothScannerModeChanged = false;
+            pendingBluetoothScannerMode = null;
 
             if (!config.deepSleep) {
                 setUndefToAllChannels();
 
-                int nextDelay = exponentialBackoff.getNextDelay();
+                // Retry the other candidates right away instead of backing off because of a stale address
+                int nextDelay = staleLastKnownIpAddress ? 0 : exponentialBackoff.getNextDelay();
                 String finalMessage = String.format("%s. Will reconnect in %d seconds", message, nextDelay);
 
                 logger.warn("[{}] Disconnecting. Reason: {}", logPrefix, finalMessage);
@@ -481,6 +653,7 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                 scheduleConnect(nextDelay);
             }
         }
+        publishBluetoothProxyMembership();
     }
 
     @Override
@@ -539,6 +712,9 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         } else if (message instanceof ListEntitiesDoneResponse) {
 
             addFirmwareChannels();
+            if (!config.deepSleep) {
+                addPingStatisticsChannels();
+            }
 
             thingActionServiceRegistrations.add(bundleContext.registerService(ThingActions.class,
                     new FirmwareUpgradeAction(this), new Hashtable<>()));
@@ -556,7 +732,7 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
             frameHelper.send(PingResponse.getDefaultInstance());
         } else if (message instanceof PingResponse) {
             logger.debug("[{}] Received ping response", logPrefix);
-            lastPong = Instant.now();
+            recordPingResponse();
         } else if (message instanceof DisconnectRequest) {
             frameHelper.send(DisconnectResponse.getDefaultInstance());
             remoteDisconnect();
@@ -651,6 +827,28 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                 latestFirmwareVersionChannelType.getUID()));
     }
 
+    private void addPingStatisticsChannels() {
+        addPingStatisticsChannel(BindingConstants.CHANNEL_PING_RTT_MEDIAN, "Ping Round Trip Time (Median)",
+                "Median round trip time of ping requests sent to the device");
+        addPingStatisticsChannel(BindingConstants.CHANNEL_PING_RTT_P99, "Ping Round Trip Time (99th Percentile)",
+                "99th percentile round trip time of ping requests sent to the device");
+        addPingStatisticsChannel(BindingConstants.CHANNEL_PING_TIMEOUT, "Ping Timeout",
+                "Current ping timeout, derived from measured round trip times and bounded by minPingTimeout and maxPingTimeout");
+    }
+
+    private void addPingStatisticsChannel(String channelId, String label, String description) {
+        ChannelType channelType = ChannelTypeBuilder
+                .state(new ChannelTypeUID(BindingConstants.BINDING_ID, thing.getUID().getId() + "_" + channelId),
+                        label, CoreItemFactory.NUMBER + ":Time")
+                .withStateDescriptionFragment(
+                        StateDescriptionFragmentBuilder.create().withPattern("%.1f %unit%").withReadOnly(true).build())
+                .isAdvanced(true).withAutoUpdatePolicy(AutoUpdatePolicy.VETO).build();
+        addChannelType(channelType);
+        dynamicChannels.add(ChannelBuilder
+                .create(new ChannelUID(thing.getUID(), channelId), CoreItemFactory.NUMBER + ":Time")
+                .withLabel(label).withDescription(description).withType(channelType.getUID()).build());
+    }
+
     public void sendBluetoothCommand(GeneratedMessage message) {
         synchronized (connectionStateLock) {
             try {
@@ -720,6 +918,13 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
 
     private void handleHelloResponse(GeneratedMessage message) throws ProtocolAPIError {
         if (message instanceof HelloResponse helloResponse) {
+            if (config.plaintext && config.deviceId != null && !config.deviceId.equals(helloResponse.getName())) {
+                // Encrypted connections verify the device id during the handshake
+                logger.warn("[{}] Expected deviceId '{}' but got '{}'", logPrefix, config.deviceId,
+                        helloResponse.getName());
+                onParseError(CommunicationError.DEVICE_NAME_MISMATCH);
+                return;
+            }
             synchronized (connectionStateLock) {
                 logger.debug("[{}] Received hello response {}", logPrefix, helloResponse);
                 logger.info("[{}] Connected successfully. Device '{}' is running '{}' on protocol version '{}.{}'",
@@ -741,38 +946,16 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                 }
 
                 updateStatus(ThingStatus.ONLINE);
+                if (config.enableBluetoothProxy) {
+                    bluetoothProxyMember = true;
+                    publishBluetoothProxyMembership();
+                }
                 logger.debug("[{}] Device login complete, starting device interrogation", logPrefix);
 
                 if (!config.deepSleep) {
-                    // Reset last pong
-                    lastPong = Instant.now();
-
-                    pingWatchdogFuture = executorService.scheduleAtFixedRate(() -> {
-                        synchronized (connectionStateLock) {
-                            if (lastPong.plusSeconds((long) config.maxPingTimeouts * config.pingInterval)
-                                    .isBefore(Instant.now())) {
-                                logger.warn(
-                                        "[{}] Ping responses lacking. Waited {} times {}s, total of {}s. Last pong received at {}. Assuming connection lost and disconnecting",
-                                        logPrefix, config.maxPingTimeouts, config.pingInterval,
-                                        config.maxPingTimeouts * config.pingInterval, lastPong);
-
-                                String reason = String.format(
-                                        "ESPHome did not respond to ping requests. %d pings sent with %d s delay",
-                                        config.maxPingTimeouts, config.pingInterval);
-                                handleDisconnection(ThingStatusDetail.COMMUNICATION_ERROR, reason);
-                            } else {
-                                if (connectionState == ConnectionState.CONNECTED) {
-                                    try {
-                                        logger.debug("[{}] Sending ping", logPrefix);
-                                        frameHelper.send(PingRequest.getDefaultInstance());
-                                    } catch (ProtocolAPIError e) {
-                                        logger.warn("[{}] Error sending ping request", logPrefix, e);
-                                    }
-                                }
-                            }
-                        }
-                    }, config.pingInterval, config.pingInterval, TimeUnit.SECONDS,
-                            String.format("[%s] Ping watchdog", logPrefix));
+                    pingWatchdogFuture = executorService.scheduleAtFixedRate(this::checkConnectionLiveness,
+                            config.pingInterval, config.pingInterval, TimeUnit.SECONDS,
+                            String.format("[%s] Ping watchdog", logPrefix), TaskCategory.PING);
                 } else {
                     scheduleDeepSleepWatchdog();
                 }
@@ -795,6 +978,145 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         }
     }
 
+    /**
+     * Any frame received from the device proves the link is alive, so pings are only sent once the connection has been
+     * idle for a full ping interval. The connection is deemed lost when nothing at all has been received for
+     * maxPingTimeouts * pingInterval seconds. While data is flowing a ping is still sent every
+     * {@link #BUSY_PING_INTERVALS} ping intervals, so that the round trip times the ping timeout is derived from also
+     * cover a busy connection.
+     */
+    private void checkConnectionLiveness() {
+        synchronized (connectionStateLock) {
+            FrameHelper helper = frameHelper;
+            if (connectionState != ConnectionState.CONNECTED || helper == null) {
+                return;
+            }
+
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - helper.getLastFrameReceivedNanos());
+            long maxIdleSeconds = (long) config.maxPingTimeouts * config.pingInterval;
+            if (idleMillis > TimeUnit.SECONDS.toMillis(maxIdleSeconds)) {
+                logger.warn(
+                        "[{}] Ping responses lacking. No data received for {}ms, limit is {} times {}s, total of {}s. Assuming connection lost and disconnecting",
+                        logPrefix, idleMillis, config.maxPingTimeouts, config.pingInterval, maxIdleSeconds);
+
+                String reason = String.format(
+                        "ESPHome did not respond to ping requests. No data received for %d s with %d s ping interval",
+                        maxIdleSeconds, config.pingInterval);
+                handleDisconnection(ThingStatusDetail.COMMUNICATION_ERROR, reason);
+            } else if (idleMillis >= TimeUnit.SECONDS.toMillis(config.pingInterval)) {
+                if (pingSentNanos != 0) {
+                    logger.debug("[{}] Connection idle for {}ms, ping already outstanding", logPrefix, idleMillis);
+                    return;
+                }
+                logger.debug("[{}] Connection idle for {}ms, sending ping", logPrefix, idleMillis);
+                sendPing(helper);
+            } else if (pingSentNanos == 0 && isBusyPingDue()) {
+                logger.debug("[{}] Data received {}ms ago, sending ping to measure round trip time", logPrefix,
+                        idleMillis);
+                sendPing(helper);
+            } else {
+                logger.trace("[{}] Data received {}ms ago, skipping ping", logPrefix, idleMillis);
+            }
+        }
+    }
+
+    private boolean isBusyPingDue() {
+        long busyPingIntervalNanos = TimeUnit.SECONDS.toNanos((long) BUSY_PING_INTERVALS * config.pingInterval);
+        return lastPingSentNanos == 0 || System.nanoTime() - lastPingSentNanos >= busyPingIntervalNanos;
+    }
+
+    private void sendPing(FrameHelper helper) {
+        try {
+            long pingTimeoutMillis = getPingTimeoutMillis();
+            logger.debug("[{}] Sending ping with {}ms timeout", logPrefix, pingTimeoutMillis);
+            pingSentNanos = System.nanoTime();
+            lastPingSentNanos = pingSentNanos;
+            helper.send(PingRequest.getDefaultInstance());
+            pingTimeoutFuture = executorService.schedule(() -> checkPingTimeout(pingTimeoutMillis),
+                    (int) pingTimeoutMillis, TimeUnit.MILLISECONDS, String.format("[%s] Ping timeout", logPrefix),
+                    TaskCategory.PING);
+        } catch (ProtocolAPIError e) {
+            logger.warn("[{}] Error sending ping request", logPrefix, e);
+        }
+    }
+
+    /**
+     * Called when no ping response has arrived within the adaptive ping timeout. Any other frame received after the
+     * ping was sent still proves that the link is alive. A single lost ping or a short stall does not tear down the
+     * connection, the ping is repeated right away and the connection is only deemed lost after
+     * {@link #MAX_MISSED_PINGS} consecutive misses.
+     */
+    private void checkPingTimeout(long pingTimeoutMillis) {
+        synchronized (connectionStateLock) {
+            FrameHelper helper = frameHelper;
+            long sentNanos = pingSentNanos;
+            if (connectionState != ConnectionState.CONNECTED || helper == null || sentNanos == 0) {
+                return;
+            }
+            pingTimeoutFuture = null;
+            pingSentNanos = 0;
+            if (helper.getLastFrameReceivedNanos() - sentNanos > 0) {
+                logger.debug("[{}] No ping response within {}ms, but other data was received", logPrefix,
+                        pingTimeoutMillis);
+                missedPings = 0;
+                return;
+            }
+            if (++missedPings < MAX_MISSED_PINGS) {
+                logger.debug("[{}] No ping response within {}ms, missed {} of {}, pinging again", logPrefix,
+                        pingTimeoutMillis, missedPings, MAX_MISSED_PINGS);
+                sendPing(helper);
+                return;
+            }
+
+            logger.warn(
+                    "[{}] No response to {} consecutive pings within {}ms (ping round trip times {}). Assuming connection lost and disconnecting",
+                    logPrefix, missedPings, pingTimeoutMillis, pingRttHistogram);
+            String reason = String.format("ESPHome did not respond to %d consecutive ping requests within %d ms",
+                    missedPings, pingTimeoutMillis);
+            handleDisconnection(ThingStatusDetail.COMMUNICATION_ERROR, reason);
+        }
+    }
+
+    private void recordPingResponse() {
+        long sentNanos = pingSentNanos;
+        if (sentNanos == 0) {
+            return;
+        }
+        pingSentNanos = 0;
+        missedPings = 0;
+        cancelPingTimeout();
+        pingRttHistogram.record(System.nanoTime() - sentNanos);
+        updatePingStatisticsChannels();
+    }
+
+    /**
+     * The ping timeout is derived from a high percentile of measured round trip times, bounded by the configured
+     * minimum and maximum. The maximum is used until enough round trips have been measured.
+     */
+    private long getPingTimeoutMillis() {
+        long minMillis = TimeUnit.SECONDS.toMillis(config.minPingTimeout);
+        long maxMillis = TimeUnit.SECONDS.toMillis(config.maxPingTimeout);
+        if (pingRttHistogram.getCount() < MIN_PING_RTT_SAMPLES) {
+            return Math.max(minMillis, maxMillis);
+        }
+        long percentileMillis = TimeUnit.NANOSECONDS
+                .toMillis(pingRttHistogram.getPercentile(PING_TIMEOUT_PERCENTILE));
+        return Math.max(minMillis, Math.min(maxMillis, percentileMillis * PING_TIMEOUT_RTT_FACTOR));
+    }
+
+    private void updatePingStatisticsChannels() {
+        updateState(new ChannelUID(thing.getUID(), BindingConstants.CHANNEL_PING_RTT_MEDIAN),
+                toMillisState(pingRttHistogram.getPercentile(50)));
+        updateState(new ChannelUID(thing.getUID(), BindingConstants.CHANNEL_PING_RTT_P99),
+                toMillisState(pingRttHistogram.getPercentile(99)));
+        updateState(new ChannelUID(thing.getUID(), BindingConstants.CHANNEL_PING_TIMEOUT),
+                new QuantityType<>(getPingTimeoutMillis(), MetricPrefix.MILLI(Units.SECOND)));
+    }
+
+    private static State toMillisState(long nanos) {
+        return new QuantityType<>(nanos / 1_000_000d, MetricPrefix.MILLI(Units.SECOND));
+    }
+
     private void scheduleDeepSleepWatchdog() {
         cancelDeepSleepWatchdog();
         if (config.deepSleepTimeoutSeconds > 0) {
@@ -806,37 +1128,39 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         }
     }
 
-    private ResolvedConnectionTarget resolveConnectionTarget(String configuredHostname) throws ProtocolAPIError {
-        if (InetAddresses.isInetAddress(configuredHostname)) {
-            InetAddress configuredAddress = InetAddresses.forString(configuredHostname);
-            String configuredIpAddress = configuredAddress.getHostAddress();
-            return new ResolvedConnectionTarget(configuredIpAddress, configuredIpAddress, configuredHostname,
-                    configuredHostname, false);
-        }
-
-        Optional<String> mdnsIp = mdnsHostnameResolver.resolve(configuredHostname);
-        if (mdnsIp.isPresent()) {
-            String ip = mdnsIp.get();
-            logger.debug("[{}] Resolved '{}' via mDNS cache to {}", logPrefix, configuredHostname, ip);
-            return new ResolvedConnectionTarget(ip, ip, configuredHostname + " (mDNS " + ip + ")", configuredHostname,
-                    true);
-        }
+    private CompletableFuture<ResolvedConnectionTarget> resolveConnectionTarget(String configuredHostname) {
+        return hostnameResolver.resolve(configuredHostname).handle((resolved, error) -> {
+            if (resolved != null) {
+                List<String> ips = resolved.ipAddresses();
+                return switch (resolved.source()) {
+                    case LITERAL -> new ResolvedConnectionTarget(ips, configuredHostname, configuredHostname, false);
+                    case MDNS -> {
+                        logger.debug("[{}] Resolved '{}' via mDNS cache to {}", logPrefix, configuredHostname, ips);
+                        yield new ResolvedConnectionTarget(ips, configuredHostname + " (mDNS " + ips.get(0) + ")",
+                                configuredHostname, true);
+                    }
+                    case DNS -> new ResolvedConnectionTarget(ips, configuredHostname, configuredHostname, true);
+                };
+            }
 
-        try {
-            InetAddress resolvedAddress = InetAddress.getByName(configuredHostname);
-            return new ResolvedConnectionTarget(resolvedAddress.getHostAddress(), resolvedAddress.getHostAddress(),
-                    configuredHostname, configuredHostname, true);
-        } catch (UnknownHostException e) {
-            String lastKnownIpAddress = StringUtils
-                    .trimToNull(thing.getProperties().get(PROPERTY_LAST_KNOWN_IP_ADDRESS));
-            if (lastKnownIpAddress != null && InetAddresses.isInetAddress(lastKnownIpAddress)) {
+            String lastKnownIpAddress = getLastKnownIpAddress();
+            if (lastKnownIpAddress != null) {
                 logger.warn("[{}] Failed to resolve '{}'. Falling back to cached IP {}", logPrefix, configuredHostname,
                         lastKnownIpAddress);
-                return new ResolvedConnectionTarget(lastKnownIpAddress, lastKnownIpAddress,
+                return new ResolvedConnectionTarget(List.of(lastKnownIpAddress),
                         configuredHostname + " (cached " + lastKnownIpAddress + ")", lastKnownIpAddress, true);
             }
-            throw new ProtocolAPIError("Failed to resolve hostname '" + configuredHostname + "'", e);
-        }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                    : error;
+            throw new CompletionException(
+                    new ProtocolAPIError("Failed to resolve hostname '" + configuredHostname + "'", cause));
+        });
+    }
+
+    private @Nullable String getLastKnownIpAddress() {
+        String lastKnownIpAddress = StringUtils.trimToNull(thing.getProperties().get(PROPERTY_LAST_KNOWN_IP_ADDRESS));
+        return lastKnownIpAddress != null && InetAddresses.isInetAddress(lastKnownIpAddress) ? lastKnownIpAddress
+                : null;
     }
 
     private void applyLastKnownIpAddressPolicy(ResolvedConnectionTarget connectionTarget) {
@@ -846,6 +1170,27 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         removeLastKnownIpAddressProperty();
     }
 
+    /**
+     * The raced last known address may win the TCP connect even though the device has moved, for example when the
+     * address has been handed out to another device. When such a connection fails before the device is online, and
+     * the hostname did not resolve to the address, the address is forgotten so that the next attempt only races the
+     * resolved addresses.
+     *
+     * @param remoteIpAddress address of the failed connection, null if no TCP connect completed
+     * @return true if the failed connection was made to a stale last known address
+     */
+    private boolean forgetStaleLastKnownIpAddress(@Nullable String remoteIpAddress) {
+        if (remoteIpAddress == null || !remoteIpAddress.equals(racedLastKnownIpAddress)
+                || resolvedIpAddresses.contains(remoteIpAddress)) {
+            return false;
+        }
+        logger.info("[{}] Connection to last known address {} failed, falling back to the resolved addresses {}",
+                logPrefix, remoteIpAddress, resolvedIpAddresses);
+        racedLastKnownIpAddress = null;
+        removeLastKnownIpAddressProperty();
+        return true;
+    }
+
     private void persistLastKnownIpAddress() {
         String ipAddress = resolvedIpAddressForCurrentConnection;
         if (StringUtils.isBlank(ipAddress)
@@ -868,7 +1213,7 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         updateThing(editThing().withProperties(props).build());
     }
 
-    private record ResolvedConnectionTarget(String connectHost, String ipAddress, String logTarget, String statusTarget,
+    private record ResolvedConnectionTarget(List<String> ipAddresses, String logTarget, String statusTarget,
             boolean cacheLastKnownIpAddress) {
     }
 
@@ -892,6 +1237,35 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
         return disposed;
     }
 
+    /**
+     * Tell the registry whether the device serves the BLE proxies. The proxies call back into this handler, so the
+     * registry is never called while holding connectionStateLock. When the lock is held, the membership is published
+     * from another thread once it is released. Only the latest membership is published, so the order of calls does
+     * not matter.
+     */
+    private void publishBluetoothProxyMembership() {
+        if (Thread.holdsLock(connectionStateLock)) {
+            try {
+                executorService.execute(this::publishBluetoothProxyMembership);
+            } catch (RejectedExecutionException e) {
+                logger.debug("[{}] Could not update Bluetooth proxies: {}", logPrefix, e.getMessage());
+            }
+            return;
+        }
+        synchronized (bluetoothProxyMembershipLock) {
+            boolean member = bluetoothProxyMember;
+            if (member == publishedBluetoothProxyMember) {
+                return;
+            }
+            publishedBluetoothProxyMember = member;
+            if (member) {
+                bluetoothProxyRegistry.handlerOnline(this);
+            } else {
+                bluetoothProxyRegistry.handlerOffline(this);
+            }
+        }
+    }
+
     public void listenForBLEAdvertisements(ESPHomeBluetoothProxyHandler espHomeBluetoothProxyHandler) {
         synchronized (connectionStateLock) {
             this.espHomeBluetoothProxyHandler = espHomeBluetoothProxyHandler;
@@ -899,6 +1273,7 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                 try {
                     logger.info("[{}] Starting BLE proxy", logPrefix);
                     frameHelper.send(SubscribeBluetoothLEAdvertisementsRequest.getDefaultInstance());
+                    frameHelper.send(SubscribeBluetoothConnectionsFreeRequest.getDefaultInstance());
                     bluetoothProxyStarted = true;
                 } catch (Exception e) {
                     logger.error("[{}] Error starting BLE proxy", logPrefix, e);
@@ -913,16 +1288,73 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
                 try {
                     logger.info("[{}] Stopping BLE proxy", logPrefix);
                     frameHelper.send(UnsubscribeBluetoothLEAdvertisementsRequest.getDefaultInstance());
+                    @Nullable
+                    BluetoothScannerMode originalMode = originalBluetoothScannerMode;
+                    if (bluetoothScannerModeChanged && originalMode != null) {
+                        logger.debug("[{}] Restoring Bluetooth scanner mode {}", logPrefix, originalMode);
+                        frameHelper.send(BluetoothScannerSetModeRequest.newBuilder().setMode(originalMode).build());
+                        bluetoothScannerModeChanged = false;
+                    }
                 } catch (Exception e) {
                     logger.warn("[{}] Error stopping BLE proxy", logPrefix, e);
                 }
             }
 
             bluetoothProxyStarted = false;
+            pendingBluetoothScannerMode = null;
             espHomeBluetoothProxyHandler = null;
         }
     }
 
+    /**
+     * Switch the Bluetooth scanner between active and passive scanning, if the device is used as a proxy. Until the
+     * device has reported its own mode, which it does after the proxy subscribed to advertisements, the mode is only
+     * remembered and set once the report arrives, so that the mode to restore when the proxy stops is known. Devices
+     * that never report their mode do not support setting it either.
+     */
+    public void setBluetoothScannerMode(BluetoothScannerMode mode) {
+        synchronized (connectionStateLock) {
+            if (bluetoothProxyStarted && connectionState == ConnectionState.CONNECTED) {
+                if (originalBluetoothScannerMode == null) {
+                    logger.debug("[{}] Setting Bluetooth scanner mode {} once the device reports its mode", logPrefix,
+                            mode);
+                    pendingBluetoothScannerMode = mode;
+                } else {
+                    sendBluetoothScannerMode(mode);
+                }
+            }
+        }
+    }
+
+    private void sendBluetoothScannerMode(BluetoothScannerMode mode) {
+        try {
+            logger.debug("[{}] Setting Bluetooth scanner mode {}", logPrefix, mode);
+            frameHelper.send(BluetoothScannerSetModeRequest.newBuilder().setMode(mode).build());
+            bluetoothScannerModeChanged = true;
+        } catch (ProtocolAPIError e) {
+            logger.warn("[{}] Error setting Bluetooth scanner mode", logPrefix, e);
+        }
+    }
+
+    public void updateBluetoothScannerState(BluetoothScannerStateResponse rsp) {
+        synchronized (connectionStateLock) {
+            if (!bluetoothScannerModeChanged) {
+                originalBluetoothScannerMode = rsp.getMode();
+            }
+            @Nullable
+            BluetoothScannerMode pendingMode = pendingBluetoothScannerMode;
+            pendingBluetoothScannerMode = null;
+            if (pendingMode != null && pendingMode != rsp.getMode() && bluetoothProxyStarted
+                    && connectionState == ConnectionState.CONNECTED) {
+                sendBluetoothScannerMode(pendingMode);
+            }
+        }
+        updateProperty(PROPERTY_BLUETOOTH_SCANNER_STATE,
+                StringUtils.removeStart(rsp.getState().name(), "BLUETOOTH_SCANNER_STATE_").toLowerCase(Locale.ROOT));
+        updateProperty(PROPERTY_BLUETOOTH_SCANNER_MODE,
+                StringUtils.removeStart(rsp.getMode().name(), "BLUETOOTH_SCANNER_MODE_").toLowerCase(Locale.ROOT));
+    }
+
     public void executeAPIAction(ExecuteServiceRequest cmd) {
         synchronized (connectionStateLock) {
             if (disposed || connectionState != ConnectionState.CONNECTED) {
@@ -942,6 +1374,16 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
             pingWatchdogFuture.cancel(true);
             pingWatchdogFuture = null;
         }
+        cancelPingTimeout();
+        pingSentNanos = 0;
+        missedPings = 0;
+    }
+
+    private void cancelPingTimeout() {
+        if (pingTimeoutFuture != null) {
+            pingTimeoutFuture.cancel(false);
+            pingTimeoutFuture = null;
+        }
     }
 
     private void cancelDeepSleepWatchdog() {
@@ -956,6 +1398,14 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
             connectFuture.cancel(true);
             connectFuture = null;
         }
+        releaseConnectTicket();
+    }
+
+    private void releaseConnectTicket() {
+        if (connectTicket != null) {
+            connectTicket.release();
+            connectTicket = null;
+        }
     }
 
     private void cancelConnectionTimeoutWatchdog() {
@@ -968,8 +1418,24 @@ public class ESPHomeHandler extends BaseThingHandler implements CommunicationLis
     private void scheduleConnect(int delaySeconds) {
         synchronized (connectionStateLock) {
             cancelConnectFuture();
-            connectFuture = executorService.schedule(this::connect, delaySeconds, TimeUnit.SECONDS,
-                    String.format("[%s] Connect", logPrefix), 7000);
+            connectFuture = executorService.schedule(this::requestConnect, delaySeconds, TimeUnit.SECONDS,
+                    String.format("[%s] Request connect", logPrefix), TaskCategory.CONNECT);
+        }
+    }
+
+    /**
+     * Queue the connection attempt with the binding wide admission controller, which runs {@link #connect()} once
+     * there is capacity for another handshake.
+     */
+    private void requestConnect() {
+        synchronized (connectionStateLock) {
+            if (disposed) {
+                return;
+            }
+            releaseConnectTicket();
+            boolean recentlyOnline = lastOnlineNanos != 0
+                    && System.nanoTime() - lastOnlineNanos < RECENTLY_ONLINE_NANOS;
+            connectTicket = admissionController.submit(logPrefix, recentlyOnline, this::connect);
         }
     }
 
@@ -33,14 +33,16 @@ import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.jano7.executor.KeySequentialExecutor;
-
 import no.seime.openhab.binding.esphome.internal.BindingConstants;
 import no.seime.openhab.binding.esphome.internal.ESPHomeVersionService;
 import no.seime.openhab.binding.esphome.internal.FirmwareUpgradeService;
 import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.VirtualThreads;
+import no.seime.openhab.binding.esphome.internal.bluetooth.BluetoothProxyRegistry;
 import no.seime.openhab.binding.esphome.internal.bluetooth.ESPHomeBluetoothProxyHandler;
 import no.seime.openhab.binding.esphome.internal.comm.ConnectionSelector;
+import no.seime.openhab.binding.esphome.internal.discovery.AsyncHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.discovery.ESPHomeMDNSHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.message.statesubscription.ESPHomeEventSubscriber;
 
@@ -58,6 +60,8 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
     private static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = Set.of(BindingConstants.THING_TYPE_DEVICE,
             BindingConstants.THING_TYPE_BLE_PROXY);
 
+    private static final int DEFAULT_MAX_VIRTUAL_THREADS = 1000;
+
     private @Nullable String bindingPropertyDefaultEncryptionKey;
 
     private final AtomicLong threadCounter = new AtomicLong(0);
@@ -70,13 +74,17 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
     private final ThingRegistry thingRegistry;
     private final EventPublisher eventPublisher;
     private MonitoredCompositeExecutorService scheduler;
-    private KeySequentialExecutor packetExecutor;
+    private Executor packetExecutor;
     private ConnectionSelector connectionSelector;
     private ESPHomeVersionService versionService;
+    private ConnectionAdmissionController admissionController;
+    private AsyncHostnameResolver hostnameResolver;
     public FirmwareUpgradeService firmwareUpgradeService;
 
     private final Map<ThingUID, ESPHomeHandler> esphomeHandlers = new ConcurrentHashMap<>();
 
+    private final BluetoothProxyRegistry bluetoothProxyRegistry = new BluetoothProxyRegistry();
+
     @Activate
     public ESPHomeHandlerFactory(@Reference ESPChannelTypeProvider dynamicChannelTypeProvider,
             @Reference ESPStateDescriptionProvider stateDescriptionProvider,
@@ -99,12 +107,12 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
             ESPHomeHandler handler = new ESPHomeHandler(thing, connectionSelector, dynamicChannelTypeProvider,
                     stateDescriptionProvider, eventSubscriber, scheduler, packetExecutor, eventPublisher,
                     bindingPropertyDefaultEncryptionKey, getBundleContext(), versionService, firmwareUpgradeService,
-                    mdnsHostnameResolver);
+                    hostnameResolver, admissionController, bluetoothProxyRegistry);
             esphomeHandlers.put(thing.getUID(), handler);
             return handler;
         } else if (BindingConstants.THING_TYPE_BLE_PROXY.equals(thingTypeUID)) {
             ESPHomeBluetoothProxyHandler handler = new ESPHomeBluetoothProxyHandler((Bridge) thing, thingRegistry,
-                    scheduler);
+                    scheduler, bluetoothProxyRegistry);
             registerBluetoothAdapter(handler);
             return handler;
         }
@@ -126,15 +134,13 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
         try {
 
             // Read configuration
-            int maxPoolSize = Runtime.getRuntime().availableProcessors() * 2;
-            if (properties.get("maxPoolSize") != null) {
-                try {
-                    maxPoolSize = Integer.parseInt(properties.get("maxPoolSize").toString());
-                } catch (NumberFormatException e) {
-                    logger.warn("Invalid maxPoolSize property '{}', using default {}", properties.get("maxPoolSize"),
-                            maxPoolSize);
-                }
-            }
+            ThreadFactory virtualThreadFactory = getVirtualThreadFactory(properties);
+            int maxPoolSize = getIntProperty(properties, "maxPoolSize", virtualThreadFactory != null
+                    ? DEFAULT_MAX_VIRTUAL_THREADS
+                    : Runtime.getRuntime().availableProcessors() * 2);
+            int maxConcurrentHandshakes = getIntProperty(properties, "maxConcurrentHandshakes",
+                    Runtime.getRuntime().availableProcessors());
+            int maxConnectAttemptsPerSecond = getIntProperty(properties, "maxConnectAttemptsPerSecond", 10);
 
             bindingPropertyDefaultEncryptionKey = StringUtils
                     .trimToNull((String) properties.get("defaultEncryptionKey"));
@@ -156,21 +162,32 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
                 return t;
             });
 
-            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, 60L,
-                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000), r -> {
-                        long currentCount = threadCounter.incrementAndGet();
-                        logger.debug("Creating new worker thread {} for scheduler", currentCount);
-                        Thread t = new Thread(r);
-                        t.setDaemon(true);
-                        t.setName("ESPHome Thing Executor " + currentCount);
-                        return t;
-                    });
+            // Virtual threads are still pooled so that pool and queue statistics and the task timing of the
+            // monitored executor work the same in both modes. Idle virtual threads are cheap and time out quickly.
+            ThreadFactory workerThreadFactory = virtualThreadFactory != null ? virtualThreadFactory : r -> {
+                long currentCount = threadCounter.incrementAndGet();
+                logger.debug("Creating new worker thread {} for scheduler", currentCount);
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName("ESPHome Thing Executor " + currentCount);
+                return t;
+            };
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxPoolSize, maxPoolSize,
+                    virtualThreadFactory != null ? 5L : 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000),
+                    workerThreadFactory);
             threadPoolExecutor.allowCoreThreadTimeOut(true);
 
             scheduler = new MonitoredCompositeExecutorService(scheduledExecutorService, threadPoolExecutor, 300);
+            scheduler.setStackCapturePolicy(getStackCapturePolicy(properties),
+                    getIntProperty(properties, "taskStackCaptureSampleRate", 100));
 
             // Other
-            packetExecutor = new KeySequentialExecutor(scheduler);
+            packetExecutor = scheduler.executor(TaskCategory.PACKET_PROCESSING);
+
+            admissionController = new ConnectionAdmissionController(scheduler, maxConcurrentHandshakes,
+                    maxConnectAttemptsPerSecond);
+
+            hostnameResolver = new AsyncHostnameResolver(mdnsHostnameResolver);
 
             connectionSelector = new ConnectionSelector();
 
@@ -188,8 +205,59 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
         }
     }
 
+    private int getIntProperty(Dictionary<String, Object> properties, String name, int defaultValue) {
+        Object value = properties.get(name);
+        if (value != null) {
+            try {
+                int parsed = Integer.parseInt(value.toString());
+                if (parsed > 0) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through
+            }
+            logger.warn("Invalid {} property '{}', using default {}", name, value, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    private @Nullable ThreadFactory getVirtualThreadFactory(Dictionary<String, Object> properties) {
+        String value = StringUtils.trimToNull((String) properties.get("threadMode"));
+        if (value == null || "platform".equalsIgnoreCase(value)) {
+            return null;
+        }
+        if (!"virtual".equalsIgnoreCase(value)) {
+            logger.warn("Invalid threadMode property '{}', using platform threads", value);
+            return null;
+        }
+        ThreadFactory factory = VirtualThreads.newThreadFactory("ESPHome Thing Executor (virtual) ");
+        if (factory == null) {
+            logger.warn("Virtual threads require Java 21 or later, running on Java {}. Using platform threads",
+                    Runtime.version().feature());
+        } else {
+            logger.info("Running binding tasks and packet processing on virtual threads");
+        }
+        return factory;
+    }
+
+    private MonitoredCompositeExecutorService.StackCapturePolicy getStackCapturePolicy(
+            Dictionary<String, Object> properties) {
+        String value = StringUtils.trimToNull((String) properties.get("taskStackCapture"));
+        if (value != null) {
+            try {
+                return MonitoredCompositeExecutorService.StackCapturePolicy
+                        .valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid taskStackCapture property '{}', using default on-demand", value);
+            }
+        }
+        return MonitoredCompositeExecutorService.StackCapturePolicy.ON_DEMAND;
+    }
+
     @Override
     protected void deactivate(ComponentContext componentContext) {
+        admissionController.shutdown();
+        hostnameResolver.shutdown();
         connectionSelector.stop();
         versionService.stop();
         scheduler.shutdown();
@@ -223,6 +291,10 @@ public class ESPHomeHandlerFactory extends BaseThingHandlerFactory {
         super.removeHandler(thingHandler);
     }
 
+    public MonitoredCompositeExecutorService getExecutorService() {
+        return scheduler;
+    }
+
     public void onDeviceReappeared(List<String> deviceIds) {
         esphomeHandlers.values().stream().filter(h -> deviceIds.contains(h.getDeviceId()))
                 .forEach(ESPHomeHandler::onDeviceReappeared);
@@ -2,12 +2,17 @@ package no.seime.openhab.binding.esphome.internal.handler;
 
 import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Exponential backoff with decorrelated jitter: each delay is a random value between the initial delay and three
+ * times the previous delay, capped at the max delay. Unlike a fixed exponential sequence, this spreads out devices
+ * that started retrying at the same time.
+ */
 public final class ExponentialBackoff {
     private final int initialDelay;
     private final int maxDelay;
-    private static final int FACTOR = 2;
+    private static final int FACTOR = 3;
 
-    private int nextDelay;
+    private int previousDelay;
 
     public ExponentialBackoff(int initialDelay, int maxDelay) {
         if (initialDelay <= 0 || maxDelay <= 0) {
@@ -18,23 +23,23 @@ public final class ExponentialBackoff {
         }
         this.initialDelay = initialDelay;
         this.maxDelay = maxDelay;
-        this.nextDelay = initialDelay;
+        this.previousDelay = initialDelay;
     }
 
     public synchronized int getNextDelay() {
-        int delay = nextDelay;
-        int randomJitter = ThreadLocalRandom.current().nextInt(0, 1 + delay / 2);
-        nextDelay = Math.min(maxDelay, delay * FACTOR);
-        return delay + randomJitter;
+        int upperBound = (int) Math.min(maxDelay, (long) previousDelay * FACTOR);
+        int delay = ThreadLocalRandom.current().nextInt(initialDelay, upperBound + 1);
+        previousDelay = delay;
+        return delay;
     }
 
     public synchronized void reset() {
-        nextDelay = initialDelay;
+        previousDelay = initialDelay;
     }
 
     @Override
     public String toString() {
-        return "ExponentialBackoff [initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", nextDelay="
-                + nextDelay + "]";
+        return "ExponentialBackoff [initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", previousDelay="
+                + previousDelay + "]";
     }
 }
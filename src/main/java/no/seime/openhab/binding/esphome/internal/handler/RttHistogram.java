@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2023 Contributors to the Seime Openhab Addons project
+ * <p>
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ * <p>
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ * <p>
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package no.seime.openhab.binding.esphome.internal.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Small histogram of round trip times with exponentially growing buckets. Bucket 0 covers 0-250 microseconds, and each
+ * following bucket doubles the upper bound, so 16 buckets cover everything up to ~8 seconds. Counts are halved once the
+ * total reaches {@link #DECAY_THRESHOLD}, or on {@link #decay()}, so that the distribution follows changes in network
+ * conditions.
+ *
+ * @author Arne Seime - Initial contribution
+ */
+@NonNullByDefault
+public final class RttHistogram {
+
+    private static final long FIRST_BUCKET_UPPER_BOUND_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final int NUM_BUCKETS = 16;
+    static final int DECAY_THRESHOLD = 256;
+
+    private final int[] counts = new int[NUM_BUCKETS];
+    private int totalCount;
+
+    public synchronized void record(long rttNanos) {
+        counts[bucketIndex(Math.max(0, rttNanos))]++;
+        totalCount++;
+        if (totalCount >= DECAY_THRESHOLD) {
+            decay();
+        }
+    }
+
+    /**
+     * Halve the counts, so that older samples weigh less than the ones recorded from now on.
+     */
+    public synchronized void decay() {
+        totalCount = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] >>= 1;
+            totalCount += counts[i];
+        }
+    }
+
+    public synchronized int getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return estimated round trip time in nanoseconds at the given percentile, interpolated linearly within the
+     *         bucket. 0 if no samples are recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double rank = Math.min(100, Math.max(0, percentile)) / 100 * totalCount;
+        int cumulative = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (cumulative + counts[i] >= rank) {
+                long lower = lowerBound(i);
+                long upper = upperBound(i);
+                double fraction = (rank - cumulative) / counts[i];
+                return lower + (long) ((upper - lower) * fraction);
+            }
+            cumulative += counts[i];
+        }
+        return upperBound(NUM_BUCKETS - 1);
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+    }
+
+    private static int bucketIndex(long rttNanos) {
+        long bound = FIRST_BUCKET_UPPER_BOUND_NANOS;
+        int index = 0;
+        while (rttNanos > bound && index < NUM_BUCKETS - 1) {
+            bound <<= 1;
+            index++;
+        }
+        return index;
+    }
+
+    private static long lowerBound(int index) {
+        return index == 0 ? 0 : upperBound(index - 1);
+    }
+
+    private static long upperBound(int index) {
+        return FIRST_BUCKET_UPPER_BOUND_NANOS << index;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RttHistogram [count=%d, p50=%.1fms, p99=%.1fms]", totalCount,
+                getPercentile(50) / 1_000_000d, getPercentile(99) / 1_000_000d);
+    }
+}
@@ -0,0 +1,101 @@
+package com.southernstorm.noise.protocol;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the pure Java and the JCA implementation of the ChaChaPoly cipher, and the one selected by
+ * {@link Noise#createCipher(String)}, for frame sizes seen on the ESPHome native API. The results decide from which JDK
+ * on the JCA implementation is used, see {@link Noise#JCA_CHACHAPOLY_MIN_JDK}, and from which frame size on, see
+ * {@link ChaChaPolyJCACipherState#JCA_MIN_LENGTH}.
+ * <p>
+ * Not run as part of the build, start {@link #main(String[])} with the JDK to measure.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChaChaPolyCipherStateBenchmark {
+
+    // The JCA rejects decrypting with the nonce of the previous frame, so decryption cycles through several frames
+    private static final int FRAMES = 1024;
+
+    @Param({ "java", "jca", "selected" })
+    public String implementation;
+
+    @Param({ "20", "64", "200", "512", "1024" })
+    public int frameSize;
+
+    private CipherState encryptor;
+    private CipherState decryptor;
+    private byte[] plaintext;
+    private byte[][] ciphertexts;
+    private byte[] encrypted;
+    private byte[] decrypted;
+    private int frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        plaintext = new byte[frameSize];
+        random.nextBytes(plaintext);
+
+        encryptor = newCipherState();
+        encryptor.initializeKey(key, 0);
+        decryptor = newCipherState();
+        decryptor.initializeKey(key, 0);
+
+        encrypted = new byte[frameSize + 16];
+        decrypted = new byte[frameSize];
+        ciphertexts = new byte[FRAMES][frameSize + 16];
+        CipherState sender = newCipherState();
+        sender.initializeKey(key, 0);
+        for (byte[] ciphertext : ciphertexts) {
+            sender.encryptWithAd(null, plaintext, 0, ciphertext, 0, frameSize);
+        }
+    }
+
+    private CipherState newCipherState() throws Exception {
+        return switch (implementation) {
+            case "java" -> new ChaChaPolyCipherState();
+            case "jca" -> new ChaChaPolyJCACipherState(0);
+            default -> Noise.createCipher("ChaChaPoly");
+        };
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        encryptor.encryptWithAd(null, plaintext, 0, encrypted, 0, frameSize);
+        return encrypted;
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        frame = (frame + 1) % FRAMES;
+        decryptor.setNonce(frame);
+        decryptor.decryptWithAd(null, ciphertexts[frame], 0, decrypted, 0, frameSize + 16);
+        return decrypted;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ChaChaPolyCipherStateBenchmark.class.getSimpleName()).build()).run();
+    }
+}
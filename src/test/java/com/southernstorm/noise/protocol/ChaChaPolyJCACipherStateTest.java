@@ -0,0 +1,96 @@
+package com.southernstorm.noise.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+
+import org.junit.jupiter.api.Test;
+
+public class ChaChaPolyJCACipherStateTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    void producesSameCiphertextAsPureJavaImplementation() throws Exception {
+        assertSameCiphertextAsPureJavaImplementation(new ChaChaPolyJCACipherState());
+    }
+
+    @Test
+    void producesSameCiphertextAsPureJavaImplementationWhenJcaHandlesAllPackets() throws Exception {
+        assertSameCiphertextAsPureJavaImplementation(new ChaChaPolyJCACipherState(0));
+    }
+
+    private void assertSameCiphertextAsPureJavaImplementation(CipherState jca) throws Exception {
+        byte[] key = randomBytes(32);
+        CipherState fallback = new ChaChaPolyCipherState();
+        jca.initializeKey(key, 0);
+        fallback.initializeKey(key, 0);
+
+        for (int length : new int[] { 0, 1, 20, 63, 64, 65, 200, 255, 256, 1500 }) {
+            byte[] ad = length % 2 == 0 ? randomBytes(32) : null;
+            byte[] plaintext = randomBytes(length);
+            byte[] expected = new byte[length + 16];
+            byte[] actual = new byte[length + 16];
+
+            assertEquals(length + 16, fallback.encryptWithAd(ad, plaintext, 0, expected, 0, length));
+            assertEquals(length + 16, jca.encryptWithAd(ad, plaintext, 0, actual, 0, length));
+            assertArrayEquals(expected, actual, "length " + length);
+        }
+    }
+
+    @Test
+    void decryptsInPlace() throws Exception {
+        byte[] key = randomBytes(32);
+        CipherState sender = new ChaChaPolyCipherState();
+        CipherState receiver = new ChaChaPolyJCACipherState();
+        sender.initializeKey(key, 0);
+        receiver.initializeKey(key, 0);
+
+        // Alternate between packets handled by the pure Java and by the JCA cipher, which share the nonce
+        for (int length : new int[] { 100, 1000, 100, 1000 }) {
+            byte[] plaintext = randomBytes(length);
+            byte[] buffer = Arrays.copyOf(plaintext, plaintext.length + 16);
+            int ciphertextLength = sender.encryptWithAd(null, buffer, 0, buffer, 0, plaintext.length);
+
+            assertEquals(plaintext.length, receiver.decryptWithAd(null, buffer, 0, buffer, 0, ciphertextLength));
+            assertArrayEquals(plaintext, Arrays.copyOf(buffer, plaintext.length));
+        }
+    }
+
+    @Test
+    void rejectsTamperedCiphertext() throws Exception {
+        byte[] key = randomBytes(32);
+        CipherState sender = new ChaChaPolyJCACipherState();
+        CipherState receiver = new ChaChaPolyJCACipherState();
+        sender.initializeKey(key, 0);
+        receiver.initializeKey(key, 0);
+
+        for (int length : new int[] { 20, 1000 }) {
+            byte[] ciphertext = new byte[length + 16];
+            sender.encryptWithAd(null, randomBytes(length), 0, ciphertext, 0, length);
+            ciphertext[3] ^= 1;
+
+            assertThrows(BadPaddingException.class,
+                    () -> receiver.decryptWithAd(null, ciphertext, 0, new byte[length], 0, ciphertext.length));
+        }
+    }
+
+    @Test
+    void isSelectedOnJdksWithIntrinsics() throws Exception {
+        CipherState cipher = Noise.createCipher("ChaChaPoly");
+        if (Runtime.version().feature() >= Noise.JCA_CHACHAPOLY_MIN_JDK) {
+            assertInstanceOf(ChaChaPolyJCACipherState.class, cipher);
+        } else {
+            assertInstanceOf(ChaChaPolyCipherState.class, cipher);
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
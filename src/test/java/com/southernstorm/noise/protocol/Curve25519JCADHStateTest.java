@@ -0,0 +1,99 @@
+package com.southernstorm.noise.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class Curve25519JCADHStateTest {
+
+    @Test
+    void derivesSamePublicKeyAsPureJavaImplementation() throws Exception {
+        DHState jca = new Curve25519JCADHState();
+        jca.generateKeyPair();
+
+        DHState fallback = new Curve25519DHState();
+        fallback.setPrivateKey(privateKey(jca), 0);
+
+        assertArrayEquals(publicKey(fallback), publicKey(jca));
+
+        DHState imported = new Curve25519JCADHState();
+        imported.setPrivateKey(privateKey(jca), 0);
+        assertArrayEquals(publicKey(fallback), publicKey(imported));
+    }
+
+    @Test
+    void calculatesSameSharedKeyAsPureJavaImplementation() throws Exception {
+        DHState remote = new Curve25519DHState();
+        remote.generateKeyPair();
+
+        DHState jca = new Curve25519JCADHState();
+        jca.generateKeyPair();
+        DHState jcaRemote = new Curve25519JCADHState();
+        jcaRemote.setPublicKey(publicKey(remote), 0);
+
+        DHState fallback = new Curve25519DHState();
+        fallback.setPrivateKey(privateKey(jca), 0);
+        DHState fallbackRemote = new Curve25519DHState();
+        fallbackRemote.setPublicKey(publicKey(remote), 0);
+
+        byte[] expected = new byte[32];
+        byte[] actual = new byte[32];
+        fallback.calculate(expected, 0, fallbackRemote);
+        jca.calculate(actual, 0, jcaRemote);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void returnsZeroesForSmallOrderPoint() throws Exception {
+        DHState jca = new Curve25519JCADHState();
+        jca.generateKeyPair();
+        DHState nullKey = new Curve25519JCADHState();
+        nullKey.setToNullPublicKey();
+
+        byte[] shared = new byte[32];
+        shared[0] = 1;
+        jca.calculate(shared, 0, nullKey);
+
+        assertArrayEquals(new byte[32], shared);
+    }
+
+    @Test
+    void completesHandshakeWithPureJavaPeer() throws Exception {
+        String protocol = "Noise_NNpsk0_25519_ChaChaPoly_SHA256";
+        byte[] psk = new byte[32];
+        HandshakeState initiator = new HandshakeState(protocol, HandshakeState.INITIATOR);
+        Noise.setForceFallbacks(true);
+        HandshakeState responder;
+        try {
+            responder = new HandshakeState(protocol, HandshakeState.RESPONDER);
+        } finally {
+            Noise.setForceFallbacks(false);
+        }
+        initiator.setPreSharedKey(psk, 0, psk.length);
+        responder.setPreSharedKey(psk, 0, psk.length);
+        initiator.start();
+        responder.start();
+
+        byte[] message = new byte[128];
+        byte[] payload = new byte[128];
+        int length = initiator.writeMessage(message, 0, new byte[0], 0, 0);
+        responder.readMessage(message, 0, length, payload, 0);
+        length = responder.writeMessage(message, 0, new byte[0], 0, 0);
+        initiator.readMessage(message, 0, length, payload, 0);
+
+        assertArrayEquals(initiator.getHandshakeHash(), responder.getHandshakeHash());
+    }
+
+    private static byte[] publicKey(DHState dh) {
+        byte[] key = new byte[32];
+        dh.getPublicKey(key, 0);
+        return key;
+    }
+
+    private static byte[] privateKey(DHState dh) {
+        byte[] key = new byte[32];
+        dh.getPrivateKey(key, 0);
+        return key;
+    }
+}
@@ -0,0 +1,70 @@
+package com.southernstorm.noise.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+
+import org.junit.jupiter.api.Test;
+
+public class HandshakeTemplateTest {
+
+    private static final String PROTOCOL = "Noise_NNpsk0_25519_ChaChaPoly_SHA256";
+    private static final byte[] PROLOGUE = "NoiseAPIInit\0\0".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void completesHandshakeWithRegularPeer() throws Exception {
+        byte[] psk = new byte[32];
+        psk[0] = 42;
+        HandshakeTemplate template = new HandshakeTemplate(PROTOCOL, HandshakeState.INITIATOR, psk, PROLOGUE);
+
+        for (int i = 0; i < 3; i++) {
+            HandshakeState initiator = template.newHandshake();
+            HandshakeState responder = new HandshakeState(PROTOCOL, HandshakeState.RESPONDER);
+            responder.setPreSharedKey(psk, 0, psk.length);
+            responder.setPrologue(PROLOGUE, 0, PROLOGUE.length);
+            responder.start();
+
+            assertEquals(HandshakeState.WRITE_MESSAGE, initiator.getAction());
+            completeHandshake(initiator, responder);
+            assertArrayEquals(initiator.getHandshakeHash(), responder.getHandshakeHash());
+        }
+    }
+
+    @Test
+    void usesNewEphemeralKeyForEachHandshake() throws Exception {
+        HandshakeTemplate template = new HandshakeTemplate(PROTOCOL, HandshakeState.INITIATOR, new byte[32],
+                PROLOGUE);
+
+        byte[] first = new byte[128];
+        byte[] second = new byte[128];
+        int firstLength = template.newHandshake().writeMessage(first, 0, new byte[0], 0, 0);
+        int secondLength = template.newHandshake().writeMessage(second, 0, new byte[0], 0, 0);
+
+        assertEquals(firstLength, secondLength);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    void failsHandshakeWithDifferentPrologue() throws Exception {
+        byte[] psk = new byte[32];
+        HandshakeTemplate template = new HandshakeTemplate(PROTOCOL, HandshakeState.INITIATOR, psk, PROLOGUE);
+
+        HandshakeState responder = new HandshakeState(PROTOCOL, HandshakeState.RESPONDER);
+        responder.setPreSharedKey(psk, 0, psk.length);
+        responder.start();
+
+        assertThrows(BadPaddingException.class, () -> completeHandshake(template.newHandshake(), responder));
+    }
+
+    private static void completeHandshake(HandshakeState initiator, HandshakeState responder) throws Exception {
+        byte[] message = new byte[128];
+        byte[] payload = new byte[128];
+        int length = initiator.writeMessage(message, 0, new byte[0], 0, 0);
+        responder.readMessage(message, 0, length, payload, 0);
+        length = responder.writeMessage(message, 0, new byte[0], 0, 0);
+        initiator.readMessage(message, 0, length, payload, 0);
+    }
+}
@@ -33,12 +33,13 @@ import org.openhab.core.thing.internal.ThingImpl;
 import org.openhab.core.types.State;
 import org.osgi.framework.BundleContext;
 
-import com.jano7.executor.KeySequentialExecutor;
-
 import no.seime.openhab.binding.esphome.deviceutil.ESPHomeDeviceRunner;
 import no.seime.openhab.binding.esphome.internal.*;
+import no.seime.openhab.binding.esphome.internal.bluetooth.BluetoothProxyRegistry;
 import no.seime.openhab.binding.esphome.internal.comm.ConnectionSelector;
+import no.seime.openhab.binding.esphome.internal.discovery.AsyncHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.discovery.ESPHomeMDNSHostnameResolver;
+import no.seime.openhab.binding.esphome.internal.handler.ConnectionAdmissionController;
 import no.seime.openhab.binding.esphome.internal.handler.ESPChannelTypeProvider;
 import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandler;
 import no.seime.openhab.binding.esphome.internal.handler.ESPStateDescriptionProvider;
@@ -111,8 +112,9 @@ public abstract class AbstractESPHomeDeviceTest {
         FirmwareUpgradeService firmwareUpgradeService = Mockito.mock(FirmwareUpgradeService.class);
 
         thingHandler = new ESPHomeHandler(thing, selector, channelTypeProvider, stateDescriptionProvider,
-                eventSubscriber, executor, new KeySequentialExecutor(executor), eventPublisher, null, bundleContext,
-                versionService, firmwareUpgradeService, mdnsHostnameResolver);
+                eventSubscriber, executor, executor, eventPublisher, null, bundleContext, versionService,
+                firmwareUpgradeService, new AsyncHostnameResolver(mdnsHostnameResolver),
+                new ConnectionAdmissionController(executor, 4, 10), new BluetoothProxyRegistry());
         thingHandlerCallback = Mockito.mock(ThingHandlerCallback.class);
         thingHandler.setCallback(thingHandlerCallback);
 
@@ -0,0 +1,145 @@
+package no.seime.openhab.binding.esphome.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.comm.ConnectionMailbox;
+import no.seime.openhab.binding.esphome.internal.comm.PacketLane;
+
+/**
+ * Simulates 1000 devices that connect with a blocking name lookup and then process a few packets each with a blocking
+ * callback, on platform and on virtual threads. Also checks whether tasks that block starve the pool.
+ */
+public class ExecutorSoakTest {
+
+    private static final int DEVICES = 1000;
+    private static final int PACKETS_PER_DEVICE = 3;
+    private static final int PLATFORM_THREADS = 8;
+    private static final int BLOCKED_TASKS = PLATFORM_THREADS * 4;
+
+    private final Logger logger = LoggerFactory.getLogger(ExecutorSoakTest.class);
+
+    @Test
+    void platformThreads() throws Exception {
+        soak("platform", Thread::new, PLATFORM_THREADS);
+
+        // Blocked tasks occupy every thread of the pool, later tasks wait for them
+        assertFalse(runsWhileBlocked(Thread::new, PLATFORM_THREADS));
+    }
+
+    @Test
+    void virtualThreads() throws Exception {
+        ThreadFactory factory = VirtualThreads.newThreadFactory("soak ");
+        assumeTrue(factory != null, "Virtual threads not supported by this JDK");
+
+        SoakResult result = soak("virtual", factory, DEVICES);
+
+        // Blocking work no longer limits concurrency to the platform pool size
+        assertTrue(result.maxConcurrency > PLATFORM_THREADS, "max concurrency " + result.maxConcurrency);
+        // Blocked tasks do not starve the pool
+        assertTrue(runsWhileBlocked(factory, DEVICES));
+    }
+
+    /**
+     * Blocks more tasks than there are platform threads, and checks whether a task submitted after them runs while
+     * they are still blocked.
+     */
+    private boolean runsWhileBlocked(ThreadFactory threadFactory, int poolSize) throws Exception {
+        MonitoredCompositeExecutorService executor = newExecutor(threadFactory, poolSize);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch probeRan = new CountDownLatch(1);
+
+        for (int task = 0; task < BLOCKED_TASKS; task++) {
+            executor.schedule(() -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, 0, TimeUnit.MILLISECONDS, "[device-" + task + "] Blocked", TaskCategory.CONNECT);
+        }
+        executor.schedule(probeRan::countDown, 0, TimeUnit.MILLISECONDS, "Probe", TaskCategory.OTHER);
+
+        boolean ranWhileBlocked = probeRan.await(500, TimeUnit.MILLISECONDS);
+        release.countDown();
+        assertTrue(probeRan.await(10, TimeUnit.SECONDS), "Probe never ran");
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        return ranWhileBlocked;
+    }
+
+    private SoakResult soak(String mode, ThreadFactory threadFactory, int poolSize) throws Exception {
+        MonitoredCompositeExecutorService executor = newExecutor(threadFactory, poolSize);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxConcurrency = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(DEVICES);
+        List<AtomicInteger> processed = new CopyOnWriteArrayList<>();
+        List<String> errors = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        for (int device = 0; device < DEVICES; device++) {
+            String key = "device-" + device;
+            AtomicInteger deviceProcessed = new AtomicInteger();
+            ConnectionMailbox packetProcessor = new ConnectionMailbox(executor, key);
+            processed.add(deviceProcessed);
+            executor.schedule(() -> {
+                // Simulated blocking name lookup
+                block(running, maxConcurrency, 10);
+                for (int packet = 0; packet < PACKETS_PER_DEVICE; packet++) {
+                    int expected = packet;
+                    packetProcessor.execute(PacketLane.STATE, () -> {
+                        // Simulated blocking callback, packets of a device must be processed in order
+                        block(running, maxConcurrency, 1);
+                        if (deviceProcessed.getAndIncrement() != expected) {
+                            errors.add(key + " processed packet " + expected + " out of order");
+                        }
+                        if (expected == PACKETS_PER_DEVICE - 1) {
+                            done.countDown();
+                        }
+                    });
+                }
+            }, 0, TimeUnit.MILLISECONDS, "[" + key + "] Connect", TaskCategory.CONNECT);
+        }
+
+        assertTrue(done.await(60, TimeUnit.SECONDS), "Not all devices completed");
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("{} devices completed in {}ms with a pool of {} {} threads, max concurrency {}", DEVICES, elapsedMs,
+                poolSize, mode, maxConcurrency.get());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(List.of(), errors);
+        processed.forEach(count -> assertEquals(PACKETS_PER_DEVICE, count.get()));
+        return new SoakResult(elapsedMs, maxConcurrency.get());
+    }
+
+    private static MonitoredCompositeExecutorService newExecutor(ThreadFactory threadFactory, int poolSize) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize, poolSize, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        return new MonitoredCompositeExecutorService(Executors.newScheduledThreadPool(1), threadPool, 1000);
+    }
+
+    private static void block(AtomicInteger running, AtomicInteger maxConcurrency, long millis) {
+        maxConcurrency.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private record SoakResult(long elapsedMs, int maxConcurrency) {
+    }
+}
@@ -0,0 +1,72 @@
+package no.seime.openhab.binding.esphome.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getMeanMicros());
+    }
+
+    @Test
+    void bucketsAreContiguousWithBoundedError() {
+        long previousUpperBound = -1;
+        for (int i = 0; i < LatencyHistogram.NUM_BUCKETS; i++) {
+            long upperBound = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpperBound + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upperBound));
+            assertTrue(upperBound - previousUpperBound - 1 <= (previousUpperBound + 1) / 8, "bucket " + i);
+            previousUpperBound = upperBound;
+        }
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentilesFollowRecordedDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+
+        long median = histogram.getPercentileMicros(50);
+        assertTrue(median >= 5000 && median <= 5000 * 1.125, "median " + median);
+        assertTrue(histogram.getPercentileMicros(99) <= 5000 * 1.125);
+        assertEquals(500_000, histogram.getPercentileMicros(100));
+        assertEquals(500_000, histogram.getMaxMicros());
+        assertEquals(9950, histogram.getMeanMicros());
+
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    void recordsConcurrently() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMaxMicros());
+    }
+}
@@ -1,11 +1,16 @@
 package no.seime.openhab.binding.esphome.internal;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
 
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.StackCapturePolicy;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskCategory;
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService.TaskMetrics;
+
 public class MonitoredScheduledThreadpoolExecutorTest {
     @Test
     public void test() throws InterruptedException {
@@ -23,4 +28,127 @@ public class MonitoredScheduledThreadpoolExecutorTest {
         executor.shutdown();
         executor.awaitTermination(10, TimeUnit.SECONDS);
     }
+
+    @Test
+    public void runsTasksWithEveryStackCapturePolicy() throws InterruptedException {
+        MonitoredCompositeExecutorService executor = new MonitoredCompositeExecutorService(
+                Executors.newScheduledThreadPool(1), (ThreadPoolExecutor) Executors.newCachedThreadPool(), 10);
+
+        for (StackCapturePolicy policy : StackCapturePolicy.values()) {
+            executor.setStackCapturePolicy(policy, 2);
+            CountDownLatch latch = new CountDownLatch(4);
+            for (int i = 0; i < 2; i++) {
+                // Slow task, reported and captured on subsequent submissions when on-demand
+                executor.execute(() -> {
+                    sleep(20);
+                    latch.countDown();
+                });
+                executor.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS, "Delayed task");
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS), policy.toString());
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> executor.setStackCapturePolicy(StackCapturePolicy.SAMPLED, 0));
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void capturesStackOnlyForRecentlySlowTasks() throws Exception {
+        MonitoredCompositeExecutorService executor = new MonitoredCompositeExecutorService(
+                Executors.newScheduledThreadPool(1), (ThreadPoolExecutor) Executors.newCachedThreadPool(), 10);
+        executor.setStackCapturePolicy(StackCapturePolicy.ON_DEMAND, 1);
+        AtomicBoolean slow = new AtomicBoolean(true);
+        Runnable task = () -> {
+            if (slow.get()) {
+                sleep(20);
+            }
+        };
+
+        executor.schedule(task, 0, TimeUnit.MILLISECONDS, "[garage] Connect").get(5, TimeUnit.SECONDS);
+        assertTrue(executor.isSuspectTask(task.getClass(), "[garage] Connect"));
+        // The same task type submitted for another device is not suspect
+        assertFalse(executor.isSuspectTask(task.getClass(), "[kitchen] Connect"));
+
+        slow.set(false);
+        for (int i = 0; i < 32; i++) {
+            executor.schedule(task, 0, TimeUnit.MILLISECONDS, "[garage] Connect").get(5, TimeUnit.SECONDS);
+        }
+        assertFalse(executor.isSuspectTask(task.getClass(), "[garage] Connect"));
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void recordsMetricsPerTaskCategory() throws InterruptedException {
+        MonitoredCompositeExecutorService executor = new MonitoredCompositeExecutorService(
+                Executors.newScheduledThreadPool(1), (ThreadPoolExecutor) Executors.newCachedThreadPool(), 1000);
+
+        CountDownLatch latch = new CountDownLatch(3);
+        executor.executor(TaskCategory.PACKET_PROCESSING).execute(latch::countDown);
+        executor.executor(TaskCategory.PACKET_PROCESSING).execute(() -> {
+            sleep(20);
+            latch.countDown();
+        });
+        executor.schedule(latch::countDown, 10, TimeUnit.MILLISECONDS, "Ping timeout", TaskCategory.PING);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        TaskMetrics packetProcessing = executor.getTaskMetrics().get(TaskCategory.PACKET_PROCESSING);
+        assertEquals(2, packetProcessing.getRunTime().getCount());
+        assertEquals(2, packetProcessing.getQueueWait().getCount());
+        assertTrue(packetProcessing.getRunTime().getMaxMicros() >= 20_000);
+        TaskMetrics ping = executor.getTaskMetrics().get(TaskCategory.PING);
+        assertEquals(1, ping.getRunTime().getCount());
+        // The delay is not counted as queue wait
+        assertTrue(ping.getQueueWait().getMaxMicros() < 10_000);
+        assertEquals(0, executor.getTaskMetrics().get(TaskCategory.CONNECT).getRunTime().getCount());
+
+        executor.resetTaskMetrics();
+        assertEquals(0, packetProcessing.getRunTime().getCount());
+    }
+
+    @Test
+    public void countsRejectedTasks() throws InterruptedException {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1));
+        MonitoredCompositeExecutorService executor = new MonitoredCompositeExecutorService(
+                Executors.newScheduledThreadPool(1), threadPool, 1000);
+        CountDownLatch release = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, TaskCategory.CONNECT);
+        executor.execute(() -> {
+        }, TaskCategory.CONNECT);
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {
+        }, TaskCategory.CONNECT));
+        assertThrows(RejectedExecutionException.class,
+                () -> executor.schedule(() -> {
+                }, 0, TimeUnit.SECONDS, "Version fetch", TaskCategory.VERSION_FETCH));
+        release.countDown();
+
+        assertEquals(1, executor.getTaskMetrics().get(TaskCategory.CONNECT).getRejectedCount());
+        assertEquals(1, executor.getTaskMetrics().get(TaskCategory.VERSION_FETCH).getRejectedCount());
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdvertisementDedupCacheTest {
+
+    private static final long EXPIRY = TimeUnit.SECONDS.toNanos(5);
+
+    private final AdvertisementDedupCache cache = new AdvertisementDedupCache(EXPIRY);
+
+    @Test
+    public void detectsDuplicateWithinExpiry() {
+        assertFalse(isDuplicate(0x1234567890FFL, "payload", 0));
+        assertTrue(isDuplicate(0x1234567890FFL, "payload", EXPIRY - 1));
+        // Expiry counts from the last processed advertisement, not the last duplicate
+        assertFalse(isDuplicate(0x1234567890FFL, "payload", EXPIRY));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void changedPayloadIsNotDuplicate() {
+        assertFalse(isDuplicate(1, "payload", 0));
+        assertFalse(isDuplicate(1, "changed", 1));
+        assertFalse(isDuplicate(1, "payload", 2));
+        assertFalse(isDuplicate(2, "payload", 3));
+    }
+
+    @Test
+    public void comparesLengthWhenHashesCollide() {
+        assertFalse(cache.isDuplicate(1, 42, 10, 0));
+        assertFalse(cache.isDuplicate(1, 42, 12, 1));
+        // Only the hash and length are kept, so a payload with both the same counts as a duplicate
+        assertTrue(cache.isDuplicate(1, 42, 12, 2));
+    }
+
+    @Test
+    public void growsAndPurgesExpiredEntries() {
+        for (int address = 0; address < 10000; address++) {
+            assertFalse(isDuplicate(address, "payload", 0));
+        }
+        assertEquals(10000, cache.size());
+        for (int address = 0; address < 10000; address++) {
+            assertTrue(isDuplicate(address, "payload", 1), "address " + address);
+        }
+
+        for (int address = 10000; address < 30000; address++) {
+            assertFalse(isDuplicate(address, "payload", EXPIRY));
+        }
+        assertEquals(20000, cache.size());
+        assertFalse(isDuplicate(0, "payload", EXPIRY));
+    }
+
+    @Test
+    public void startsOverWhenFull() {
+        for (int address = 0; address < 100000; address++) {
+            assertFalse(isDuplicate(address, "payload", 0));
+        }
+        assertTrue(cache.size() < 1 << 16);
+        assertTrue(isDuplicate(99999, "payload", 1));
+    }
+
+    private boolean isDuplicate(long address, String payload, long nanos) {
+        return cache.isDuplicate(address, payload.hashCode(), payload.length(), nanos);
+    }
+}
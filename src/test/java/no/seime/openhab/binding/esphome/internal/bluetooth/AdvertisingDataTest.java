@@ -0,0 +1,48 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HexFormat;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+public class AdvertisingDataTest {
+
+    @Test
+    public void readsNameManufacturerAndServiceData() {
+        // Flags, complete local name "ATC", manufacturer 0x004C with data 0x0215, BTHome service data 0xFCD2
+        AdvertisingData data = parse("020106" + "0409415443" + "05ff4c000215" + "0516d2fc4001");
+
+        assertEquals("ATC", data.getLocalName());
+        assertEquals(0x004C, data.getManufacturerId());
+        assertEquals(ByteString.copyFrom(HexFormat.of().parseHex("4c000215")), data.getManufacturerData());
+        Map<String, ByteString> serviceData = data.getServiceData();
+        assertEquals(1, serviceData.size());
+        assertEquals(ByteString.copyFrom(HexFormat.of().parseHex("4001")),
+                serviceData.get("0000fcd2-0000-1000-8000-00805f9b34fb"));
+    }
+
+    @Test
+    public void fallsBackToShortenedName() {
+        assertEquals("AT", parse("03084154").getLocalName());
+        assertEquals("ATC", parse("03084154" + "0409415443").getLocalName());
+    }
+
+    @Test
+    public void handlesMissingAndTruncatedStructures() {
+        AdvertisingData data = parse("020106" + "05ff4c00");
+
+        assertNull(data.getLocalName());
+        assertEquals(-1, data.getManufacturerId());
+        assertTrue(data.getServiceData().isEmpty());
+        assertNull(parse("").getLocalName());
+        assertNull(parse("00" + "0409415443").getLocalName());
+    }
+
+    private static AdvertisingData parse(String hex) {
+        return new AdvertisingData(ByteString.copyFrom(HexFormat.of().parseHex(hex)));
+    }
+}
@@ -0,0 +1,52 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.Test;
+
+import no.seime.openhab.binding.esphome.internal.handler.ESPHomeHandler;
+
+public class BluetoothProxyRegistryTest {
+
+    private final BluetoothProxyRegistry registry = new BluetoothProxyRegistry();
+    private final ESPHomeBluetoothProxyHandler kitchenBridge = mock(ESPHomeBluetoothProxyHandler.class);
+    private final ESPHomeBluetoothProxyHandler garageBridge = mock(ESPHomeBluetoothProxyHandler.class);
+    private final ESPHomeHandler device = mock(ESPHomeHandler.class);
+
+    @Test
+    public void addsOnlineDeviceToEveryBridge() {
+        registry.addProxyHandler(kitchenBridge);
+        registry.addProxyHandler(garageBridge);
+
+        registry.handlerOnline(device);
+
+        verify(kitchenBridge).addESPHomeHandler(device);
+        verify(garageBridge).addESPHomeHandler(device);
+    }
+
+    @Test
+    public void removesOfflineDeviceFromEveryBridge() {
+        registry.addProxyHandler(kitchenBridge);
+        registry.addProxyHandler(garageBridge);
+        registry.handlerOnline(device);
+
+        registry.handlerOffline(device);
+
+        verify(kitchenBridge).removeESPHomeHandler(device);
+        verify(garageBridge).removeESPHomeHandler(device);
+    }
+
+    @Test
+    public void ignoresRemovedBridges() {
+        registry.addProxyHandler(kitchenBridge);
+        registry.addProxyHandler(garageBridge);
+        registry.removeProxyHandler(garageBridge);
+
+        registry.handlerOnline(device);
+        registry.handlerOffline(device);
+
+        verify(kitchenBridge).addESPHomeHandler(device);
+        verify(kitchenBridge).removeESPHomeHandler(device);
+        verifyNoInteractions(garageBridge);
+    }
+}
@@ -0,0 +1,38 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class BluetoothUuidCacheTest {
+
+    @Test
+    void returnsSameInstanceForRepeatedShortUuid() {
+        UUID uuid = BluetoothUuidCache.toUuid(0x181C);
+
+        assertEquals(UUID.fromString("0000181c-0000-1000-8000-00805f9b34fb"), uuid);
+        assertSame(uuid, BluetoothUuidCache.toUuid(0x181C));
+        assertSame(BluetoothUuidCache.toUuidString(0x181C), BluetoothUuidCache.toUuidString(0x181C));
+    }
+
+    @Test
+    void replacesCollidingEntry() {
+        // Both map to the same slot
+        UUID first = BluetoothUuidCache.toUuid(0x0101);
+        UUID second = BluetoothUuidCache.toUuid(0x0201);
+
+        assertEquals(UUID.fromString("00000101-0000-1000-8000-00805f9b34fb"), first);
+        assertEquals(UUID.fromString("00000201-0000-1000-8000-00805f9b34fb"), second);
+        assertEquals(first, BluetoothUuidCache.toUuid(0x0101));
+    }
+
+    @Test
+    void expandsLegacyUuidStrings() {
+        assertEquals("0000fcd2-0000-1000-8000-00805f9b34fb", BluetoothUuidCache.toUuidString("0xFCD2"));
+        assertEquals("12345678-0000-1000-8000-00805f9b34fb", BluetoothUuidCache.toUuidString("0x12345678"));
+        assertEquals("0000fe95-0000-1000-8000-00805f9b34fb",
+                BluetoothUuidCache.toUuidString("0000FE95-0000-1000-8000-00805F9B34FB"));
+    }
+}
@@ -1,10 +1,21 @@
 package no.seime.openhab.binding.esphome.internal.bluetooth;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
+import org.openhab.binding.bluetooth.BluetoothAddress;
+import org.openhab.binding.bluetooth.BluetoothService;
+import org.openhab.core.thing.ThingUID;
+
+import io.esphome.api.BluetoothGATTCharacteristic;
+import io.esphome.api.BluetoothGATTDescriptor;
+import io.esphome.api.BluetoothGATTGetServicesDoneResponse;
+import io.esphome.api.BluetoothGATTGetServicesResponse;
+import io.esphome.api.BluetoothGATTService;
 
 public class ESPHomeBluetoothDeviceTest {
 
@@ -19,4 +30,89 @@ public class ESPHomeBluetoothDeviceTest {
         assertEquals(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb"),
                 ESPHomeBluetoothDevice.to128BitUUID(0x12345678L));
     }
+
+    @Test
+    void limitsNotificationsToOnePerInterval() {
+        ESPHomeBluetoothDevice device = createDevice();
+        long interval = TimeUnit.SECONDS.toNanos(1);
+
+        assertTrue(device.isNotificationDue(1, 100, interval, false));
+        assertFalse(device.isNotificationDue(2, 100 + interval / 2, interval, false));
+        assertTrue(device.isNotificationDue(2, 100 + interval, interval, false));
+    }
+
+    @Test
+    void passesOnChangedPayloadBeforeInterval() {
+        ESPHomeBluetoothDevice device = createDevice();
+        long interval = TimeUnit.SECONDS.toNanos(1);
+
+        assertTrue(device.isNotificationDue(1, 100, interval, true));
+        assertFalse(device.isNotificationDue(1, 110, interval, true));
+        assertTrue(device.isNotificationDue(2, 120, interval, true));
+        assertFalse(device.isNotificationDue(2, 130, interval, true));
+    }
+
+    @Test
+    void buildsOneServicePerGattService() {
+        ESPHomeBluetoothDevice device = createDevice();
+
+        BluetoothGATTCharacteristic batteryLevel = BluetoothGATTCharacteristic.newBuilder().setHandle(11)
+                .setShortUuid(0x2A19)
+                .addDescriptors(BluetoothGATTDescriptor.newBuilder().setHandle(12).setShortUuid(0x2902).build())
+                .build();
+        BluetoothGATTCharacteristic batteryLevelState = BluetoothGATTCharacteristic.newBuilder().setHandle(13)
+                .setShortUuid(0x2A1A).build();
+        device.handleGattServicesMessage(BluetoothGATTGetServicesResponse.newBuilder()
+                .addServices(BluetoothGATTService.newBuilder().setHandle(10).setShortUuid(0x180F)
+                        .addCharacteristics(batteryLevel).addCharacteristics(batteryLevelState).build())
+                .build());
+
+        assertEquals(1, device.getServices().size());
+        BluetoothService service = device.getServices(ESPHomeBluetoothDevice.to128BitUUID(0x180F));
+        assertNotNull(service);
+        assertEquals(10, service.getHandleStart());
+        assertEquals(13, service.getHandleEnd());
+        assertEquals(2, service.getCharacteristics().size());
+        assertNotNull(device.getCharacteristic(ESPHomeBluetoothDevice.to128BitUUID(0x2A1A)));
+    }
+
+    @Test
+    void reusesServicesOnlyThroughSameProxyWithinTtl() {
+        ESPHomeBluetoothDevice device = createDevice();
+        ThingUID garage = new ThingUID("esphome:device:garage");
+
+        long now = System.nanoTime();
+        assertFalse(device.prepareConnection(garage, now));
+        resolveBatteryService(device);
+
+        assertTrue(device.prepareConnection(garage, now));
+        assertFalse(device.prepareConnection(garage, now + TimeUnit.HOURS.toNanos(2)));
+        assertTrue(device.getServices().isEmpty());
+    }
+
+    @Test
+    void discoversServicesAgainThroughOtherProxy() {
+        ESPHomeBluetoothDevice device = createDevice();
+        ThingUID garage = new ThingUID("esphome:device:garage");
+        ThingUID kitchen = new ThingUID("esphome:device:kitchen");
+
+        device.prepareConnection(garage, System.nanoTime());
+        resolveBatteryService(device);
+
+        assertFalse(device.prepareConnection(kitchen, System.nanoTime()));
+        assertTrue(device.getServices().isEmpty());
+        assertFalse(device.prepareConnection(garage, System.nanoTime()));
+    }
+
+    private void resolveBatteryService(ESPHomeBluetoothDevice device) {
+        device.handleGattServicesMessage(BluetoothGATTGetServicesResponse.newBuilder()
+                .addServices(BluetoothGATTService.newBuilder().setHandle(10).setShortUuid(0x180F).build()).build());
+        device.handleGattServicesDoneMessage(BluetoothGATTGetServicesDoneResponse.newBuilder().build());
+        assertEquals(1, device.getServices().size());
+    }
+
+    private ESPHomeBluetoothDevice createDevice() {
+        return new ESPHomeBluetoothDevice(mock(ESPHomeBluetoothProxyHandler.class),
+                new BluetoothAddress("AA:BB:CC:DD:EE:FF"));
+    }
 }
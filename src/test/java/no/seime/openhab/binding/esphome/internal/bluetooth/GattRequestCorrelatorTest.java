@@ -0,0 +1,91 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import no.seime.openhab.binding.esphome.internal.bluetooth.GattRequestCorrelator.Operation;
+
+public class GattRequestCorrelatorTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final GattRequestCorrelator correlator = new GattRequestCorrelator(Runnable::run, scheduler, 5,
+            TimeUnit.SECONDS);
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void completesPipelinedRequestsInOrder() throws Exception {
+        CompletableFuture<byte[]> first = correlator.register(42, Operation.READ);
+        CompletableFuture<byte[]> second = correlator.register(42, Operation.READ);
+        CompletableFuture<byte[]> write = correlator.register(42, Operation.WRITE);
+        CompletableFuture<byte[]> otherHandle = correlator.register(43, Operation.READ);
+        assertEquals(4, correlator.getPendingCount());
+
+        assertTrue(correlator.complete(43, Operation.READ, new byte[] { 3 }));
+        assertTrue(correlator.complete(42, Operation.WRITE, new byte[0]));
+        assertTrue(correlator.complete(42, Operation.READ, new byte[] { 1 }));
+        assertTrue(correlator.complete(42, Operation.READ, new byte[] { 2 }));
+
+        assertArrayEquals(new byte[] { 1 }, first.get());
+        assertArrayEquals(new byte[] { 2 }, second.get());
+        assertTrue(write.isDone());
+        assertArrayEquals(new byte[] { 3 }, otherHandle.get());
+        assertEquals(0, correlator.getPendingCount());
+        assertFalse(correlator.complete(42, Operation.READ, new byte[0]));
+    }
+
+    @Test
+    public void errorFailsOldestRequestForHandle() {
+        CompletableFuture<byte[]> write = correlator.register(42, Operation.WRITE);
+        CompletableFuture<byte[]> read = correlator.register(42, Operation.READ);
+
+        assertTrue(correlator.fail(42, new IOException("GATT error")));
+
+        ExecutionException e = assertThrows(ExecutionException.class, write::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertFalse(read.isDone());
+        assertFalse(correlator.fail(43, new IOException("GATT error")));
+    }
+
+    @Test
+    public void timesOutRequestsWithoutResponseOnCallbackExecutor() throws Exception {
+        ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(task -> new Thread(task, "callback"));
+        GattRequestCorrelator correlator = new GattRequestCorrelator(callbackExecutor, scheduler, 50,
+                TimeUnit.MILLISECONDS);
+        CompletableFuture<byte[]> read = correlator.register(42, Operation.READ);
+        CompletableFuture<String> callback = read
+                .handle((data, error) -> Thread.currentThread().getName() + " " + error.getClass().getSimpleName());
+
+        // Wait for the callback rather than the request, a thread waiting for the request may run the callback itself
+        assertEquals("callback TimeoutException", callback.get(5, TimeUnit.SECONDS));
+        assertTrue(read.isCompletedExceptionally());
+        assertEquals(0, correlator.getPendingCount());
+        assertFalse(correlator.complete(42, Operation.READ, new byte[0]));
+        callbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void failsAllPendingRequests() {
+        CompletableFuture<byte[]> read = correlator.register(42, Operation.READ);
+        CompletableFuture<byte[]> notify = correlator.register(43, Operation.NOTIFY);
+
+        correlator.failAll(new IOException("Device disconnected"));
+
+        assertTrue(read.isCompletedExceptionally());
+        assertTrue(notify.isCompletedExceptionally());
+        assertEquals(0, correlator.getPendingCount());
+    }
+}
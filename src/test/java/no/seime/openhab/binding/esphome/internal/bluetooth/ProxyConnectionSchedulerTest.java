@@ -0,0 +1,106 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openhab.core.thing.ThingUID;
+
+import no.seime.openhab.binding.esphome.internal.bluetooth.ProxyConnectionScheduler.Placement;
+
+public class ProxyConnectionSchedulerTest {
+
+    private final ThingUID kitchen = new ThingUID("esphome:device:kitchen");
+    private final ThingUID garage = new ThingUID("esphome:device:garage");
+    private final List<ThingUID> proxies = List.of(kitchen, garage);
+
+    private final ProxySignalTable signals = new ProxySignalTable();
+    private final ProxyConnectionScheduler scheduler = new ProxyConnectionScheduler(signals);
+
+    @Test
+    public void placesOnStrongestProxyWithFreeSlot() {
+        signals.update(1, kitchen, -60, 0);
+        signals.update(1, garage, -70, 0);
+        scheduler.updateSlots(kitchen, 0);
+        scheduler.updateSlots(garage, 3);
+
+        scheduler.request(1);
+
+        assertEquals(List.of(new Placement(1, garage)), scheduler.placeWaiting(proxies, 0));
+        assertFalse(scheduler.isWaiting(1));
+    }
+
+    @Test
+    public void prefersProxyWithMoreFreeSlotsAndFewerErrors() {
+        signals.update(1, kitchen, -60, 0);
+        signals.update(1, garage, -64, 0);
+        scheduler.updateSlots(kitchen, 1);
+        scheduler.updateSlots(garage, 3);
+
+        scheduler.request(1);
+        assertEquals(List.of(new Placement(1, garage)), scheduler.placeWaiting(proxies, 0));
+
+        scheduler.updateSlots(garage, 1);
+        scheduler.recordConnectionError(kitchen, 0);
+        signals.update(2, kitchen, -60, 0);
+        signals.update(2, garage, -65, 0);
+        scheduler.request(2);
+        assertEquals(List.of(new Placement(2, garage)), scheduler.placeWaiting(proxies, 0));
+    }
+
+    @Test
+    public void queuesUntilSlotIsFree() {
+        signals.update(1, kitchen, -60, 0);
+        signals.update(2, kitchen, -60, 0);
+        signals.update(3, garage, -60, 0);
+        scheduler.updateSlots(kitchen, 1);
+        scheduler.updateSlots(garage, 1);
+
+        scheduler.request(1);
+        scheduler.request(2);
+        scheduler.request(3);
+        // 2 waits for kitchen, but does not hold back 3 on garage
+        assertEquals(List.of(new Placement(1, kitchen), new Placement(3, garage)),
+                scheduler.placeWaiting(proxies, 0));
+        assertTrue(scheduler.isWaiting(2));
+        assertEquals(List.of(), scheduler.placeWaiting(proxies, 0));
+
+        scheduler.updateSlots(kitchen, 1);
+        assertEquals(List.of(new Placement(2, kitchen)), scheduler.placeWaiting(proxies, 0));
+    }
+
+    @Test
+    public void retriesFailedConnectionOnAnotherProxy() {
+        signals.update(1, kitchen, -60, 0);
+        signals.update(1, garage, -65, 0);
+        scheduler.updateSlots(kitchen, 1);
+        scheduler.updateSlots(garage, 1);
+
+        scheduler.request(1);
+        assertEquals(List.of(new Placement(1, kitchen)), scheduler.placeWaiting(proxies, 0));
+
+        scheduler.updateSlots(kitchen, 1);
+        scheduler.recordConnectionError(kitchen, 0);
+        assertTrue(scheduler.retry(1));
+        assertEquals(List.of(new Placement(1, garage)), scheduler.placeWaiting(proxies, 0));
+
+        scheduler.updateSlots(garage, 1);
+        assertTrue(scheduler.retry(1));
+        scheduler.placeWaiting(proxies, 0);
+        // Gives up after three attempts
+        assertFalse(scheduler.retry(1));
+        assertFalse(scheduler.isWaiting(1));
+    }
+
+    @Test
+    public void ignoresProxiesThatHaveNotHeardDevice() {
+        signals.update(1, kitchen, -60, 0);
+
+        scheduler.request(1);
+        assertEquals(List.of(), scheduler.placeWaiting(List.of(garage), 0));
+
+        scheduler.cancel(1);
+        assertEquals(List.of(), scheduler.placeWaiting(proxies, 0));
+    }
+}
@@ -0,0 +1,102 @@
+package no.seime.openhab.binding.esphome.internal.bluetooth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.openhab.core.thing.ThingUID;
+
+public class ProxySignalTableTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ThingUID kitchen = new ThingUID("esphome:device:kitchen");
+    private final ThingUID garage = new ThingUID("esphome:device:garage");
+
+    private final ProxySignalTable table = new ProxySignalTable(3);
+
+    @Test
+    public void picksStrongestSignal() {
+        table.update(1, kitchen, -80, 0);
+        table.update(1, garage, -60, 0);
+        assertEquals(garage, table.getNearestProxy(1, 0));
+
+        table.update(1, garage, -90, 0);
+        assertEquals(kitchen, table.getNearestProxy(1, 0));
+        assertNull(table.getNearestProxy(2, 0));
+    }
+
+    @Test
+    public void olderSightingsDecay() {
+        table.update(1, garage, -60, 0);
+        table.update(1, kitchen, -70, 4 * SECOND);
+        assertEquals(garage, table.getNearestProxy(1, 4 * SECOND));
+        // garage is now penalized 12 dB, the new sighting by kitchen none
+        table.update(1, kitchen, -70, 6 * SECOND);
+        assertEquals(kitchen, table.getNearestProxy(1, 6 * SECOND));
+
+        assertNull(table.getNearestProxy(1, 6 * SECOND + ProxySignalTable.STALE_NANOS));
+    }
+
+    @Test
+    public void evictsLeastRecentlySeenAddress() {
+        table.update(1, kitchen, -60, 0);
+        table.update(2, kitchen, -60, 0);
+        table.update(3, kitchen, -60, 0);
+        table.update(1, kitchen, -60, 1);
+        table.update(4, kitchen, -60, 2);
+
+        assertEquals(3, table.size());
+        assertNull(table.getNearestProxy(2, 2));
+        assertEquals(kitchen, table.getNearestProxy(1, 2));
+    }
+
+    @Test
+    public void sweepsStaleAddressesWhenFull() {
+        table.update(1, kitchen, -60, 0);
+        table.update(2, kitchen, -60, 0);
+        table.update(3, kitchen, -60, ProxySignalTable.STALE_NANOS);
+        table.update(4, kitchen, -60, ProxySignalTable.STALE_NANOS);
+
+        assertEquals(2, table.size());
+        assertEquals(kitchen, table.getNearestProxy(3, ProxySignalTable.STALE_NANOS));
+        assertEquals(kitchen, table.getNearestProxy(4, ProxySignalTable.STALE_NANOS));
+    }
+
+    @Test
+    public void findsRemainingAddressesAfterEvictions() {
+        ProxySignalTable large = new ProxySignalTable(100);
+        for (long address = 0; address < 1000; address++) {
+            large.update(address * 7919, kitchen, -60, address);
+        }
+
+        assertEquals(100, large.size());
+        for (long address = 0; address < 1000; address++) {
+            assertEquals(address >= 900 ? kitchen : null, large.getNearestProxy(address * 7919, 1000),
+                    "address " + address);
+        }
+    }
+
+    @Test
+    public void removedProxyIsForgotten() {
+        table.update(1, kitchen, -80, 0);
+        table.update(1, garage, -60, 0);
+        table.removeProxy(garage);
+        assertEquals(kitchen, table.getNearestProxy(1, 0));
+
+        // The freed slot is reused without inheriting old sightings
+        ThingUID attic = new ThingUID("esphome:device:attic");
+        table.update(2, attic, -50, 0);
+        assertEquals(kitchen, table.getNearestProxy(1, 0));
+    }
+
+    @Test
+    public void ignoresSightingsWhenAllSlotsAreTaken() {
+        for (int i = 0; i < ProxySignalTable.MAX_PROXIES; i++) {
+            assertTrue(table.update(1, new ThingUID("esphome:device:proxy" + i), -90, 0));
+        }
+        assertFalse(table.update(1, kitchen, -30, 0));
+        assertNotEquals(kitchen, table.getNearestProxy(1, 0));
+    }
+}
@@ -0,0 +1,243 @@
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.Descriptors.Descriptor;
+
+import io.esphome.api.ApiOptions;
+import io.esphome.api.DisconnectRequest;
+import io.esphome.api.SensorStateResponse;
+
+public class ConnectionMailboxTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runsTasksInOrderWithConcurrentProducers() throws Exception {
+        ConnectionMailbox mailbox = new ConnectionMailbox(executor, 4, "test");
+        int producers = 4;
+        int tasksPerProducer = 1000;
+        List<List<Integer>> processed = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            processed.add(new ArrayList<>());
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < tasksPerProducer; i++) {
+                    int sequence = i;
+                    mailbox.execute(PacketLane.STATE, () -> {
+                        if (running.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        // Not synchronized, relies on the mailbox running one task at a time
+                        processed.get(producer).add(sequence);
+                        running.decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (List<Integer> sequences : processed) {
+            assertEquals(tasksPerProducer, sequences.size());
+            for (int i = 0; i < tasksPerProducer; i++) {
+                assertEquals(i, sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    void drainsBurstInBatches() {
+        List<Runnable> submitted = new ArrayList<>();
+        ConnectionMailbox mailbox = new ConnectionMailbox(submitted::add, 3, "test");
+        List<Integer> processed = new ArrayList<>();
+
+        for (int i = 0; i < 7; i++) {
+            int task = i;
+            mailbox.execute(PacketLane.STATE, () -> processed.add(task));
+        }
+        // One hand-off for the whole burst
+        assertEquals(1, submitted.size());
+
+        submitted.remove(0).run();
+        assertEquals(List.of(0, 1, 2), processed);
+        // Rescheduled since the batch was full
+        assertEquals(1, submitted.size());
+
+        submitted.remove(0).run();
+        submitted.remove(0).run();
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), processed);
+        assertTrue(submitted.isEmpty());
+        assertEquals(0, mailbox.size());
+    }
+
+    @Test
+    void continuesAfterFailingTask() {
+        List<Runnable> submitted = new ArrayList<>();
+        ConnectionMailbox mailbox = new ConnectionMailbox(submitted::add, "test");
+        List<Integer> processed = new ArrayList<>();
+
+        mailbox.execute(PacketLane.STATE, () -> {
+            throw new IllegalStateException("test");
+        });
+        mailbox.execute(PacketLane.STATE, () -> processed.add(1));
+        submitted.remove(0).run();
+
+        assertEquals(List.of(1), processed);
+        assertTrue(submitted.isEmpty());
+    }
+
+    @Test
+    void retriesAfterRejection() {
+        List<Runnable> submitted = new ArrayList<>();
+        AtomicInteger rejections = new AtomicInteger(1);
+        ConnectionMailbox mailbox = new ConnectionMailbox(task -> {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException("full");
+            }
+            submitted.add(task);
+        }, "test");
+        List<Integer> processed = new ArrayList<>();
+
+        assertThrows(RejectedExecutionException.class,
+                () -> mailbox.execute(PacketLane.STATE, () -> processed.add(1)));
+        mailbox.execute(PacketLane.STATE, () -> processed.add(2));
+        submitted.remove(0).run();
+
+        assertEquals(List.of(1, 2), processed);
+    }
+
+    @Test
+    void runsHigherPriorityLanesFirst() {
+        List<Runnable> submitted = new ArrayList<>();
+        ConnectionMailbox mailbox = new ConnectionMailbox(submitted::add, "test");
+        List<String> processed = new ArrayList<>();
+
+        mailbox.execute(PacketLane.BULK, () -> processed.add("advertisement"));
+        mailbox.execute(PacketLane.STATE, () -> processed.add("state 1"));
+        mailbox.execute(PacketLane.STATE, () -> processed.add("state 2"));
+        mailbox.execute(PacketLane.CONTROL, () -> processed.add("pong"));
+        submitted.remove(0).run();
+
+        assertEquals(List.of("pong", "state 1", "state 2", "advertisement"), processed);
+    }
+
+    @Test
+    void runsFirstTasksBeforeLanesInOrder() {
+        List<Runnable> submitted = new ArrayList<>();
+        ConnectionMailbox mailbox = new ConnectionMailbox(submitted::add, "test");
+        List<String> processed = new ArrayList<>();
+
+        mailbox.execute(PacketLane.CONTROL, () -> processed.add("pong"));
+        // Decoding a frame adds the decoded message to its lane
+        mailbox.executeFirst(() -> {
+            processed.add("decode 1");
+            mailbox.execute(PacketLane.STATE, () -> processed.add("state 1"));
+        });
+        mailbox.executeFirst(() -> {
+            processed.add("decode 2");
+            mailbox.execute(PacketLane.STATE, () -> processed.add("state 2"));
+        });
+        assertEquals(3, mailbox.size());
+        submitted.remove(0).run();
+
+        assertEquals(List.of("decode 1", "decode 2", "pong", "state 1", "state 2"), processed);
+        assertTrue(submitted.isEmpty());
+        assertEquals(0, mailbox.size());
+    }
+
+    @Test
+    void shedsFullLane() {
+        ConnectionMailbox mailbox = new ConnectionMailbox(task -> {
+        }, "test");
+
+        for (int i = 0; i < PacketLane.BULK.getCapacity(); i++) {
+            assertTrue(mailbox.execute(PacketLane.BULK, () -> {
+            }));
+        }
+
+        assertFalse(mailbox.execute(PacketLane.BULK, () -> {
+        }));
+        assertTrue(mailbox.execute(PacketLane.CONTROL, () -> {
+        }));
+        assertEquals(PacketLane.BULK.getCapacity(), mailbox.size(PacketLane.BULK));
+    }
+
+    @Test
+    void shedsLowerLanesWhenHigherLaneBacksUp() {
+        ConnectionMailbox mailbox = new ConnectionMailbox(task -> {
+        }, "test");
+
+        for (int i = 0; i <= PacketLane.STATE.getCapacity() / 2; i++) {
+            mailbox.execute(PacketLane.STATE, () -> {
+            });
+        }
+
+        assertFalse(mailbox.execute(PacketLane.BULK, () -> {
+        }));
+        assertTrue(mailbox.execute(PacketLane.STATE, () -> {
+        }));
+        assertTrue(mailbox.execute(PacketLane.CONTROL, () -> {
+        }));
+    }
+
+    @Test
+    void neverShedsStateOrControlLanes() {
+        ConnectionMailbox mailbox = new ConnectionMailbox(task -> {
+        }, "test");
+
+        for (int i = 0; i < PacketLane.CONTROL.getCapacity() * 2; i++) {
+            assertTrue(mailbox.execute(PacketLane.CONTROL, () -> {
+            }));
+        }
+        for (int i = 0; i < PacketLane.STATE.getCapacity() * 2; i++) {
+            assertTrue(mailbox.execute(PacketLane.STATE, () -> {
+            }));
+        }
+
+        assertEquals(PacketLane.STATE.getCapacity() * 2, mailbox.size(PacketLane.STATE));
+        assertFalse(mailbox.execute(PacketLane.BULK, () -> {
+        }));
+    }
+
+    @Test
+    void handlesDisconnectAfterPrecedingStateUpdates() {
+        List<Runnable> submitted = new ArrayList<>();
+        ConnectionMailbox mailbox = new ConnectionMailbox(submitted::add, "test");
+        List<String> processed = new ArrayList<>();
+
+        mailbox.execute(PacketLane.forMessageType(messageType(SensorStateResponse.getDescriptor())),
+                () -> processed.add("state 1"));
+        mailbox.execute(PacketLane.forMessageType(messageType(SensorStateResponse.getDescriptor())),
+                () -> processed.add("state 2"));
+        mailbox.execute(PacketLane.forMessageType(messageType(DisconnectRequest.getDescriptor())),
+                () -> processed.add("disconnect"));
+        submitted.remove(0).run();
+
+        assertEquals(List.of("state 1", "state 2", "disconnect"), processed);
+    }
+
+    private static int messageType(Descriptor descriptor) {
+        return descriptor.getOptions().getExtension(ApiOptions.id);
+    }
+}
@@ -0,0 +1,86 @@
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import no.seime.openhab.binding.esphome.internal.CommunicationListener;
+
+public class ESPHomeConnectionTest {
+
+    private static final String ENCRYPTION_KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private ConnectionSelector selector;
+    private ExecutorService packetExecutor;
+    private CommunicationListener listener;
+    private FrameHelper frameHelper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        selector = new ConnectionSelector();
+        selector.start();
+        packetExecutor = Executors.newSingleThreadExecutor();
+        listener = mock(CommunicationListener.class);
+        frameHelper = new FrameHelper(selector, listener, new NoiseFrameCodec(ENCRYPTION_KEY, null), "test",
+                packetExecutor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        frameHelper.close();
+        selector.stop();
+        packetExecutor.shutdownNow();
+    }
+
+    @Test
+    void firstReachableCandidateWins() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            frameHelper.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), closedPort()));
+            frameHelper.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+            frameHelper.candidatesComplete();
+
+            try (Socket accepted = server.accept()) {
+                // Noise hello frame is sent on the winning connection only
+                InputStream in = accepted.getInputStream();
+                assertEquals(FrameHelper.PROTOCOL_ENCRYPTED, in.read());
+            }
+            assertEquals(InetAddress.getLoopbackAddress().getHostAddress(), frameHelper.getRemoteIpAddress());
+            verify(listener, never()).onEndOfStream(anyString());
+        }
+    }
+
+    @Test
+    void reportsFailureWhenAllCandidatesFail() throws Exception {
+        frameHelper.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), closedPort()));
+        try {
+            frameHelper.candidatesComplete();
+        } catch (ProtocolException e) {
+            // All attempts already failed before the last candidate was added
+            return;
+        }
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() -> verify(listener).onEndOfStream(anyString()));
+        assertNull(frameHelper.getRemoteIpAddress());
+    }
+
+    private static int closedPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package no.seime.openhab.binding.esphome.internal.comm;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.esphome.api.HelloRequest;
+import no.seime.openhab.binding.esphome.internal.CommunicationListener;
+
+public class PlaintextFrameCodecTest {
+
+    private ConnectionSelector selector;
+    private ExecutorService packetExecutor;
+    private CommunicationListener listener;
+    private FrameHelper frameHelper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        selector = new ConnectionSelector();
+        packetExecutor = Executors.newSingleThreadExecutor();
+        listener = mock(CommunicationListener.class);
+        frameHelper = new FrameHelper(selector, listener, new PlaintextFrameCodec(), "test", packetExecutor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        selector.stop();
+        packetExecutor.shutdownNow();
+    }
+
+    @Test
+    void encodesVarintFramedMessage() throws Exception {
+        HelloRequest hello = HelloRequest.newBuilder().setClientInfo("openHAB").build();
+
+        ByteBuffer frame = frameHelper.encodeFrame(hello);
+
+        assertEquals(FrameHelper.PROTOCOL_PLAINTEXT, frame.get());
+        assertEquals(hello.getSerializedSize(), frame.get());
+        assertEquals(1, frame.get()); // HelloRequest id
+        assertEquals(hello.getSerializedSize(), frame.remaining());
+    }
+
+    @Test
+    void decodesFramesSplitAcrossReads() throws Exception {
+        HelloRequest hello = HelloRequest.newBuilder().setClientInfo("openHAB").build();
+        ByteBuffer first = frameHelper.encodeFrame(hello);
+        ByteBuffer second = frameHelper.encodeFrame(hello);
+        ByteBuffer data = ByteBuffer.allocate(first.remaining() + second.remaining());
+        data.put(first).put(second).flip();
+
+        // Deliver the second frame header in two parts
+        int split = data.limit() - second.limit() + 2;
+        frameHelper.processReceivedData(read(data, split));
+        frameHelper.processReceivedData(read(data, data.remaining()));
+
+        await().atMost(Duration.ofSeconds(2)).untilAsserted(() -> verify(listener, times(2)).onPacket(hello));
+        verify(listener, never()).onParseError(any());
+    }
+
+    @Test
+    void reportsEncryptedDevice() throws Exception {
+        frameHelper.processReceivedData(read(ByteBuffer.wrap(new byte[] { 1, 0, 0 }), 3));
+
+        verify(listener).onParseError(CommunicationError.DEVICE_REQUIRES_ENCRYPTION);
+    }
+
+    private static ByteBuffer read(ByteBuffer data, int length) {
+        ByteBuffer read = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            read.put(data.get());
+        }
+        return read;
+    }
+}
@@ -0,0 +1,124 @@
+package no.seime.openhab.binding.esphome.internal.discovery;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class AsyncHostnameResolverTest {
+
+    private ESPHomeMDNSHostnameResolver mdnsHostnameResolver;
+    private AsyncHostnameResolver resolver;
+    private final ConcurrentHashMap<String, InetAddress[]> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        mdnsHostnameResolver = mock(ESPHomeMDNSHostnameResolver.class);
+        when(mdnsHostnameResolver.resolve(anyString())).thenReturn(Optional.empty());
+        resolver = new AsyncHostnameResolver(mdnsHostnameResolver, this::lookup);
+    }
+
+    private InetAddress[] lookup(String hostname) throws UnknownHostException {
+        lookups.incrementAndGet();
+        InetAddress[] addresses = hosts.get(hostname);
+        if (addresses == null) {
+            throw new UnknownHostException(hostname);
+        }
+        return addresses;
+    }
+
+    @AfterEach
+    void tearDown() {
+        resolver.shutdown();
+    }
+
+    @Test
+    void resolvesLiteralAddressWithoutLookup() {
+        AsyncHostnameResolver.ResolvedHostname resolved = resolver.resolve("192.0.2.55").join();
+
+        assertEquals("192.0.2.55", resolved.ipAddress());
+        assertEquals(AsyncHostnameResolver.ResolutionSource.LITERAL, resolved.source());
+        verifyNoInteractions(mdnsHostnameResolver);
+    }
+
+    @Test
+    void prefersMdnsCache() {
+        when(mdnsHostnameResolver.resolve("device.local")).thenReturn(Optional.of("192.0.2.10"));
+
+        AsyncHostnameResolver.ResolvedHostname resolved = resolver.resolve("device.local").join();
+
+        assertEquals("192.0.2.10", resolved.ipAddress());
+        assertEquals(AsyncHostnameResolver.ResolutionSource.MDNS, resolved.source());
+    }
+
+    @Test
+    void cachesFailedLookups() throws Exception {
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> resolver.resolve("device.invalid").get(10, TimeUnit.SECONDS));
+        assertInstanceOf(UnknownHostException.class, error.getCause());
+
+        // Second attempt is answered from the negative cache without a new lookup
+        assertTrue(resolver.resolve("DEVICE.invalid").isDone());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void interleavesAddressFamiliesOfLookup() throws Exception {
+        hosts.put("device.lan", new InetAddress[] { InetAddress.getByName("192.0.2.10"),
+                InetAddress.getByName("192.0.2.11"), InetAddress.getByName("2001:db8::10") });
+
+        AsyncHostnameResolver.ResolvedHostname resolved = resolver.resolve("device.lan").get(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of("2001:db8:0:0:0:0:0:10", "192.0.2.10", "192.0.2.11"), resolved.ipAddresses());
+        assertEquals(AsyncHostnameResolver.ResolutionSource.DNS, resolved.source());
+    }
+
+    @Test
+    void looksUpAgainAfterInvalidate() throws Exception {
+        hosts.put("device.lan", new InetAddress[] { InetAddress.getByName("192.0.2.10") });
+        resolver.resolve("device.lan").get(10, TimeUnit.SECONDS);
+        assertEquals("192.0.2.10", resolver.resolve("device.lan").get(10, TimeUnit.SECONDS).ipAddress());
+        assertEquals(1, lookups.get());
+
+        hosts.put("device.lan", new InetAddress[] { InetAddress.getByName("192.0.2.20") });
+        resolver.invalidate("Device.lan");
+
+        assertEquals("192.0.2.20", resolver.resolve("device.lan").get(10, TimeUnit.SECONDS).ipAddress());
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void forgetsLookupThatCompletesOnCallingThread() throws Exception {
+        resolver.shutdown();
+        resolver = new AsyncHostnameResolver(mdnsHostnameResolver, this::lookup,
+                MoreExecutors.newDirectExecutorService());
+        hosts.put("device.lan", new InetAddress[] { InetAddress.getByName("192.0.2.10") });
+
+        assertEquals("192.0.2.10", resolver.resolve("device.lan").join().ipAddress());
+
+        // The completed lookup is no longer pending, so invalidating the cache leads to a new lookup
+        hosts.put("device.lan", new InetAddress[] { InetAddress.getByName("192.0.2.20") });
+        resolver.invalidate("device.lan");
+        assertEquals("192.0.2.20", resolver.resolve("device.lan").join().ipAddress());
+        assertEquals(2, lookups.get());
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> resolver.resolve("device.invalid").join());
+        assertInstanceOf(UnknownHostException.class, error.getCause());
+    }
+}
@@ -0,0 +1,101 @@
+package no.seime.openhab.binding.esphome.internal.handler;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import no.seime.openhab.binding.esphome.internal.MonitoredCompositeExecutorService;
+
+public class ConnectionAdmissionControllerTest {
+
+    private MonitoredCompositeExecutorService executor;
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        executor = new MonitoredCompositeExecutorService(Executors.newScheduledThreadPool(1),
+                (ThreadPoolExecutor) Executors.newCachedThreadPool(), 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void limitsConcurrentHandshakes() {
+        ConnectionAdmissionController controller = new ConnectionAdmissionController(executor, 2, 100, clock::get);
+
+        ConnectionAdmissionController.Ticket first = controller.submit("a", false, () -> started.add("a"));
+        controller.submit("b", false, () -> started.add("b"));
+        controller.submit("c", false, () -> started.add("c"));
+
+        await().atMost(Duration.ofSeconds(2)).until(() -> started.size() == 2);
+        assertEquals(List.of("a", "b"), started);
+        assertEquals(1, controller.getQueueSize());
+
+        first.release();
+
+        await().atMost(Duration.ofSeconds(2)).until(() -> started.size() == 3);
+        assertEquals(2, controller.getInFlight());
+    }
+
+    @Test
+    void limitsAttemptRate() {
+        ConnectionAdmissionController controller = new ConnectionAdmissionController(executor, 10, 1, clock::get);
+
+        controller.submit("a", false, () -> started.add("a")).release();
+        controller.submit("b", false, () -> started.add("b"));
+
+        await().atMost(Duration.ofSeconds(2)).until(() -> started.size() == 1);
+        assertEquals(1, controller.getQueueSize());
+
+        clock.addAndGet(1_000_000_000L);
+        controller.dispatch();
+
+        await().atMost(Duration.ofSeconds(2)).until(() -> started.size() == 2);
+    }
+
+    @Test
+    void admitsRecentlyOnlineDevicesFirst() {
+        ConnectionAdmissionController controller = new ConnectionAdmissionController(executor, 1, 100, clock::get);
+
+        ConnectionAdmissionController.Ticket blocker = controller.submit("blocker", false, () -> {
+        });
+        controller.submit("offline", false, () -> started.add("offline"));
+        controller.submit("recent", true, () -> started.add("recent"));
+
+        blocker.release();
+
+        await().atMost(Duration.ofSeconds(2)).until(() -> started.size() == 1);
+        assertEquals("recent", started.get(0));
+    }
+
+    @Test
+    void releasingQueuedTicketCancelsAttempt() {
+        ConnectionAdmissionController controller = new ConnectionAdmissionController(executor, 1, 100, clock::get);
+
+        ConnectionAdmissionController.Ticket blocker = controller.submit("blocker", false, () -> {
+        });
+        ConnectionAdmissionController.Ticket cancelled = controller.submit("cancelled", false,
+                () -> started.add("cancelled"));
+
+        cancelled.release();
+        blocker.release();
+
+        assertEquals(0, controller.getQueueSize());
+        assertEquals(0, controller.getInFlight());
+        assertTrue(started.isEmpty());
+    }
+}
@@ -0,0 +1,184 @@
+package no.seime.openhab.binding.esphome.internal.handler;
+
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.thing.ThingStatusDetail;
+import org.openhab.core.thing.binding.ThingHandlerCallback;
+import org.openhab.core.thing.internal.ThingImpl;
+import org.osgi.framework.BundleContext;
+
+import io.esphome.api.BluetoothScannerMode;
+import io.esphome.api.BluetoothScannerSetModeRequest;
+import io.esphome.api.BluetoothScannerState;
+import io.esphome.api.BluetoothScannerStateResponse;
+import no.seime.openhab.binding.esphome.internal.*;
+import no.seime.openhab.binding.esphome.internal.bluetooth.BluetoothProxyRegistry;
+import no.seime.openhab.binding.esphome.internal.comm.ConnectionSelector;
+import no.seime.openhab.binding.esphome.internal.comm.FrameHelper;
+import no.seime.openhab.binding.esphome.internal.discovery.AsyncHostnameResolver;
+import no.seime.openhab.binding.esphome.internal.discovery.ESPHomeMDNSHostnameResolver;
+import no.seime.openhab.binding.esphome.internal.message.statesubscription.ESPHomeEventSubscriber;
+
+@ExtendWith(MockitoExtension.class)
+class ESPHomeHandlerBluetoothScannerModeTest {
+
+    private static final BluetoothScannerSetModeRequest SET_ACTIVE = BluetoothScannerSetModeRequest.newBuilder()
+            .setMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE).build();
+    private static final BluetoothScannerSetModeRequest SET_PASSIVE = BluetoothScannerSetModeRequest.newBuilder()
+            .setMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE).build();
+
+    @Mock
+    private ESPChannelTypeProvider channelTypeProvider;
+    @Mock
+    private ESPStateDescriptionProvider stateDescriptionProvider;
+    @Mock
+    private ESPHomeEventSubscriber eventSubscriber;
+    @Mock
+    private EventPublisher eventPublisher;
+    @Mock
+    private BundleContext bundleContext;
+    @Mock
+    private ThingHandlerCallback callback;
+    @Mock
+    private ESPHomeMDNSHostnameResolver mdnsHostnameResolver;
+    @Mock
+    private FrameHelper frameHelper;
+
+    private ESPHomeHandler handler;
+    private MonitoredCompositeExecutorService executor;
+    private ExecutorService packetProcessorExecutor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ThingImpl thing = new ThingImpl(BindingConstants.THING_TYPE_DEVICE, "device");
+
+        executor = new MonitoredCompositeExecutorService(Executors.newScheduledThreadPool(1),
+                (ThreadPoolExecutor) Executors.newCachedThreadPool(), 1000);
+        packetProcessorExecutor = Executors.newSingleThreadExecutor();
+
+        handler = new ESPHomeHandler(thing, new ConnectionSelector(), channelTypeProvider, stateDescriptionProvider,
+                eventSubscriber, executor, packetProcessorExecutor, eventPublisher, null, bundleContext,
+                mock(ESPHomeVersionService.class), mock(FirmwareUpgradeService.class),
+                new AsyncHostnameResolver(mdnsHostnameResolver), new ConnectionAdmissionController(executor, 1, 10),
+                new BluetoothProxyRegistry());
+        handler.setCallback(callback);
+
+        setField("config", new ESPHomeConfiguration());
+        setField("frameHelper", frameHelper);
+        setField("bluetoothProxyStarted", true);
+        setConnectionState("CONNECTED");
+    }
+
+    @AfterEach
+    void tearDown() {
+        handler.dispose();
+        executor.shutdownNow();
+        packetProcessorExecutor.shutdownNow();
+    }
+
+    @Test
+    void restoresReportedModeAfterSwitchingToActive() throws Exception {
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE));
+
+        handler.setBluetoothScannerMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE);
+        // The device reports the new mode, which is not the one to restore
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE));
+        handler.stopListeningForBLEAdvertisements();
+
+        verify(frameHelper).send(SET_ACTIVE);
+        verify(frameHelper).send(SET_PASSIVE);
+    }
+
+    @Test
+    void doesNotRestoreModeThatWasNeverChanged() throws Exception {
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE));
+
+        handler.stopListeningForBLEAdvertisements();
+
+        verify(frameHelper, never()).send(SET_ACTIVE);
+        verify(frameHelper, never()).send(SET_PASSIVE);
+    }
+
+    @Test
+    void setsModeOnceDeviceReportedItsMode() throws Exception {
+        handler.setBluetoothScannerMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE);
+        verify(frameHelper, never()).send(SET_ACTIVE);
+
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE));
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE));
+        handler.stopListeningForBLEAdvertisements();
+
+        verify(frameHelper).send(SET_ACTIVE);
+        verify(frameHelper).send(SET_PASSIVE);
+    }
+
+    @Test
+    void doesNotSetModeThatIsAlreadyReported() throws Exception {
+        handler.setBluetoothScannerMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE);
+
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE));
+        handler.stopListeningForBLEAdvertisements();
+
+        verify(frameHelper, never()).send(SET_ACTIVE);
+        verify(frameHelper, never()).send(SET_PASSIVE);
+    }
+
+    @Test
+    void forgetsReportedModeWhenConnectionIsLost() throws Exception {
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_PASSIVE));
+        handler.setBluetoothScannerMode(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE);
+
+        ESPHomeConfiguration config = new ESPHomeConfiguration();
+        config.deepSleep = true;
+        setField("config", config);
+        Method handleDisconnection = ESPHomeHandler.class.getDeclaredMethod("handleDisconnection",
+                ThingStatusDetail.class, String.class);
+        handleDisconnection.setAccessible(true);
+        handleDisconnection.invoke(handler, ThingStatusDetail.COMMUNICATION_ERROR, "Connection lost");
+
+        // Reconnected, the device now reports the mode it was left in as its own
+        setField("frameHelper", frameHelper);
+        setField("bluetoothProxyStarted", true);
+        setConnectionState("CONNECTED");
+        handler.updateBluetoothScannerState(state(BluetoothScannerMode.BLUETOOTH_SCANNER_MODE_ACTIVE));
+        handler.stopListeningForBLEAdvertisements();
+
+        verify(frameHelper).send(SET_ACTIVE);
+        verify(frameHelper, never()).send(SET_PASSIVE);
+    }
+
+    private static BluetoothScannerStateResponse state(BluetoothScannerMode mode) {
+        return BluetoothScannerStateResponse.newBuilder()
+                .setState(BluetoothScannerState.BLUETOOTH_SCANNER_STATE_RUNNING).setMode(mode).build();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumConstant(Class<?> type, String name) {
+        return Enum.valueOf((Class<Enum>) type, name);
+    }
+
+    private void setConnectionState(String name) throws Exception {
+        Field connectionState = ESPHomeHandler.class.getDeclaredField("connectionState");
+        connectionState.setAccessible(true);
+        connectionState.set(handler, enumConstant(connectionState.getType(), name));
+    }
+
+    private void setField(String name, Object value) throws Exception {
+        Field field = ESPHomeHandler.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(handler, value);
+    }
+}
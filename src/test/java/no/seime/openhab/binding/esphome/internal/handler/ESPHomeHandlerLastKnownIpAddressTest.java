@@ -6,7 +6,9 @@ import static org.mockito.Mockito.*;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -19,16 +21,17 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.thing.ThingStatusDetail;
 import org.openhab.core.thing.binding.ThingHandlerCallback;
 import org.openhab.core.thing.internal.ThingImpl;
 import org.osgi.framework.BundleContext;
 
-import com.jano7.executor.KeySequentialExecutor;
-
 import io.esphome.api.DeviceInfoResponse;
 import no.seime.openhab.binding.esphome.internal.*;
+import no.seime.openhab.binding.esphome.internal.bluetooth.BluetoothProxyRegistry;
 import no.seime.openhab.binding.esphome.internal.comm.ConnectionSelector;
 import no.seime.openhab.binding.esphome.internal.comm.ProtocolAPIError;
+import no.seime.openhab.binding.esphome.internal.discovery.AsyncHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.discovery.ESPHomeMDNSHostnameResolver;
 import no.seime.openhab.binding.esphome.internal.message.statesubscription.ESPHomeEventSubscriber;
 
@@ -66,8 +69,10 @@ class ESPHomeHandlerLastKnownIpAddressTest {
         FirmwareUpgradeService firmwareUpgradeService = Mockito.mock(FirmwareUpgradeService.class);
 
         handler = new ESPHomeHandler(thing, new ConnectionSelector(), channelTypeProvider, stateDescriptionProvider,
-                eventSubscriber, executor, new KeySequentialExecutor(packetProcessorExecutor), eventPublisher, null,
-                bundleContext, mock(ESPHomeVersionService.class), firmwareUpgradeService, mdnsHostnameResolver);
+                eventSubscriber, executor, packetProcessorExecutor, eventPublisher, null, bundleContext,
+                mock(ESPHomeVersionService.class), firmwareUpgradeService,
+                new AsyncHostnameResolver(mdnsHostnameResolver), new ConnectionAdmissionController(executor, 1, 10),
+                new BluetoothProxyRegistry());
 
         setField("config", new ESPHomeConfiguration());
 
@@ -85,26 +90,23 @@ class ESPHomeHandlerLastKnownIpAddressTest {
     void fallsBackToCachedIpAddressWhenHostnameResolutionFails() throws Exception {
         thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, "127.0.0.1"));
 
-        Object target = invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class }, "device.invalid");
+        Object target = resolveConnectionTarget("device.invalid");
 
-        assertEquals("127.0.0.1", invokeRecordAccessor(target, "connectHost"));
-        assertEquals("127.0.0.1", invokeRecordAccessor(target, "ipAddress"));
+        assertEquals(List.of("127.0.0.1"), invokeRecordAccessor(target, "ipAddresses"));
     }
 
     @Test
     void fallsBackToTrimmedCachedIpAddressWhenHostnameResolutionFails() throws Exception {
         thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, " 127.0.0.1 "));
 
-        Object target = invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class }, "device.invalid");
+        Object target = resolveConnectionTarget("device.invalid");
 
-        assertEquals("127.0.0.1", invokeRecordAccessor(target, "connectHost"));
-        assertEquals("127.0.0.1", invokeRecordAccessor(target, "ipAddress"));
+        assertEquals(List.of("127.0.0.1"), invokeRecordAccessor(target, "ipAddresses"));
     }
 
     @Test
     void throwsWhenHostnameResolutionFailsWithoutCachedIpAddress() {
-        Exception error = assertThrows(Exception.class,
-                () -> invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class }, "device.invalid"));
+        Exception error = assertThrows(Exception.class, () -> resolveConnectionTarget("device.invalid"));
 
         Throwable cause = error.getCause();
         assertNotNull(cause);
@@ -116,8 +118,7 @@ class ESPHomeHandlerLastKnownIpAddressTest {
     void throwsWhenHostnameResolutionFailsWithInvalidCachedIpAddress() {
         thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, " not-an-ip "));
 
-        Exception error = assertThrows(Exception.class,
-                () -> invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class }, "device.invalid"));
+        Exception error = assertThrows(Exception.class, () -> resolveConnectionTarget("device.invalid"));
 
         Throwable cause = error.getCause();
         assertNotNull(cause);
@@ -129,10 +130,9 @@ class ESPHomeHandlerLastKnownIpAddressTest {
     void doesNotUseCachedIpAddressWhenConfiguredHostnameIsLiteralIp() throws Exception {
         thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, "127.0.0.1"));
 
-        Object target = invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class }, "192.0.2.55");
+        Object target = resolveConnectionTarget("192.0.2.55");
 
-        assertEquals("192.0.2.55", invokeRecordAccessor(target, "connectHost"));
-        assertEquals("192.0.2.55", invokeRecordAccessor(target, "ipAddress"));
+        assertEquals(List.of("192.0.2.55"), invokeRecordAccessor(target, "ipAddresses"));
         assertEquals(false, invokeRecordAccessor(target, "cacheLastKnownIpAddress"));
 
         invokeMethod("applyLastKnownIpAddressPolicy", new Class<?>[] { target.getClass() }, target);
@@ -175,6 +175,71 @@ class ESPHomeHandlerLastKnownIpAddressTest {
                 && "virtual".equals(updatedThing.getProperties().get("name"))));
     }
 
+    @Test
+    void forgetsStaleLastKnownIpAddressWhenItWinsTheRaceButFails() throws Exception {
+        thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, "192.0.2.10"));
+        setField("racedLastKnownIpAddress", "192.0.2.10");
+        setField("resolvedIpAddresses", List.of("192.0.2.20"));
+
+        Object stale = invokeMethod("forgetStaleLastKnownIpAddress", new Class<?>[] { String.class }, "192.0.2.10");
+
+        assertEquals(true, stale);
+        verify(callback).thingUpdated(argThat(updatedThing -> !updatedThing.getProperties()
+                .containsKey(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS)));
+    }
+
+    @Test
+    void keepsLastKnownIpAddressWhenHostnameStillResolvesToIt() throws Exception {
+        thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, "192.0.2.10"));
+        setField("racedLastKnownIpAddress", "192.0.2.10");
+        setField("resolvedIpAddresses", List.of("192.0.2.10"));
+
+        Object stale = invokeMethod("forgetStaleLastKnownIpAddress", new Class<?>[] { String.class }, "192.0.2.10");
+
+        assertEquals(false, stale);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    void keepsLastKnownIpAddressWhenAnotherCandidateFails() throws Exception {
+        thing.setProperties(Map.of(ESPHomeHandler.PROPERTY_LAST_KNOWN_IP_ADDRESS, "192.0.2.10"));
+        setField("racedLastKnownIpAddress", "192.0.2.10");
+        setField("resolvedIpAddresses", List.of("192.0.2.20"));
+
+        Object stale = invokeMethod("forgetStaleLastKnownIpAddress", new Class<?>[] { String.class }, "192.0.2.20");
+
+        assertEquals(false, stale);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    void invalidatesResolvedHostnameWhenConnectionAttemptFails() throws Exception {
+        AsyncHostnameResolver hostnameResolver = mock(AsyncHostnameResolver.class);
+        setField("hostnameResolver", hostnameResolver);
+        ESPHomeConfiguration config = new ESPHomeConfiguration();
+        config.hostname = "device.lan";
+        config.deepSleep = true;
+        setField("config", config);
+        Field connectionState = ESPHomeHandler.class.getDeclaredField("connectionState");
+        connectionState.setAccessible(true);
+        connectionState.set(handler, enumConstant(connectionState.getType(), "CONNECTING"));
+
+        invokeMethod("handleDisconnection", new Class<?>[] { ThingStatusDetail.class, String.class },
+                ThingStatusDetail.COMMUNICATION_ERROR, "Connection attempt timed out");
+
+        verify(hostnameResolver).invalidate("device.lan");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumConstant(Class<?> type, String name) {
+        return Enum.valueOf((Class<Enum>) type, name);
+    }
+
+    private Object resolveConnectionTarget(String hostname) throws Exception {
+        return ((CompletableFuture<?>) invokeMethod("resolveConnectionTarget", new Class<?>[] { String.class },
+                hostname)).get();
+    }
+
     private Object invokeMethod(String name, Class<?>[] parameterTypes, Object... args) throws Exception {
         Method method = ESPHomeHandler.class.getDeclaredMethod(name, parameterTypes);
         method.setAccessible(true);
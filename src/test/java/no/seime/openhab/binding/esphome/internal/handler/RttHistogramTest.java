@@ -0,0 +1,70 @@
+package no.seime.openhab.binding.esphome.internal.handler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class RttHistogramTest {
+
+    @Test
+    void emptyHistogramReturnsZero() {
+        RttHistogram histogram = new RttHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    void percentilesFollowRecordedDistribution() {
+        RttHistogram histogram = new RttHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median > TimeUnit.MILLISECONDS.toNanos(2), "median " + median);
+        assertTrue(median <= TimeUnit.MILLISECONDS.toNanos(8), "median " + median);
+
+        long max = histogram.getPercentile(100);
+        assertTrue(max > TimeUnit.MILLISECONDS.toNanos(256), "max " + max);
+        assertTrue(max <= TimeUnit.MILLISECONDS.toNanos(512), "max " + max);
+    }
+
+    @Test
+    void oldSamplesDecay() {
+        RttHistogram histogram = new RttHistogram();
+        for (int i = 0; i < RttHistogram.DECAY_THRESHOLD * 4; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i < RttHistogram.DECAY_THRESHOLD ? 1000 : 5));
+        }
+
+        assertTrue(histogram.getCount() < RttHistogram.DECAY_THRESHOLD);
+        assertTrue(histogram.getPercentile(90) <= TimeUnit.MILLISECONDS.toNanos(8));
+    }
+
+    @Test
+    void decayHalvesSamples() {
+        RttHistogram histogram = new RttHistogram();
+        for (int i = 0; i < 20; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i < 10 ? 1 : 100));
+        }
+        histogram.decay();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertEquals(20, histogram.getCount());
+        assertTrue(histogram.getPercentile(70) <= TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    void clearRemovesAllSamples() {
+        RttHistogram histogram = new RttHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+    }
+}